@@ -0,0 +1,295 @@
+package com.gomdev.gallery;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.provider.MediaStore;
+import android.test.InstrumentationTestCase;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.gomdev.gallery.FakeMediaProvider.Row;
+import com.gomdev.gallery.GalleryConfig.SortBy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by gomdev on 15. 4. 19..
+ * <p/>
+ * Loads the catalog from FakeMediaProvider through a MockContentResolver,
+ * without MainActivity and the ImageLoader singleton, and checks buckets,
+ * date labels and images. testLoadingTime compares the single pass with
+ * the GROUP BY and per bucket queries of the old loader.
+ */
+public class CatalogLoadingTest extends InstrumentationTestCase {
+    static final String CLASS = "CatalogLoadingTest";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private static final int CAMERA = 10;
+    private static final int SCREENSHOTS = 20;
+
+    // a library of 5000 images in 50 buckets, 20 images a day
+    private static final int NUM_OF_IMAGES = 5000;
+    private static final int NUM_OF_BUCKETS = 50;
+    private static final int NUM_OF_IMAGES_IN_DAY = 20;
+    private static final int NUM_OF_ROUNDS = 3;
+
+    private static final String[] PROJECTION_BUCKET = {
+            MediaStore.Images.Media.BUCKET_ID,
+            MediaStore.Images.Media.BUCKET_DISPLAY_NAME
+    };
+
+    private static final String[] PROJECTION_IMAGE = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.DATE_TAKEN,
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.ORIENTATION,
+            MediaStore.Images.Media.BUCKET_ID,
+            MediaStore.Images.Media.WIDTH,
+            MediaStore.Images.Media.HEIGHT
+    };
+
+    private FakeMediaProvider mProvider = null;
+    private Context mContext = null;
+    private File mFilesDir = null;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Context targetContext = getInstrumentation().getTargetContext();
+
+        mProvider = new FakeMediaProvider();
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(MediaStore.AUTHORITY, mProvider);
+
+        // ImageSizeCache is written here, not in the files of the app
+        mFilesDir = new File(targetContext.getCacheDir(), CLASS);
+        mFilesDir.mkdirs();
+
+        mContext = new ContextWrapper(targetContext) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+
+            @Override
+            public File getFilesDir() {
+                return mFilesDir;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mFilesDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFilesDir.delete();
+
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testEmptyProvider() {
+        ImageLoader imageLoader = ImageLoader.newCatalogLoader(mContext, SortBy.DESCENDING.getIndex());
+
+        CatalogSnapshot snapshot = imageLoader.loadImageInfos(false);
+
+        assertEquals(1, mProvider.getNumOfQueries());
+        assertEquals(0, snapshot.getNumOfImages());
+        assertEquals(0, snapshot.getBucketInfos().size());
+    }
+
+    @SmallTest
+    public void testBucketsDateLabelsAndImages() {
+        mProvider.addRow(new Row(1L, 100L * DAY + 10L * HOUR, CAMERA, "Camera"));
+        mProvider.addRow(new Row(4L, 101L * DAY + 8L * HOUR, SCREENSHOTS, "Screenshots"));
+        mProvider.addRow(new Row(3L, 99L * DAY + 12L * HOUR, CAMERA, "Camera"));
+        mProvider.addRow(new Row(2L, 100L * DAY + 9L * HOUR, CAMERA, "Camera"));
+
+        ImageLoader imageLoader = ImageLoader.newCatalogLoader(mContext, SortBy.DESCENDING.getIndex());
+        CatalogSnapshot snapshot = imageLoader.loadImageInfos(false);
+
+        assertEquals(1, mProvider.getNumOfQueries());
+        assertEquals(4, snapshot.getNumOfImages());
+
+        // buckets follow their cover images
+        List<BucketInfo> bucketInfos = snapshot.getBucketInfos();
+        assertEquals(2, bucketInfos.size());
+        BucketInfo screenshots = bucketInfos.get(0);
+        BucketInfo camera = bucketInfos.get(1);
+
+        assertEquals(CAMERA, camera.getID());
+        assertEquals("Camera", camera.getName());
+        assertEquals(3, camera.getNumOfImages());
+        assertEquals(2, camera.getNumOfDateInfos());
+        assertImageIDs(camera.get(0), 1L, 2L);
+        assertImageIDs(camera.get(1), 3L);
+
+        assertEquals(SCREENSHOTS, screenshots.getID());
+        assertEquals(1, screenshots.getNumOfImages());
+        assertEquals(1, screenshots.getNumOfDateInfos());
+        assertImageIDs(screenshots.get(0), 4L);
+
+        mProvider.resetNumOfQueries();
+        imageLoader = ImageLoader.newCatalogLoader(mContext, SortBy.ASCENDING.getIndex());
+        snapshot = imageLoader.loadImageInfos(false);
+
+        assertEquals(1, mProvider.getNumOfQueries());
+
+        bucketInfos = snapshot.getBucketInfos();
+        assertEquals(2, bucketInfos.size());
+        camera = bucketInfos.get(0);
+        screenshots = bucketInfos.get(1);
+
+        assertEquals(CAMERA, camera.getID());
+        assertImageIDs(camera.get(0), 3L);
+        assertImageIDs(camera.get(1), 2L, 1L);
+        assertEquals(SCREENSHOTS, screenshots.getID());
+        assertImageIDs(screenshots.get(0), 4L);
+    }
+
+    // the fake provider has no IPC nor SQLite, so the time of the old loader
+    // leaves out the cost of its extra queries and the gap on a device is larger.
+    @LargeTest
+    public void testLoadingTime() {
+        for (int i = 0; i < NUM_OF_IMAGES; i++) {
+            int bucketID = i % NUM_OF_BUCKETS;
+            long dateTaken = 1000L * DAY + (i / NUM_OF_IMAGES_IN_DAY) * DAY + (i % 24) * HOUR;
+            mProvider.addRow(new Row(i + 1, dateTaken, bucketID, "Bucket" + bucketID));
+        }
+
+        ImageLoader imageLoader = ImageLoader.newCatalogLoader(mContext, SortBy.DESCENDING.getIndex());
+        String orderClause = MediaStore.Images.Media.DATE_TAKEN + " DESC, "
+                + MediaStore.Images.Media._ID + " DESC";
+
+        // warm up, and both loaders should see the same images
+        assertEquals(NUM_OF_IMAGES, countImages(imageLoader.loadImageInfos(false).getBucketInfos()));
+        assertEquals(NUM_OF_IMAGES, countImages(loadPerBucket(orderClause)));
+
+        long[] singlePass = new long[NUM_OF_ROUNDS];
+        long[] perBucket = new long[NUM_OF_ROUNDS];
+        for (int i = 0; i < NUM_OF_ROUNDS; i++) {
+            long startTime = System.nanoTime();
+            imageLoader.loadImageInfos(false);
+            singlePass[i] = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            loadPerBucket(orderClause);
+            perBucket[i] = System.nanoTime() - startTime;
+        }
+
+        mProvider.resetNumOfQueries();
+        imageLoader.loadImageInfos(false);
+        assertEquals(1, mProvider.getNumOfQueries());
+
+        mProvider.resetNumOfQueries();
+        loadPerBucket(orderClause);
+        assertEquals(NUM_OF_BUCKETS + 1, mProvider.getNumOfQueries());
+
+        Arrays.sort(singlePass);
+        Arrays.sort(perBucket);
+        long singlePassMs = singlePass[NUM_OF_ROUNDS / 2] / 1000000L;
+        long perBucketMs = perBucket[NUM_OF_ROUNDS / 2] / 1000000L;
+
+        Log.i(TAG, "testLoadingTime() numOfImages=" + NUM_OF_IMAGES
+                + " singlePass=" + singlePassMs + "ms perBucket=" + perBucketMs + "ms");
+
+        assertTrue("singlePass=" + singlePassMs + "ms perBucket=" + perBucketMs + "ms",
+                singlePass[NUM_OF_ROUNDS / 2] < perBucket[NUM_OF_ROUNDS / 2]);
+    }
+
+    // the loader before the single pass : a GROUP BY query for the buckets and a query
+    // for each bucket, column indices resolved and the date formatted for every row.
+    private List<BucketInfo> loadPerBucket(String orderClause) {
+        ContentResolver resolver = mContext.getContentResolver();
+        List<BucketInfo> bucketInfos = new ArrayList<>();
+
+        Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                PROJECTION_BUCKET, FakeMediaProvider.BUCKET_GROUP_BY, null, orderClause);
+        try {
+            while (cursor.moveToNext()) {
+                int bucketID = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_ID));
+                BucketInfo bucketInfo = new BucketInfo(bucketID);
+                bucketInfo.setName(cursor.getString(
+                        cursor.getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_DISPLAY_NAME)));
+                bucketInfos.add(bucketInfo);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (BucketInfo bucketInfo : bucketInfos) {
+            cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    PROJECTION_IMAGE, FakeMediaProvider.BUCKET_SELECTION,
+                    new String[]{String.valueOf(bucketInfo.getID())}, orderClause);
+            try {
+                loadBucket(cursor, bucketInfo);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return bucketInfos;
+    }
+
+    private void loadBucket(Cursor cursor, BucketInfo bucketInfo) {
+        long prevDay = 0L;
+        DateLabelInfo dateLabelInfo = null;
+        while (cursor.moveToNext()) {
+            long imageID = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID));
+            String path = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA));
+            int orientation = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.ORIENTATION));
+            long dateTakenInMs = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_TAKEN));
+            int width = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.WIDTH));
+            int height = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.HEIGHT));
+
+            ImageInfo imageInfo = new ImageInfo(imageID, orientation);
+            imageInfo.setImagePath(path);
+            imageInfo.setDateTaken(dateTakenInMs);
+            imageInfo.setWidth(width);
+            imageInfo.setHeight(height);
+
+            String date = DateUtils.formatDateTime(mContext, dateTakenInMs, DateUtils.FORMAT_SHOW_YEAR);
+
+            long day = ImageLoader.getDay(dateTakenInMs);
+            if (dateLabelInfo == null || prevDay != day) {
+                dateLabelInfo = new DateLabelInfo(date);
+                bucketInfo.add(dateLabelInfo);
+            }
+            dateLabelInfo.add(imageInfo);
+
+            prevDay = day;
+        }
+    }
+
+    private static int countImages(List<BucketInfo> bucketInfos) {
+        int numOfImages = 0;
+        for (BucketInfo bucketInfo : bucketInfos) {
+            numOfImages += bucketInfo.getNumOfImages();
+        }
+        return numOfImages;
+    }
+
+    private void assertImageIDs(DateLabelInfo dateLabelInfo, long... imageIDs) {
+        assertEquals(imageIDs.length, dateLabelInfo.getNumOfImages());
+        for (int i = 0; i < imageIDs.length; i++) {
+            assertEquals(imageIDs[i], dateLabelInfo.getImageID(i));
+            assertEquals(imageIDs[i], dateLabelInfo.get(i).getImageID());
+        }
+    }
+}
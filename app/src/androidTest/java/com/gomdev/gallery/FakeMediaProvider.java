@@ -0,0 +1,141 @@
+package com.gomdev.gallery;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.test.mock.MockContentProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Created by gomdev on 15. 4. 19..
+ * <p/>
+ * MediaStore images of synthetic rows for a MockContentResolver.
+ * Answers the queries of ImageLoader, the single pass ordered by BUCKET_ID,
+ * the bucket GROUP BY and the query of one bucket, and counts them.
+ */
+class FakeMediaProvider extends MockContentProvider {
+    static final String BUCKET_GROUP_BY = "1) GROUP BY (1";
+    static final String BUCKET_SELECTION = MediaStore.Images.Media.BUCKET_ID + " = ? ";
+
+    static class Row {
+        final long mID;
+        final long mDateTaken;
+        final int mBucketID;
+        final String mBucketName;
+
+        Row(long id, long dateTaken, int bucketID, String bucketName) {
+            mID = id;
+            mDateTaken = dateTaken;
+            mBucketID = bucketID;
+            mBucketName = bucketName;
+        }
+    }
+
+    private final List<Row> mRows = new ArrayList<>();
+    private int mNumOfQueries = 0;
+
+    void addRow(Row row) {
+        mRows.add(row);
+    }
+
+    int getNumOfQueries() {
+        return mNumOfQueries;
+    }
+
+    void resetNumOfQueries() {
+        mNumOfQueries = 0;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        mNumOfQueries++;
+
+        final boolean isDescending = (sortOrder == null ||
+                sortOrder.contains(MediaStore.Images.Media.DATE_TAKEN + " ASC") == false);
+        final boolean isBucketFirst = (sortOrder != null &&
+                sortOrder.startsWith(MediaStore.Images.Media.BUCKET_ID));
+
+        List<Row> rows = new ArrayList<>(mRows);
+        Collections.sort(rows, new Comparator<Row>() {
+            @Override
+            public int compare(Row lhs, Row rhs) {
+                if (isBucketFirst == true && lhs.mBucketID != rhs.mBucketID) {
+                    return (lhs.mBucketID < rhs.mBucketID) ? -1 : 1;
+                }
+
+                int result = Long.valueOf(lhs.mDateTaken).compareTo(rhs.mDateTaken);
+                if (result == 0) {
+                    return -Long.valueOf(lhs.mID).compareTo(rhs.mID);
+                }
+                return isDescending ? -result : result;
+            }
+        });
+
+        MatrixCursor cursor = new MatrixCursor(projection);
+
+        if (BUCKET_GROUP_BY.equals(selection) == true) {
+            // one row for each bucket, the cover image first
+            Set<Integer> buckets = new HashSet<>();
+            for (Row row : rows) {
+                if (buckets.add(row.mBucketID) == true) {
+                    cursor.addRow(getValues(row, projection));
+                }
+            }
+            return cursor;
+        }
+
+        int bucketID = 0;
+        boolean isBucketSelected = BUCKET_SELECTION.equals(selection);
+        if (isBucketSelected == true) {
+            bucketID = Integer.parseInt(selectionArgs[0]);
+        }
+
+        for (Row row : rows) {
+            if (isBucketSelected == true && row.mBucketID != bucketID) {
+                continue;
+            }
+            cursor.addRow(getValues(row, projection));
+        }
+
+        return cursor;
+    }
+
+    private static Object[] getValues(Row row, String[] projection) {
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            values[i] = getValue(row, projection[i]);
+        }
+        return values;
+    }
+
+    private static Object getValue(Row row, String column) {
+        if (MediaStore.Images.Media._ID.equals(column) == true) {
+            return row.mID;
+        } else if (MediaStore.Images.Media.DATE_TAKEN.equals(column) == true) {
+            return row.mDateTaken;
+        } else if (MediaStore.Images.Media.DATA.equals(column) == true) {
+            return "/storage/emulated/0/DCIM/" + row.mBucketName + "/IMG_" + row.mID + ".jpg";
+        } else if (MediaStore.Images.Media.ORIENTATION.equals(column) == true) {
+            return 0;
+        } else if (MediaStore.Images.Media.BUCKET_ID.equals(column) == true) {
+            return row.mBucketID;
+        } else if (MediaStore.Images.Media.BUCKET_DISPLAY_NAME.equals(column) == true) {
+            return row.mBucketName;
+        } else if (MediaStore.Images.Media.WIDTH.equals(column) == true) {
+            return 4128;
+        } else if (MediaStore.Images.Media.HEIGHT.equals(column) == true) {
+            return 3096;
+        } else if (MediaStore.Images.Media.DATE_MODIFIED.equals(column) == true) {
+            return row.mDateTaken / 1000L;
+        }
+        return null;
+    }
+}
@@ -35,6 +35,8 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
 
     private GallerySurfaceView mSurfaceView = null;
     private GalleryContext mGalleryContext = null;
+    private DecodeScheduler mDecodeScheduler = null;
+    private ThumbnailPrefetcher mThumbnailPrefetcher = null;
     private ImageListRenderer mRenderer = null;
     private AlbumViewManager mAlbumViewManager = null;
 
@@ -83,6 +85,8 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
         setGridInfo(gridInfo);
 
         mGalleryContext = GalleryContext.getInstance();
+        mDecodeScheduler = DecodeScheduler.getInstance();
+        mThumbnailPrefetcher = ThumbnailPrefetcher.getInstance();
         mGestureDetector = new GestureDetectorCompat(context, mGestureListener);
 
         mScroller = new OverScroller(context);
@@ -176,12 +180,7 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
             Log.d(TAG, "onImageDeleted()");
         }
 
-        mScrollableHeight = mGridInfo.getScrollableHeight();
-
-        mSurfaceSizeBuffer.y = mScrollableHeight;
-
-        mSurfaceBufferTop = mHeight * 0.5f;
-        mSurfaceBufferBottom = mSurfaceBufferTop - mScrollableHeight;
+        updateScrollableHeight();
     }
 
     @Override
@@ -190,6 +189,37 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
             Log.d(TAG, "onDateLabelDeleted()");
         }
 
+        updateScrollableHeight();
+    }
+
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted()");
+        }
+
+        updateScrollableHeight();
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted()");
+        }
+
+        updateScrollableHeight();
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        if (DEBUG) {
+            Log.d(TAG, "onDateLabelInserted()");
+        }
+
+        updateScrollableHeight();
+    }
+
+    private void updateScrollableHeight() {
         mScrollableHeight = mGridInfo.getScrollableHeight();
 
         mSurfaceSizeBuffer.y = mScrollableHeight;
@@ -317,6 +347,8 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
 
             if (mIsOnFling == true) {
                 mIsOnFling = false;
+                mDecodeScheduler.setFling(false);
+                mThumbnailPrefetcher.stop();
             }
             return;
         }
@@ -383,15 +415,7 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
 
             AlbumViewMode albumViewMode = mGalleryContext.getAlbumViewMode();
             if (albumViewMode == AlbumViewMode.MULTI_SELECTION_MODE) {
-                ImageObject imageObject = mAlbumViewManager.getImageObject(imageIndexingInfo);
-                boolean isChecked = imageObject.isChecked();
-                if (isChecked == true) {
-                    imageObject.setCheck(false);
-                    mGalleryContext.uncheckImageIndexingInfo(imageIndexingInfo);
-                } else {
-                    imageObject.setCheck(true);
-                    mGalleryContext.checkImageIndexingInfo(imageIndexingInfo);
-                }
+                toggleCheck(imageIndexingInfo);
             } else {
                 if (imageIndexingInfo.mImageIndex == -1) {
                     return false;
@@ -421,21 +445,30 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
             mGalleryContext.setAlbumViewMode(AlbumViewMode.MULTI_SELECTION_MODE);
             mHandler.sendEmptyMessage(ImageListActivity.INVALIDATE_OPTION_MENU);
 
-            ImageObject imageObject = mAlbumViewManager.getImageObject(imageIndexingInfo);
-            boolean isChecked = imageObject.isChecked();
-            if (isChecked == true) {
-                imageObject.setCheck(false);
-                mGalleryContext.uncheckImageIndexingInfo(imageIndexingInfo);
-            } else {
-                imageObject.setCheck(true);
-                mGalleryContext.checkImageIndexingInfo(imageIndexingInfo);
-            }
+            toggleCheck(imageIndexingInfo);
 
             mSurfaceView.requestRender();
 
             mIsOnScrolling = false;
         }
 
+        // GalleryContext keeps the check. an image out of the window gets it when it is bound
+        private void toggleCheck(ImageIndexingInfo imageIndexingInfo) {
+            synchronized (GalleryContext.sLockObject) {
+                boolean isChecked = mGalleryContext.getCheckedImageIndexingInfos().contains(imageIndexingInfo);
+                if (isChecked == true) {
+                    mGalleryContext.uncheckImageIndexingInfo(imageIndexingInfo);
+                } else {
+                    mGalleryContext.checkImageIndexingInfo(imageIndexingInfo);
+                }
+
+                ImageObject imageObject = mAlbumViewManager.getImageObject(imageIndexingInfo);
+                if (imageObject != null) {
+                    imageObject.setCheck(isChecked == false);
+                }
+            }
+        }
+
         @Override
         public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
             mIsOnScrolling = true;
@@ -456,9 +489,13 @@ class AlbumViewGestureDetector implements GridInfoChangeListener {
         @Override
         public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
             mIsOnFling = true;
+            mDecodeScheduler.setFling(true);
 
             fling((int) -velocityX, (int) -velocityY);
 
+            // thumbnails between here and the final position are decoded ahead
+            mThumbnailPrefetcher.start(mScroller.getStartY(), mScroller.getFinalY());
+
             return true;
         }
     };
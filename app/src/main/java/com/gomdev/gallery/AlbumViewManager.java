@@ -127,6 +127,8 @@ class AlbumViewManager implements GridInfoChangeListener, ViewManager {
         mAlbumViewGestureDetector = new AlbumViewGestureDetector(mContext, mGridInfo);
         mAlbumViewGestureDetector.setAlbumViewManager(this);
 
+        DecodeScheduler.getInstance().setGridInfo(mGridInfo);
+
         mIsSurfaceChanged = false;
     }
 
@@ -447,6 +449,29 @@ class AlbumViewManager implements GridInfoChangeListener, ViewManager {
         mNumOfDateInfos = mGridInfo.getNumOfDateInfos();
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted()");
+        }
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted()");
+        }
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        if (DEBUG) {
+            Log.d(TAG, "onDateLabelInserted()");
+        }
+
+        mNumOfDateInfos = mGridInfo.getNumOfDateInfos();
+    }
+
     // set / get
 
     void show() {
@@ -557,13 +582,28 @@ class AlbumViewManager implements GridInfoChangeListener, ViewManager {
     }
 
     float getNextTranslateY() {
+        // the image at the focus was not bound, so the viewport stays
+        if (mCenterObject == null) {
+            return mGridInfo.getTranslateY();
+        }
+
         float top = mCenterObject.getNextTop() - (mColumnWidth * 0.5f) + mFocusY + mCenterObject.getNextStartOffsetY();
         float translateY = mAlbumViewGestureDetector.getTranslateY(top, mNextBottom);
         return translateY;
     }
 
+    // null if the image is out of the window
     ImageObject getImageObject(ImageIndexingInfo imageIndexingInfo) {
-        return mGalleryObjects.getImageObject(imageIndexingInfo);
+        synchronized (GalleryContext.sLockObject) {
+            return mGalleryObjects.getImageObject(imageIndexingInfo);
+        }
+    }
+
+    // called on the GL thread
+    ImageObject bindImageObject(ImageIndexingInfo imageIndexingInfo) {
+        synchronized (GalleryContext.sLockObject) {
+            return mGalleryObjects.bindImageObject(imageIndexingInfo);
+        }
     }
 
     void adjustViewport(float translateY) {
@@ -578,6 +618,10 @@ class AlbumViewManager implements GridInfoChangeListener, ViewManager {
         mGalleryObjects.cancelLoading(true);
     }
 
+    void releaseTextures() {
+        mGalleryObjects.releaseTextures();
+    }
+
     void deleteDateLabel(int index) {
         mGalleryObjects.deleteDateLabel(index);
     }
@@ -586,6 +630,26 @@ class AlbumViewManager implements GridInfoChangeListener, ViewManager {
         mGalleryObjects.deleteImage(indexingInfo);
     }
 
+    void deleteImages(int dateLabelIndex, int index, int count) {
+        mGalleryObjects.deleteImages(dateLabelIndex, index, count);
+    }
+
+    void insertDateLabel(int index) {
+        mGalleryObjects.insertDateLabel(index);
+    }
+
+    void insertImage(ImageIndexingInfo indexingInfo) {
+        mGalleryObjects.insertImage(indexingInfo);
+    }
+
+    BucketInfo getBucketInfo() {
+        return mBucketInfo;
+    }
+
+    GridInfo getGridInfo() {
+        return mGridInfo;
+    }
+
     private GLESNodeListener mImageNodeListener = new GLESNodeListener() {
         @Override
         public void update(GLESNode node) {
@@ -78,6 +78,18 @@ class AlbumViewScaleGestureDetector implements GridInfoChangeListener {
     public void onDateLabelDeleted() {
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+    }
+
     private final ScaleGestureDetector.OnScaleGestureListener mScaleGestureListener
             = new ScaleGestureDetector.SimpleOnScaleGestureListener() {
         private float mLastSpan;
@@ -0,0 +1,233 @@
+package com.gomdev.gallery;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by gomdev on 15. 4. 9..
+ * <p/>
+ * Bitmaps which are no longer used, kept for BitmapFactory.Options.inBitmap.
+ * From KITKAT any bitmap which is large enough can be reused, so bitmaps are keyed by
+ * size class of allocation byte count. Before KITKAT only the same size can be reused.
+ */
+class BitmapPool {
+    static final String CLASS = "BitmapPool";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static final boolean CAN_REUSE_LARGER_BITMAP =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    private static BitmapPool sBitmapPool = null;
+
+    static synchronized BitmapPool getInstance() {
+        if (sBitmapPool == null) {
+            int maxSize = (int) Math.min(Runtime.getRuntime().maxMemory() / GalleryConfig.BITMAP_POOL_MEMORY_DIVIDER,
+                    GalleryConfig.MAX_BITMAP_POOL_SIZE);
+            sBitmapPool = new BitmapPool(maxSize);
+        }
+        return sBitmapPool;
+    }
+
+    private final HashMap<Long, ArrayDeque<Bitmap>> mBitmaps = new HashMap<>();
+    // all pooled bitmaps from the least recently added one
+    private final LinkedHashMap<Bitmap, Long> mLruBitmaps = new LinkedHashMap<>();
+
+    private int mMaxSize;
+    private int mSize = 0;
+
+    BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    // bitmap which can't be reused is recycled
+    void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() == true) {
+            return;
+        }
+
+        int byteCount = getByteCount(bitmap);
+        if (bitmap.isMutable() == false || byteCount > mMaxSize / 2) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (this) {
+            if (mLruBitmaps.containsKey(bitmap) == true) {
+                return;
+            }
+
+            long key = CAN_REUSE_LARGER_BITMAP ?
+                    getSizeClass(byteCount) :
+                    getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+
+            ArrayDeque<Bitmap> bitmaps = mBitmaps.get(key);
+            if (bitmaps == null) {
+                bitmaps = new ArrayDeque<>();
+                mBitmaps.put(key, bitmaps);
+            }
+
+            bitmaps.add(bitmap);
+            mLruBitmaps.put(bitmap, key);
+            mSize += byteCount;
+
+            trimToSize(mMaxSize);
+        }
+    }
+
+    // returns a bitmap of exactly this size, or null.
+    Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getReusableBitmap(width, height, config);
+        if (bitmap != null && CAN_REUSE_LARGER_BITMAP) {
+            reconfigure(bitmap, width, height, config);
+        }
+
+        return bitmap;
+    }
+
+    // sets inBitmap for the bitmap which will be decoded to width x height.
+    // before KITKAT, inSampleSize should be 1.
+    boolean setInBitmap(BitmapFactory.Options options, int width, int height) {
+        if (CAN_REUSE_LARGER_BITMAP == false && options.inSampleSize > 1) {
+            return false;
+        }
+
+        options.inMutable = true;
+
+        Bitmap.Config config = (options.inPreferredConfig != null) ?
+                options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = getReusableBitmap(width, height, config);
+        if (bitmap == null) {
+            return false;
+        }
+
+        options.inBitmap = bitmap;
+        return true;
+    }
+
+    synchronized void clear() {
+        trimToSize(0);
+    }
+
+    synchronized void trimToSize(int size) {
+        Iterator<Map.Entry<Bitmap, Long>> iter = mLruBitmaps.entrySet().iterator();
+        while (mSize > size && iter.hasNext()) {
+            Map.Entry<Bitmap, Long> entry = iter.next();
+            Bitmap bitmap = entry.getKey();
+
+            ArrayDeque<Bitmap> bitmaps = mBitmaps.get(entry.getValue());
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty() == true) {
+                mBitmaps.remove(entry.getValue());
+            }
+
+            iter.remove();
+            mSize -= getByteCount(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    synchronized int getSize() {
+        return mSize;
+    }
+
+    int getMaxSize() {
+        return mMaxSize;
+    }
+
+    private synchronized Bitmap getReusableBitmap(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        if (CAN_REUSE_LARGER_BITMAP == false) {
+            return poll(getKey(width, height, config), 0);
+        }
+
+        int byteCount = width * height * getBytesPerPixel(config);
+        long sizeClass = getSizeClass(byteCount);
+
+        // bitmaps of the next size class are always large enough
+        Bitmap bitmap = poll(sizeClass, byteCount);
+        if (bitmap == null) {
+            bitmap = poll(sizeClass + 1, byteCount);
+        }
+
+        return bitmap;
+    }
+
+    private Bitmap poll(long key, int minByteCount) {
+        ArrayDeque<Bitmap> bitmaps = mBitmaps.get(key);
+        if (bitmaps == null) {
+            return null;
+        }
+
+        Iterator<Bitmap> iter = bitmaps.iterator();
+        while (iter.hasNext()) {
+            Bitmap bitmap = iter.next();
+            int byteCount = getByteCount(bitmap);
+            if (byteCount < minByteCount) {
+                continue;
+            }
+
+            iter.remove();
+            if (bitmaps.isEmpty() == true) {
+                mBitmaps.remove(key);
+            }
+
+            mLruBitmaps.remove(bitmap);
+            mSize -= byteCount;
+
+            if (DEBUG) {
+                Log.d(TAG, "poll() reuse " + bitmap.getWidth() + "x" + bitmap.getHeight());
+            }
+
+            return bitmap;
+        }
+
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        bitmap.reconfigure(width, height, config);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getByteCount(Bitmap bitmap) {
+        if (CAN_REUSE_LARGER_BITMAP) {
+            return bitmap.getAllocationByteCount();
+        }
+
+        return bitmap.getByteCount();
+    }
+
+    // exponent of the smallest power of 2 which is not less than byteCount
+    private static long getSizeClass(int byteCount) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(byteCount - 1, 0));
+    }
+
+    private static long getKey(int width, int height, Bitmap.Config config) {
+        int ordinal = (config != null) ? config.ordinal() : 0;
+        return ((long) width << 32) | ((long) height << 8) | ordinal;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+
+        return 4;
+    }
+}
@@ -24,6 +24,7 @@ class BitmapWorker {
             // If bitmapData is not yet set or it differs from the new data
             if (data == null || data != galleryInfo) {
                 bitmapWorkerTask.cancel(false);
+                bitmapWorkerTask.cancelDecode();
             } else {
                 // The same work is already in progress
                 return false;
@@ -38,6 +39,7 @@ class BitmapWorker {
         final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(container);
         if (bitmapWorkerTask != null) {
             bitmapWorkerTask.cancel(false);
+            bitmapWorkerTask.cancelDecode();
             if (DEBUG) {
                 final Object bitmapData = bitmapWorkerTask.getData();
                 Log.d(TAG, "cancelWork - cancelled work for " + bitmapData);
@@ -76,6 +78,10 @@ class BitmapWorker {
             return null;
         }
 
+        // stops the decode in progress. called after cancel()
+        void cancelDecode() {
+        }
+
         @Override
         protected void onPostExecute(BitmapDrawable value) {
             if (isCancelled() == true) {
@@ -121,5 +127,9 @@ class BitmapWorker {
         protected GalleryInfo getData() {
             return mGalleryInfo;
         }
+
+        T getContainer() {
+            return mReference.get();
+        }
     }
 }
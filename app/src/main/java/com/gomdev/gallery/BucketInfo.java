@@ -14,8 +14,15 @@ class BucketInfo implements Serializable {
     private String mName;
     private int mDateLableIndex = 0;
 
+    // placeholder published before its images are loaded
+    private boolean mIsLoaded = true;
+    private int mNumOfImages = 0;
+
     private ArrayList<DateLabelInfo> mDateLabelInfos = new ArrayList<>();
 
+    // number of images of each date label. rebuilt when date labels are added or removed.
+    private transient FenwickTree mNumOfImagesTree = null;
+
     BucketInfo(int id) {
         mID = id;
         mDateLabelInfos.clear();
@@ -41,9 +48,36 @@ class BucketInfo implements Serializable {
         mName = name;
     }
 
+    // only the cover image is known until the whole bucket is loaded
+    void setPlaceholder(int numOfImages) {
+        mIsLoaded = false;
+        mNumOfImages = numOfImages;
+    }
+
+    boolean isLoaded() {
+        return mIsLoaded;
+    }
+
     void add(DateLabelInfo dateLabelInfo) {
         mDateLabelInfos.add(dateLabelInfo);
         dateLabelInfo.setIndex(mDateLableIndex++);
+        dateLabelInfo.setBucketInfo(this);
+
+        mNumOfImagesTree = null;
+    }
+
+    void insert(int index, DateLabelInfo dateLabelInfo) {
+        mDateLabelInfos.add(index, dateLabelInfo);
+        dateLabelInfo.setBucketInfo(this);
+
+        int size = mDateLabelInfos.size();
+        for (int i = index; i < size; i++) {
+            mDateLabelInfos.get(i).setIndex(i);
+        }
+
+        mDateLableIndex = size;
+
+        mNumOfImagesTree = null;
     }
 
     DateLabelInfo get(int position) {
@@ -64,15 +98,49 @@ class BucketInfo implements Serializable {
     }
 
     int getNumOfImages() {
-        int numOfImages = 0;
+        if (mIsLoaded == false) {
+            return mNumOfImages;
+        }
 
+        return getNumOfImagesTree().getSum();
+    }
+
+    // index of the image in the whole bucket
+    int getImageIndex(int dateLabelIndex, int imageIndex) {
+        return getNumOfImagesTree().getPrefixSum(dateLabelIndex) + imageIndex;
+    }
+
+    // date label which has the image of the index in the whole bucket
+    int getDateLabelIndex(int index) {
+        return getNumOfImagesTree().find(index);
+    }
+
+    // called by DateLabelInfo when images are added to or removed from it
+    void onNumOfImagesChanged(int dateLabelIndex, int delta) {
+        if (mNumOfImagesTree != null) {
+            mNumOfImagesTree.add(dateLabelIndex, delta);
+        }
+    }
+
+    private FenwickTree getNumOfImagesTree() {
+        if (mNumOfImagesTree == null) {
+            int size = mDateLabelInfos.size();
+            int[] numOfImages = new int[size];
+            for (int i = 0; i < size; i++) {
+                numOfImages[i] = mDateLabelInfos.get(i).getNumOfImages();
+            }
+
+            mNumOfImagesTree = new FenwickTree(numOfImages, size);
+        }
+
+        return mNumOfImagesTree;
+    }
+
+    void trimToSize() {
         int size = mDateLabelInfos.size();
         for (int i = 0; i < size; i++) {
-            DateLabelInfo dateLabelInfo = mDateLabelInfos.get(i);
-            numOfImages += dateLabelInfo.getNumOfImages();
+            mDateLabelInfos.get(i).trimToSize();
         }
-
-        return numOfImages;
     }
 
     void deleteDateLabel(int index) {
@@ -84,5 +152,8 @@ class BucketInfo implements Serializable {
             dateLabelInfo.setIndex(index++);
         }
 
+        mDateLableIndex = size;
+
+        mNumOfImagesTree = null;
     }
 }
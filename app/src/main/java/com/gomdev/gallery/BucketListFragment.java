@@ -24,7 +24,7 @@ import android.widget.TextView;
 
 import com.gomdev.gles.GLESUtils;
 
-public class BucketListFragment extends Fragment {
+public class BucketListFragment extends Fragment implements CatalogChangeListener {
     static final String CLASS = "BucketListFragment";
     static final String TAG = GalleryConfig.TAG + "_" + CLASS;
     static final boolean DEBUG = GalleryConfig.DEBUG;
@@ -41,6 +41,10 @@ public class BucketListFragment extends Fragment {
     private int mNumOfColumns = 0;
     private int mTotalNumOfImages = 0;
 
+    // album clicked while its bucket is still loading
+    private int mPendingBucketID = -1;
+    private View mPendingView = null;
+
     public BucketListFragment() {
 
     }
@@ -101,6 +105,77 @@ public class BucketListFragment extends Fragment {
             mAdapter.notifyDataSetChanged();
             mTotalNumOfImages = totalNumOfImages;
         }
+
+        mImageManager.addListener(this);
+    }
+
+    @Override
+    public void onPause() {
+        if (DEBUG) {
+            Log.d(TAG, "onPause()");
+        }
+
+        mImageManager.removeListener(this);
+        mPendingBucketID = -1;
+        mPendingView = null;
+
+        super.onPause();
+    }
+
+    @Override
+    public void onCatalogChanged() {
+        if (DEBUG) {
+            Log.d(TAG, "onCatalogChanged()");
+        }
+
+        mImageLoader.checkAndLoadImages();
+
+        mTotalNumOfImages = mImageManager.getNumOfImages();
+        mAdapter.notifyDataSetChanged();
+
+        if (mPendingBucketID != -1) {
+            openPendingBucket();
+        }
+    }
+
+    private void openPendingBucket() {
+        int size = mImageManager.getNumOfBucketInfos();
+        for (int i = 0; i < size; i++) {
+            BucketInfo bucketInfo = mImageManager.getBucketInfo(i);
+            if (bucketInfo.getID() != mPendingBucketID) {
+                continue;
+            }
+
+            if (bucketInfo.isLoaded() == true) {
+                View v = mPendingView;
+                mPendingBucketID = -1;
+                mPendingView = null;
+
+                openBucket(i, v);
+            }
+            return;
+        }
+
+        // bucket is removed while loading
+        mPendingBucketID = -1;
+        mPendingView = null;
+    }
+
+    private void openBucket(int bucketIndex, View v) {
+        Intent intent = new Intent(getActivity(),
+                com.gomdev.gallery.ImageListActivity.class);
+        intent.putExtra(GalleryConfig.BUCKET_INDEX, bucketIndex);
+        mImageManager.setCurrentBucketInfo(bucketIndex);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // makeThumbnailScaleUpAnimation() looks kind of ugly here as the loading spinner may
+            // show plus the thumbnail image in GridView is cropped. so using
+            // makeScaleUpAnimation() instead.
+            ActivityOptions options =
+                    ActivityOptions.makeScaleUpAnimation(v, 0, 0, v.getWidth(), v.getHeight());
+            getActivity().startActivity(intent, options.toBundle());
+        } else {
+            startActivity(intent);
+        }
     }
 
     public class BucketGridAdapter extends BaseAdapter {
@@ -212,20 +287,23 @@ public class BucketListFragment extends Fragment {
     private OnItemClickListener mOnItemClickListener = new OnItemClickListener() {
         public void onItemClick(AdapterView<?> parent, View v,
                                 int position, long id) {
-            Intent intent = new Intent(getActivity(),
-                    com.gomdev.gallery.ImageListActivity.class);
-            intent.putExtra(GalleryConfig.BUCKET_INDEX, position - mNumOfColumns);
-            mImageManager.setCurrentBucketInfo(position - mNumOfColumns);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                // makeThumbnailScaleUpAnimation() looks kind of ugly here as the loading spinner may
-                // show plus the thumbnail image in GridView is cropped. so using
-                // makeScaleUpAnimation() instead.
-                ActivityOptions options =
-                        ActivityOptions.makeScaleUpAnimation(v, 0, 0, v.getWidth(), v.getHeight());
-                getActivity().startActivity(intent, options.toBundle());
-            } else {
-                startActivity(intent);
+            if (position < mNumOfColumns) {
+                return;
             }
+
+            int bucketIndex = position - mNumOfColumns;
+            BucketInfo bucketInfo = mImageManager.getBucketInfo(bucketIndex);
+            if (bucketInfo.isLoaded() == false) {
+                // opened when onCatalogChanged() is called for this bucket
+                mPendingBucketID = bucketInfo.getID();
+                mPendingView = v;
+                return;
+            }
+
+            mPendingBucketID = -1;
+            mPendingView = null;
+
+            openBucket(bucketIndex, v);
         }
     };
 }
@@ -0,0 +1,144 @@
+package com.gomdev.gallery;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Created by gomdev on 15. 4. 14..
+ * <p/>
+ * Sizes the caches from the device, and sheds them in stages on onTrimMemory().
+ * BitmapPool goes first, then the least recently used part of the memory cache,
+ * and then textures of thumbnails. Textures are released by ImageListActivity on the GL thread.
+ */
+class CacheBudgetManager implements ComponentCallbacks2 {
+    static final String CLASS = "CacheBudgetManager";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    static final int TRIM_STAGE_NONE = 0;
+    static final int TRIM_STAGE_BITMAP_POOL = 1;
+    static final int TRIM_STAGE_MEMORY_CACHE = 2;
+    static final int TRIM_STAGE_TEXTURES = 3;
+
+    private static CacheBudgetManager sCacheBudgetManager = null;
+
+    static synchronized CacheBudgetManager getInstance(Context context) {
+        if (sCacheBudgetManager == null) {
+            Context applicationContext = context.getApplicationContext();
+            sCacheBudgetManager = new CacheBudgetManager(applicationContext);
+            applicationContext.registerComponentCallbacks(sCacheBudgetManager);
+        }
+        return sCacheBudgetManager;
+    }
+
+    private final int mMemoryClass;     // MB
+    private final boolean mIsLowRamDevice;
+
+    private volatile ImageCache mImageCache = null;
+
+    CacheBudgetManager(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+
+        mMemoryClass = activityManager.getMemoryClass();
+        mIsLowRamDevice = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) &&
+                activityManager.isLowRamDevice();
+
+        if (DEBUG) {
+            Log.d(TAG, "CacheBudgetManager() memoryClass=" + mMemoryClass + " isLowRamDevice=" + mIsLowRamDevice);
+        }
+    }
+
+    void setImageCache(ImageCache imageCache) {
+        mImageCache = imageCache;
+    }
+
+    // KB. numOfImages is 0 if the library is not loaded yet.
+    int getMemCacheSize(int numOfImages) {
+        int divider = (mIsLowRamDevice == true) ?
+                GalleryConfig.LOW_RAM_MEM_CACHE_DIVIDER : GalleryConfig.MEM_CACHE_DIVIDER;
+        int size = mMemoryClass * 1024 / divider;
+
+        if (numOfImages > 0) {
+            size = (int) Math.min(size, (long) numOfImages * GalleryConfig.THUMBNAIL_MEM_CACHE_SIZE);
+        }
+
+        return Math.max(size, GalleryConfig.MIN_MEM_CACHE_SIZE);
+    }
+
+    // bytes, for DiskLruCache and the thumbnail store together
+    int getDiskBudget(File cacheDir) {
+        File dir = cacheDir;
+        while (dir != null && dir.exists() == false) {
+            dir = dir.getParentFile();
+        }
+
+        long usableSpace = (dir != null) ? dir.getUsableSpace() : 0L;
+        long size = usableSpace / GalleryConfig.DISK_CACHE_DIVIDER;
+        size = Math.min(size, GalleryConfig.MAX_DISK_CACHE_SIZE);
+
+        return (int) Math.max(size, GalleryConfig.MIN_DISK_CACHE_SIZE);
+    }
+
+    int getDiskCacheSize(int diskBudget) {
+        return diskBudget - getThumbnailStoreSize(diskBudget);
+    }
+
+    int getThumbnailStoreSize(int diskBudget) {
+        return (int) ((long) diskBudget * GalleryConfig.THUMBNAIL_STORE_DISK_PERCENT / 100);
+    }
+
+    static int getTrimStage(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TRIM_STAGE_TEXTURES;
+        }
+
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            return TRIM_STAGE_MEMORY_CACHE;
+        }
+
+        if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_MODERATE) {
+            return TRIM_STAGE_BITMAP_POOL;
+        }
+
+        return TRIM_STAGE_NONE;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (DEBUG) {
+            Log.d(TAG, "onTrimMemory() level=" + level);
+        }
+
+        trim(getTrimStage(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        if (DEBUG) {
+            Log.d(TAG, "onLowMemory()");
+        }
+
+        trim(TRIM_STAGE_TEXTURES);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void trim(int stage) {
+        if (stage >= TRIM_STAGE_BITMAP_POOL) {
+            BitmapPool.getInstance().clear();
+        }
+
+        ImageCache imageCache = mImageCache;
+        if (stage >= TRIM_STAGE_MEMORY_CACHE && imageCache != null) {
+            imageCache.trimMemCache(stage >= TRIM_STAGE_TEXTURES);
+        }
+    }
+}
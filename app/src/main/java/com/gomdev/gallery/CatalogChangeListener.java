@@ -0,0 +1,8 @@
+package com.gomdev.gallery;
+
+/**
+ * Created by gomdev on 15. 4. 5..
+ */
+public interface CatalogChangeListener {
+    public void onCatalogChanged();
+}
@@ -0,0 +1,72 @@
+package com.gomdev.gallery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by gomdev on 15. 4. 6..
+ * <p/>
+ * Difference between the catalog in ImageManager and MediaStore.
+ * A changed row is reported as a deletion followed by an insertion.
+ */
+class CatalogDelta {
+    static final String CLASS = "CatalogDelta";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private final List<Long> mDeletedImageIDs = new ArrayList<>();
+    private final List<Insertion> mInsertions = new ArrayList<>();
+    private final boolean mIsDescending;
+
+    private long mMaxDateModified = 0L;
+
+    CatalogDelta(boolean isDescending) {
+        mIsDescending = isDescending;
+    }
+
+    boolean isDescending() {
+        return mIsDescending;
+    }
+
+    boolean isEmpty() {
+        return mDeletedImageIDs.isEmpty() && mInsertions.isEmpty();
+    }
+
+    void addDeletedImageID(long imageID) {
+        mDeletedImageIDs.add(imageID);
+    }
+
+    List<Long> getDeletedImageIDs() {
+        return mDeletedImageIDs;
+    }
+
+    void addInsertion(int bucketID, String bucketName, String date, ImageInfo imageInfo) {
+        mInsertions.add(new Insertion(bucketID, bucketName, date, imageInfo));
+    }
+
+    List<Insertion> getInsertions() {
+        return mInsertions;
+    }
+
+    void setMaxDateModified(long maxDateModified) {
+        mMaxDateModified = maxDateModified;
+    }
+
+    long getMaxDateModified() {
+        return mMaxDateModified;
+    }
+
+    static class Insertion {
+        final int mBucketID;
+        final String mBucketName;
+        final String mDate;
+        final ImageInfo mImageInfo;
+
+        Insertion(int bucketID, String bucketName, String date, ImageInfo imageInfo) {
+            mBucketID = bucketID;
+            mBucketName = bucketName;
+            mDate = date;
+            mImageInfo = imageInfo;
+        }
+    }
+}
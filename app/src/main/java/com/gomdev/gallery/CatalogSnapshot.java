@@ -0,0 +1,242 @@
+package com.gomdev.gallery;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by gomdev on 15. 4. 5..
+ * <p/>
+ * Compact binary copy of the image catalog which is written after a successful
+ * MediaStore load and read back with a memory mapped buffer on the next launch.
+ * <p/>
+ * header : magic, version, sortBy, numOfImages, maxImageID, maxDateModified, numOfBuckets
+ * bucket : id, name, numOfDateLabels
+ * dateLabel : date, ImageInfoStore columns which are read in bulk
+ */
+class CatalogSnapshot {
+    static final String CLASS = "CatalogSnapshot";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    static final String FILE_NAME = "catalog.bin";
+
+    private static final int MAGIC = 0x474F4D43; // "GOMC"
+    private static final int VERSION = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<BucketInfo> mBucketInfos;
+    private final int mSortBy;
+
+    private int mNumOfImages = 0;
+    private long mMaxImageID = 0L;
+    private long mMaxDateModified = 0L;
+
+    CatalogSnapshot(int sortBy) {
+        mSortBy = sortBy;
+        mBucketInfos = new ArrayList<>();
+    }
+
+    List<BucketInfo> getBucketInfos() {
+        return mBucketInfos;
+    }
+
+    int getSortBy() {
+        return mSortBy;
+    }
+
+    void setNumOfImages(int numOfImages) {
+        mNumOfImages = numOfImages;
+    }
+
+    int getNumOfImages() {
+        return mNumOfImages;
+    }
+
+    // watermarks used to reconcile against MediaStore
+
+    void updateWatermark(long imageID, long dateModified) {
+        if (imageID > mMaxImageID) {
+            mMaxImageID = imageID;
+        }
+
+        if (dateModified > mMaxDateModified) {
+            mMaxDateModified = dateModified;
+        }
+    }
+
+    long getMaxImageID() {
+        return mMaxImageID;
+    }
+
+    long getMaxDateModified() {
+        return mMaxDateModified;
+    }
+
+    boolean isUpToDate(int numOfImages, long maxImageID, long maxDateModified) {
+        return (mNumOfImages == numOfImages) &&
+                (mMaxImageID == maxImageID) &&
+                (mMaxDateModified == maxDateModified);
+    }
+
+    // write
+
+    boolean write(File file) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mSortBy);
+            out.writeInt(mNumOfImages);
+            out.writeLong(mMaxImageID);
+            out.writeLong(mMaxDateModified);
+
+            int numOfBuckets = mBucketInfos.size();
+            out.writeInt(numOfBuckets);
+            for (int i = 0; i < numOfBuckets; i++) {
+                writeBucketInfo(out, mBucketInfos.get(i));
+            }
+
+            out.close();
+            out = null;
+
+            if (tmpFile.renameTo(file) == false) {
+                Log.e(TAG, "write() rename failed");
+                tmpFile.delete();
+                return false;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "write() " + e);
+            tmpFile.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeBucketInfo(DataOutputStream out, BucketInfo bucketInfo) throws IOException {
+        out.writeInt(bucketInfo.getID());
+        writeString(out, bucketInfo.getName());
+
+        int numOfDateLabels = bucketInfo.getNumOfDateInfos();
+        out.writeInt(numOfDateLabels);
+        for (int i = 0; i < numOfDateLabels; i++) {
+            DateLabelInfo dateLabelInfo = bucketInfo.get(i);
+            writeString(out, dateLabelInfo.getDate());
+            dateLabelInfo.getImageInfoStore().write(out);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = str.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // read
+
+    static CatalogSnapshot read(File file, int sortBy) {
+        if (file.exists() == false) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                if (DEBUG) {
+                    Log.d(TAG, "read() version mismatch");
+                }
+                return null;
+            }
+
+            if (buffer.getInt() != sortBy) {
+                if (DEBUG) {
+                    Log.d(TAG, "read() sortBy mismatch");
+                }
+                return null;
+            }
+
+            CatalogSnapshot snapshot = new CatalogSnapshot(sortBy);
+            snapshot.mNumOfImages = buffer.getInt();
+            snapshot.mMaxImageID = buffer.getLong();
+            snapshot.mMaxDateModified = buffer.getLong();
+
+            int numOfBuckets = buffer.getInt();
+            for (int i = 0; i < numOfBuckets; i++) {
+                snapshot.mBucketInfos.add(readBucketInfo(buffer));
+            }
+
+            return snapshot;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.e(TAG, "read() " + e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static BucketInfo readBucketInfo(ByteBuffer buffer) {
+        BucketInfo bucketInfo = new BucketInfo(buffer.getInt());
+        bucketInfo.setName(readString(buffer));
+
+        int numOfDateLabels = buffer.getInt();
+        for (int i = 0; i < numOfDateLabels; i++) {
+            String date = readString(buffer);
+            DateLabelInfo dateLabelInfo = new DateLabelInfo(date, ImageInfoStore.read(buffer));
+            bucketInfo.add(dateLabelInfo);
+        }
+
+        return bucketInfo;
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
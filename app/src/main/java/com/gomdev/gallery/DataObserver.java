@@ -4,6 +4,8 @@ import android.content.Context;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import android.util.Log;
 
 import java.util.concurrent.atomic.AtomicInteger;
@@ -19,8 +21,13 @@ class DataObserver extends ContentObserver {
     private static DataObserver sContentObserver = new DataObserver(new Handler());
     private static AtomicInteger sReferenceCount = new AtomicInteger(0);
 
+    private final Handler mHandler;
+    private long mFirstChangeTime = 0L;
+
     public DataObserver(Handler handler) {
         super(handler);
+
+        mHandler = handler;
     }
 
     @Override
@@ -30,23 +37,56 @@ class DataObserver extends ContentObserver {
 
     @Override
     public void onChange(boolean selfChange, Uri uri) {
-        Log.d(TAG, "onChange() selfChange=" + selfChange + " uri=" + uri);
+        if (DEBUG) {
+            Log.d(TAG, "onChange() selfChange=" + selfChange + " uri=" + uri);
+        }
+
+        requestSync();
+    }
+
+    // burst of changes (e.g. camera burst shot) is merged into one sync.
+    // sync is postponed by every change but not longer than CATALOG_SYNC_MAX_DELAY.
+    private void requestSync() {
+        long currentTime = SystemClock.uptimeMillis();
+        if (mFirstChangeTime == 0L) {
+            mFirstChangeTime = currentTime;
+        }
+
+        long delay = Math.min(GalleryConfig.CATALOG_SYNC_DELAY,
+                mFirstChangeTime + GalleryConfig.CATALOG_SYNC_MAX_DELAY - currentTime);
+
+        mHandler.removeCallbacks(mSyncRunnable);
+        mHandler.postDelayed(mSyncRunnable, Math.max(delay, 0L));
     }
 
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFirstChangeTime = 0L;
+
+            ImageLoader imageLoader = ImageLoader.getInstance();
+            if (imageLoader != null) {
+                imageLoader.syncCatalog();
+            }
+        }
+    };
+
     static void registerContentObserver(Context context) {
         if (DEBUG) {
             Log.d(TAG, "registerContentObserver()");
         }
 
+        int count = sReferenceCount.getAndIncrement();
+        if (count == 0) {
+            if (DEBUG) {
+                Log.d(TAG, "registerContentObserver() >>> registerContentObserver");
+            }
 
-//        int count = sReferenceCount.getAndIncrement();
-//        if (count == 0) {
-//            if (DEBUG) {
-//                Log.d(TAG, "registerContentObserver() >>> registerContentObserver");
-//            }
-//
-//            context.getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, sContentObserver);
-//        }
+            context.getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, sContentObserver);
+
+            // catch up with changes made while unregistered
+            sContentObserver.requestSync();
+        }
     }
 
     static void unregisterContentObserver(Context context) {
@@ -54,16 +94,15 @@ class DataObserver extends ContentObserver {
             Log.d(TAG, "unregisterContentObserver()");
         }
 
-//        int count = sReferenceCount.decrementAndGet();
-//
-//        if (count == 0) {
-//            if (DEBUG) {
-//                Log.d(TAG, "unregisterContentObserver() >>> unregisterContentObserver");
-//            }
-//
-//            context.getContentResolver().unregisterContentObserver(sContentObserver);
-//        }
+        int count = sReferenceCount.decrementAndGet();
+
+        if (count == 0) {
+            if (DEBUG) {
+                Log.d(TAG, "unregisterContentObserver() >>> unregisterContentObserver");
+            }
+
+            context.getContentResolver().unregisterContentObserver(sContentObserver);
+        }
     }
 
 }
-
@@ -1,7 +1,9 @@
 package com.gomdev.gallery;
 
+import android.util.SparseArray;
+
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.lang.ref.WeakReference;
 
 /**
  * Created by gomdev on 15. 1. 9..
@@ -13,25 +15,43 @@ class DateLabelInfo implements Serializable, GalleryInfo {
 
     private final String mDate;
 
+    private BucketInfo mBucketInfo = null;
     private int mIndex = 0;
 
     private int mNumOfRows = 0;
     private int mNumOfColumns = 0;
 
-    private int mImageIndex = 0;
+    private final ImageInfoStore mImageInfoStore;
+
+    // ImageInfos which are handed out and still referenced keep their identity.
+    // get() is called from UI, GL and decoding threads, so the cache is guarded by this.
+    private transient SparseArray<WeakReference<ImageInfo>> mImageInfoCache = null;
+    private int mCachePurgeThreshold = MIN_CACHE_PURGE_THRESHOLD;
 
-    private ArrayList<ImageInfo> mImageInfos = new ArrayList<>();
+    private static final int MIN_CACHE_PURGE_THRESHOLD = 32;
 
     DateLabelInfo(String date) {
-        mDate = date;
+        this(date, new ImageInfoStore());
+    }
 
-        mImageInfos.clear();
+    // used by CatalogSnapshot with a store which is read in bulk
+    DateLabelInfo(String date, ImageInfoStore imageInfoStore) {
+        mDate = date;
+        mImageInfoStore = imageInfoStore;
     }
 
     String getDate() {
         return mDate;
     }
 
+    void setBucketInfo(BucketInfo bucketInfo) {
+        mBucketInfo = bucketInfo;
+    }
+
+    BucketInfo getBucketInfo() {
+        return mBucketInfo;
+    }
+
     void setIndex(int index) {
         mIndex = index;
     }
@@ -40,32 +60,93 @@ class DateLabelInfo implements Serializable, GalleryInfo {
         return mIndex;
     }
 
+    // imageInfo is copied into the store. get() returns a new ImageInfo for it.
     void add(ImageInfo imageInfo) {
-        mImageInfos.add(imageInfo);
-        imageInfo.setIndex(mImageIndex++);
+        int index = mImageInfoStore.size();
+        mImageInfoStore.insert(index, imageInfo);
+        imageInfo.setIndex(index);
         imageInfo.setDateLabelInfo(this);
+
+        if (mBucketInfo != null) {
+            mBucketInfo.onNumOfImagesChanged(mIndex, 1);
+        }
     }
 
-    ImageInfo get(int position) {
-        return mImageInfos.get(position);
+    void insert(int index, ImageInfo imageInfo) {
+        mImageInfoStore.insert(index, imageInfo);
+        imageInfo.setIndex(index);
+        imageInfo.setDateLabelInfo(this);
+
+        synchronized (this) {
+            shiftCachedImageInfos(index, 0, 1);
+            if (mImageInfoCache != null) {
+                mImageInfoCache.put(index, new WeakReference<>(imageInfo));
+            }
+        }
+
+        if (mBucketInfo != null) {
+            mBucketInfo.onNumOfImagesChanged(mIndex, 1);
+        }
+
+        if (mNumOfColumns > 0) {
+            setNumOfColumns(mNumOfColumns);
+        }
+    }
+
+    synchronized ImageInfo get(int position) {
+        if (mImageInfoCache == null) {
+            mImageInfoCache = new SparseArray<>();
+        }
+
+        WeakReference<ImageInfo> reference = mImageInfoCache.get(position);
+        ImageInfo imageInfo = (reference != null) ? reference.get() : null;
+        if (imageInfo != null) {
+            return imageInfo;
+        }
+
+        imageInfo = mImageInfoStore.createImageInfo(position);
+        imageInfo.setDateLabelInfo(this);
+
+        mImageInfoCache.put(position, new WeakReference<>(imageInfo));
+        if (mImageInfoCache.size() >= mCachePurgeThreshold) {
+            purgeImageInfoCache();
+        }
+
+        return imageInfo;
     }
 
     ImageInfo getFirst() {
-        return mImageInfos.get(0);
+        return get(0);
     }
 
     ImageInfo getLast() {
-        int size = mImageInfos.size();
-        return mImageInfos.get(size - 1);
+        return get(mImageInfoStore.size() - 1);
+    }
+
+    // accessors below don't create ImageInfo
+    long getImageID(int position) {
+        return mImageInfoStore.getImageID(position);
+    }
+
+    long getDateTaken(int position) {
+        return mImageInfoStore.getDateTaken(position);
+    }
+
+    ImageInfoStore getImageInfoStore() {
+        return mImageInfoStore;
     }
 
     int getNumOfImages() {
-        return mImageInfos.size();
+        return mImageInfoStore.size();
+    }
+
+    void trimToSize() {
+        mImageInfoStore.trimToSize();
     }
 
     void setNumOfColumns(int numOfColumns) {
         mNumOfColumns = numOfColumns;
-        mNumOfRows = (int) Math.ceil((double) mImageInfos.size() / numOfColumns);
+        mNumOfRows = (int) Math.ceil((double) mImageInfoStore.size() / numOfColumns);
     }
 
     int getNumOfRows() {
@@ -73,14 +154,58 @@ class DateLabelInfo implements Serializable, GalleryInfo {
     }
 
     void deleteImageInfo(int index) {
-        mImageInfos.remove(index);
+        deleteImageInfos(index, 1);
+    }
+
+    void deleteImageInfos(int index, int count) {
+        mImageInfoStore.delete(index, count);
 
-        int size = mImageInfos.size();
-        for (int i = index; i < size; i++) {
-            ImageInfo imageInfo = mImageInfos.get(i);
-            imageInfo.setIndex(index++);
+        synchronized (this) {
+            shiftCachedImageInfos(index, count, -count);
+        }
+
+        if (mBucketInfo != null) {
+            mBucketInfo.onNumOfImagesChanged(mIndex, -count);
         }
 
         setNumOfColumns(mNumOfColumns);
     }
+
+    // cached ImageInfos in [index, index + numOfDeleted) are dropped and
+    // the ones after them are moved by offset.
+    private void shiftCachedImageInfos(int index, int numOfDeleted, int offset) {
+        if (mImageInfoCache == null) {
+            return;
+        }
+
+        SparseArray<WeakReference<ImageInfo>> cache = new SparseArray<>(mImageInfoCache.size());
+        int size = mImageInfoCache.size();
+        for (int i = 0; i < size; i++) {
+            int position = mImageInfoCache.keyAt(i);
+            WeakReference<ImageInfo> reference = mImageInfoCache.valueAt(i);
+            ImageInfo imageInfo = reference.get();
+            if (imageInfo == null || (position >= index && position < index + numOfDeleted)) {
+                continue;
+            }
+
+            if (position >= index) {
+                position += offset;
+                imageInfo.setIndex(position);
+            }
+
+            cache.put(position, reference);
+        }
+
+        mImageInfoCache = cache;
+    }
+
+    private void purgeImageInfoCache() {
+        for (int i = mImageInfoCache.size() - 1; i >= 0; i--) {
+            if (mImageInfoCache.valueAt(i).get() == null) {
+                mImageInfoCache.removeAt(i);
+            }
+        }
+
+        mCachePurgeThreshold = Math.max(MIN_CACHE_PURGE_THRESHOLD, mImageInfoCache.size() * 2);
+    }
 }
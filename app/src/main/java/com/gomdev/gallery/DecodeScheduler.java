@@ -0,0 +1,245 @@
+package com.gomdev.gallery;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Created by gomdev on 15. 4. 2..
+ */
+class DecodeScheduler implements Executor {
+    static final String CLASS = "DecodeScheduler";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static DecodeScheduler sDecodeScheduler = null;
+
+    static synchronized DecodeScheduler getInstance() {
+        if (sDecodeScheduler == null) {
+            sDecodeScheduler = new DecodeScheduler(getDefaultNumOfThreads());
+        }
+        return sDecodeScheduler;
+    }
+
+    private static int getDefaultNumOfThreads() {
+        int numOfCores = Runtime.getRuntime().availableProcessors();
+        int numOfThreads = Math.min(numOfCores - 1, GalleryConfig.MAX_NUM_OF_DECODE_THREADS);
+        return Math.max(numOfThreads, GalleryConfig.MIN_NUM_OF_DECODE_THREADS);
+    }
+
+    private final Object mLockObject = new Object();
+    private final ArrayList<Request> mRequests = new ArrayList<>();
+    private final int mNumOfThreads;
+
+    private BitmapWorker.BitmapWorkerTask mSubmittingTask = null;
+    private long mSequence = 0L;
+
+    private volatile GridInfo mGridInfo = null;
+    private volatile boolean mIsOnFling = false;
+
+    DecodeScheduler(int numOfThreads) {
+        mNumOfThreads = numOfThreads;
+
+        for (int i = 0; i < numOfThreads; i++) {
+            Thread thread = new Thread(mWorker, CLASS + "_" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    int getNumOfThreads() {
+        return mNumOfThreads;
+    }
+
+    void setGridInfo(GridInfo gridInfo) {
+        mGridInfo = gridInfo;
+    }
+
+    void setFling(boolean isOnFling) {
+        mIsOnFling = isOnFling;
+    }
+
+    boolean isOnFling() {
+        return mIsOnFling;
+    }
+
+    void execute(BitmapWorker.BitmapWorkerTask task, GalleryInfo galleryInfo) {
+        synchronized (mLockObject) {
+            mSubmittingTask = task;
+            try {
+                task.executeOnExecutor(this, galleryInfo);
+            } finally {
+                mSubmittingTask = null;
+            }
+        }
+    }
+
+    // called by AsyncTask.executeOnExecutor() on the submitting thread
+    @Override
+    public void execute(Runnable runnable) {
+        synchronized (mLockObject) {
+            mRequests.add(new Request(runnable, mSubmittingTask, mSequence++));
+            mLockObject.notify();
+        }
+    }
+
+    private Request takeRequest() throws InterruptedException {
+        synchronized (mLockObject) {
+            while (true) {
+                Request request = pollRequest();
+                if (request != null) {
+                    return request;
+                }
+
+                mLockObject.wait();
+            }
+        }
+    }
+
+    // mLockObject should be held.
+    // prefetch requests are taken only when there is no other request.
+    private Request pollRequest() {
+        GridInfo gridInfo = mGridInfo;
+        float viewportCenterY = (gridInfo != null) ? -gridInfo.getTranslateY() : 0f;
+        boolean isOnFling = mIsOnFling;
+
+        int selectedIndex = -1;
+        float minDistance = Float.MAX_VALUE;
+        long maxSequence = -1L;
+
+        int prefetchIndex = -1;
+        float minPrefetchDistance = Float.MAX_VALUE;
+
+        for (int i = mRequests.size() - 1; i >= 0; i--) {
+            Request request = mRequests.get(i);
+
+            if (request.isDropped() == true) {
+                mRequests.remove(i);
+                PipelineMetrics.getInstance().onRequestDropped();
+                selectedIndex = (selectedIndex > i) ? selectedIndex - 1 : selectedIndex;
+                prefetchIndex = (prefetchIndex > i) ? prefetchIndex - 1 : prefetchIndex;
+                continue;
+            }
+
+            if (request.isPrefetch() == true) {
+                float distance = request.getDistance(viewportCenterY);
+                if (distance <= minPrefetchDistance) {
+                    minPrefetchDistance = distance;
+                    prefetchIndex = i;
+                }
+            } else if (isOnFling == true) {
+                if (request.mSequence > maxSequence) {
+                    maxSequence = request.mSequence;
+                    selectedIndex = i;
+                }
+            } else {
+                float distance = request.getDistance(viewportCenterY);
+                if (distance <= minDistance) {
+                    minDistance = distance;
+                    selectedIndex = i;
+                }
+            }
+        }
+
+        if (selectedIndex < 0) {
+            selectedIndex = prefetchIndex;
+        }
+
+        if (selectedIndex < 0) {
+            return null;
+        }
+
+        return mRequests.remove(selectedIndex);
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            while (true) {
+                Request request;
+                try {
+                    request = takeRequest();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    request.mRunnable.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "run() " + e);
+                }
+            }
+        }
+    };
+
+    private static class Request {
+        final Runnable mRunnable;
+        final BitmapWorker.BitmapWorkerTask mTask;
+        final long mSequence;
+
+        Request(Runnable runnable, BitmapWorker.BitmapWorkerTask task, long sequence) {
+            mRunnable = runnable;
+            mTask = task;
+            mSequence = sequence;
+        }
+
+        boolean isDropped() {
+            if (mTask == null) {
+                return false;
+            }
+
+            if (mTask.isCancelled() == true) {
+                return true;
+            }
+
+            BitmapContainer container = mTask.getContainer();
+            if (container == null) {
+                mTask.cancel(false);
+                return true;
+            }
+
+            if (container instanceof GalleryTexture) {
+                GalleryTexture texture = (GalleryTexture) container;
+                if (texture.getState() == GalleryTexture.TextureState.CANCELED) {
+                    if (DEBUG) {
+                        Log.d(TAG, "isDropped() texture index=" + texture.getIndex());
+                    }
+
+                    mTask.cancel(false);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        boolean isPrefetch() {
+            return mTask != null &&
+                    mTask.getContainer() instanceof ThumbnailPrefetcher.PrefetchTarget;
+        }
+
+        // requests without a position on the grid (bucket list, detail view) go first
+        float getDistance(float viewportCenterY) {
+            if (mTask == null) {
+                return 0f;
+            }
+
+            BitmapContainer container = mTask.getContainer();
+            if (container instanceof GalleryTexture) {
+                float positionY = ((GalleryTexture) container).getPositionY();
+                if (Float.isNaN(positionY) == false) {
+                    return Math.abs(positionY - viewportCenterY);
+                }
+            } else if (container instanceof ThumbnailPrefetcher.PrefetchTarget) {
+                float positionY = ((ThumbnailPrefetcher.PrefetchTarget) container).getPositionY();
+                return Math.abs(positionY - viewportCenterY);
+            }
+
+            return 0f;
+        }
+    }
+}
@@ -286,6 +286,27 @@ public class DetailViewManager implements GridInfoChangeListener, ViewManager {
         }
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted()");
+        }
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted()");
+        }
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        if (DEBUG) {
+            Log.d(TAG, "onDateLabelInserted()");
+        }
+    }
+
     void onImageSelected(ImageObject selectedImageObject) {
         if (DEBUG) {
             Log.d(TAG, "onImageSelected()");
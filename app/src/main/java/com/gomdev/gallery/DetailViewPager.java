@@ -263,7 +263,7 @@ public class DetailViewPager implements GridInfoChangeListener, ImageLoadingList
 
             texture.load(bitmap);
             if (texture.isThumbnail() == false) {
-                bitmap.recycle();
+                BitmapPool.getInstance().put(bitmap);
             }
 
             TextureMappingInfo textureMappingInfo = null;
@@ -1056,6 +1056,31 @@ public class DetailViewPager implements GridInfoChangeListener, ImageLoadingList
         }
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted()");
+        }
+
+        mCurrentImageIndexingInfo = null;
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted()");
+        }
+
+        mCurrentImageIndexingInfo = null;
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        if (DEBUG) {
+            Log.d(TAG, "onDateLabelInserted()");
+        }
+    }
+
     @Override
     public void onImageLoaded(int index, GalleryTexture texture) {
         if (DEBUG) {
@@ -1130,6 +1155,8 @@ public class DetailViewPager implements GridInfoChangeListener, ImageLoadingList
 
         mSurfaceView = surfaceView;
         mRenderer = mSurfaceView.getRenderer();
+
+        mLargeImage.setSurfaceView(surfaceView);
     }
 
     void show() {
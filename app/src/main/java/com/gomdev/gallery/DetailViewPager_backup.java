@@ -925,6 +925,31 @@ public class DetailViewPager_backup implements GridInfoChangeListener, ImageLoad
         }
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted()");
+        }
+
+        mCurrentImageIndexingInfo = null;
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted()");
+        }
+
+        mCurrentImageIndexingInfo = null;
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        if (DEBUG) {
+            Log.d(TAG, "onDateLabelInserted()");
+        }
+    }
+
     @Override
     public void onImageLoaded(int index, GalleryTexture texture) {
         if (DEBUG) {
@@ -0,0 +1,180 @@
+package com.gomdev.gallery;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.opengl.ETC1Util;
+import android.os.Process;
+import android.util.Log;
+
+import com.gomdev.gallery.GalleryConfig.ThumbnailTier;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by gomdev on 15. 4. 10..
+ * <p/>
+ * Write-behind queue of the disk cache.
+ * Bitmaps are compressed, and MINI is also copied to ThumbnailStore with its ETC1 texture,
+ * on the writer thread without the lock of the disk cache,
+ * so decode threads and readers don't wait for the encoders.
+ */
+class DiskCacheWriter {
+    static final String CLASS = "DiskCacheWriter";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final ImageCache mImageCache;
+    private final Bitmap.CompressFormat mCompressFormat;
+    private final int mCompressQuality;
+
+    // pending writes from the oldest one, keyed by the memory cache key.
+    // a key is written only once.
+    private final LinkedHashMap<Long, BitmapDrawable> mPendingWrites = new LinkedHashMap<>();
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+    private Thread mThread = null;
+
+    DiskCacheWriter(ImageCache imageCache, Bitmap.CompressFormat compressFormat, int compressQuality) {
+        mImageCache = imageCache;
+        mCompressFormat = compressFormat;
+        mCompressQuality = compressQuality;
+    }
+
+    void enqueue(long cacheKey, BitmapDrawable value) {
+        if (isUnderMemoryPressure() == true) {
+            if (DEBUG) {
+                Log.d(TAG, "enqueue() drop " + cacheKey);
+            }
+            return;
+        }
+
+        BitmapDrawable dropped = null;
+
+        synchronized (mPendingWrites) {
+            if (mPendingWrites.containsKey(cacheKey) == true) {
+                return;
+            }
+
+            // bitmap should not go to BitmapPool until it is written
+            setIsPending(value, true);
+            mPendingWrites.put(cacheKey, value);
+
+            if (mPendingWrites.size() > GalleryConfig.MAX_NUM_OF_PENDING_DISK_WRITES) {
+                Iterator<Map.Entry<Long, BitmapDrawable>> iter = mPendingWrites.entrySet().iterator();
+                dropped = iter.next().getValue();
+                iter.remove();
+            }
+
+            if (mThread == null) {
+                mThread = new Thread(mWriter, CLASS);
+                mThread.setDaemon(true);
+                mThread.start();
+            }
+
+            mPendingWrites.notify();
+        }
+
+        if (dropped != null) {
+            setIsPending(dropped, false);
+        }
+    }
+
+    // drops all pending writes
+    void clear() {
+        BitmapDrawable[] values;
+
+        synchronized (mPendingWrites) {
+            values = mPendingWrites.values().toArray(new BitmapDrawable[mPendingWrites.size()]);
+            mPendingWrites.clear();
+        }
+
+        for (BitmapDrawable value : values) {
+            setIsPending(value, false);
+        }
+    }
+
+    private void write(long cacheKey, BitmapDrawable value) {
+        long imageID = ImageCache.getImageID(cacheKey);
+        ThumbnailTier tier = ImageCache.getThumbnailTier(cacheKey);
+
+        // the store keeps raw pixels of the recent thumbnails only.
+        // the ones evicted from it are still read from DiskLruCache.
+        if (tier == ThumbnailTier.MINI) {
+            ETC1Util.ETC1Texture compressedTexture = null;
+            if (value instanceof RecyclingBitmapDrawable) {
+                compressedTexture = ((RecyclingBitmapDrawable) value).getCompressedTexture();
+            }
+
+            mImageCache.writeToThumbnailStore(imageID, value.getBitmap(), compressedTexture);
+        }
+
+        String key = ImageCache.getDiskCacheKey(imageID, tier);
+        if (mImageCache.isInDiskCache(key) == true) {
+            return;
+        }
+
+        Bitmap bitmap = value.getBitmap();
+        if (bitmap == null || bitmap.isRecycled() == true) {
+            return;
+        }
+
+        mBuffer.reset();
+        if (bitmap.compress(mCompressFormat, mCompressQuality, mBuffer) == false) {
+            Log.e(TAG, "write() compress failed " + key);
+            return;
+        }
+
+        mImageCache.writeToDiskCache(key, mBuffer);
+    }
+
+    private static boolean isUnderMemoryPressure() {
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        return usedMemory > runtime.maxMemory() / 8 * 7;
+    }
+
+    private static void setIsPending(BitmapDrawable value, boolean isPending) {
+        if (RecyclingBitmapDrawable.class.isInstance(value)) {
+            ((RecyclingBitmapDrawable) value).setIsCached(isPending);
+        }
+    }
+
+    private final Runnable mWriter = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            while (true) {
+                long cacheKey;
+                BitmapDrawable value;
+
+                synchronized (mPendingWrites) {
+                    while (mPendingWrites.isEmpty() == true) {
+                        try {
+                            mPendingWrites.wait();
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                    }
+
+                    Iterator<Map.Entry<Long, BitmapDrawable>> iter = mPendingWrites.entrySet().iterator();
+                    Map.Entry<Long, BitmapDrawable> entry = iter.next();
+                    cacheKey = entry.getKey();
+                    value = entry.getValue();
+                    iter.remove();
+                }
+
+                try {
+                    write(cacheKey, value);
+                } finally {
+                    setIsPending(value, false);
+                }
+            }
+        }
+    };
+}
@@ -42,10 +42,14 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * *****************************************************************************
@@ -142,7 +146,8 @@ public final class DiskLruCache implements Closeable {
      *   o CLEAN lines track a cache entry that has been successfully published
      *     and may be read. A publish line is followed by the lengths of each of
      *     its values.
-     *   o READ lines track accesses for LRU.
+     *   o READ lines track accesses for LRU. Reads are recorded in a batch,
+     *     and a read may be dropped if too many reads are waiting.
      *   o REMOVE lines track entries that have been deleted.
      *
      * The journal file is appended to as cache operations occur. The journal may
@@ -159,13 +164,29 @@ public final class DiskLruCache implements Closeable {
     private final int valueCount;
     private final LinkedHashMap<String, Entry> lruEntries
             = new LinkedHashMap<>(0, 0.75f, true);
+    /**
+     * Published entries which can be read without the lock of this cache.
+     * Only used when there is one value per entry, because a committed value
+     * is replaced by a single rename.
+     */
+    private final ConcurrentHashMap<String, Entry> readableEntries
+            = new ConcurrentHashMap<>();
+    /**
+     * Keys read without the lock. They are applied to lruEntries and the
+     * journal in a batch on the executor.
+     */
+    private final ConcurrentLinkedQueue<String> recentReads = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger recentReadCount = new AtomicInteger();
+    private final AtomicBoolean recentReadsDrainPending = new AtomicBoolean(false);
+    private static final int RECENT_READS_DRAIN_THRESHOLD = 64;
+    private static final int MAX_RECENT_READS = 1024;
     /**
      * This cache uses a single background thread to evict entries.
      */
     private final ExecutorService executorService = new ThreadPoolExecutor(0, 1,
             60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
     private long size = 0;
-    private Writer journalWriter;
+    private volatile Writer journalWriter;
     private int redundantOpCount;
     private final Callable<Void> cleanupCallable = new Callable<Void>() {
         @Override
@@ -174,6 +195,7 @@ public final class DiskLruCache implements Closeable {
                 if (journalWriter == null) {
                     return null; // closed
                 }
+                drainRecentReads();
                 trimToSize();
                 if (journalRebuildRequired()) {
                     rebuildJournal();
@@ -322,6 +344,7 @@ public final class DiskLruCache implements Closeable {
                 cache.processJournal();
                 cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true),
                         IO_BUFFER_SIZE);
+                cache.publishReadableEntries();
                 return cache;
             } catch (IOException journalIsCorrupt) {
 //                System.logW("DiskLruCache " + directory + " is corrupt: "
@@ -437,6 +460,18 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    private void publishReadableEntries() {
+        if (valueCount != 1) {
+            return;
+        }
+
+        for (Entry entry : lruEntries.values()) {
+            if (entry.readable) {
+                readableEntries.put(entry.key, entry);
+            }
+        }
+    }
+
     /**
      * Creates a new journal that omits redundant information. This replaces the
      * current journal if it exists.
@@ -475,7 +510,76 @@ public final class DiskLruCache implements Closeable {
      * exist is not currently readable. If a value is returned, it is moved to
      * the head of the LRU queue.
      */
-    public synchronized Snapshot get(String key) throws IOException {
+    public Snapshot get(String key) throws IOException {
+        if (valueCount == 1) {
+            return getWithoutLock(key);
+        }
+
+        return getWithLock(key);
+    }
+
+    /**
+     * Returns true if the entry named {@code key} is readable. This doesn't
+     * touch the LRU queue. Always false if there is more than one value per entry.
+     */
+    public boolean contains(String key) {
+        checkNotClosed();
+        validateKey(key);
+        return readableEntries.containsKey(key);
+    }
+
+    private Snapshot getWithoutLock(String key) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = readableEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        // a committed value is renamed over the old one, so the stream always
+        // sees a whole value. the sequence number may be newer than the value.
+        long sequenceNumber = entry.sequenceNumber;
+        InputStream[] ins = new InputStream[1];
+        try {
+            ins[0] = new FileInputStream(entry.getCleanFile(0));
+        } catch (FileNotFoundException e) {
+            // removed after it was looked up
+            return null;
+        }
+
+        recordRead(key);
+
+        return new Snapshot(key, sequenceNumber, ins);
+    }
+
+    private void recordRead(String key) {
+        if (recentReadCount.get() >= MAX_RECENT_READS) {
+            return; // the access order is only a hint
+        }
+
+        recentReads.offer(key);
+        if (recentReadCount.incrementAndGet() >= RECENT_READS_DRAIN_THRESHOLD
+                && recentReadsDrainPending.compareAndSet(false, true)) {
+            executorService.submit(cleanupCallable);
+        }
+    }
+
+    private void drainRecentReads() throws IOException {
+        recentReadsDrainPending.set(false);
+
+        String key;
+        while ((key = recentReads.poll()) != null) {
+            recentReadCount.decrementAndGet();
+
+            Entry entry = lruEntries.get(key);
+            if (entry != null && entry.readable) {
+                redundantOpCount++;
+                journalWriter.append(READ + ' ' + key + '\n');
+            }
+        }
+    }
+
+    private synchronized Snapshot getWithLock(String key) throws IOException {
         checkNotClosed();
         validateKey(key);
         Entry entry = lruEntries.get(key);
@@ -607,6 +711,9 @@ public final class DiskLruCache implements Closeable {
             if (success) {
                 entry.sequenceNumber = nextSequenceNumber++;
             }
+            if (valueCount == 1) {
+                readableEntries.put(entry.key, entry);
+            }
         } else {
             lruEntries.remove(entry.key);
             journalWriter.write(REMOVE + ' ' + entry.key + '\n');
@@ -641,6 +748,8 @@ public final class DiskLruCache implements Closeable {
             return false;
         }
 
+        readableEntries.remove(key);
+
         for (int i = 0; i < valueCount; i++) {
             File file = entry.getCleanFile(i);
             if (!file.delete()) {
@@ -679,6 +788,7 @@ public final class DiskLruCache implements Closeable {
      */
     public synchronized void flush() throws IOException {
         checkNotClosed();
+        drainRecentReads();
         trimToSize();
         journalWriter.flush();
     }
@@ -695,9 +805,11 @@ public final class DiskLruCache implements Closeable {
                 entry.currentEditor.abort();
             }
         }
+        drainRecentReads();
         trimToSize();
         journalWriter.close();
         journalWriter = null;
+        readableEntries.clear();
     }
 
     private void trimToSize() throws IOException {
@@ -920,7 +1032,7 @@ public final class DiskLruCache implements Closeable {
         /**
          * The sequence number of the most recently committed edit to this entry.
          */
-        private long sequenceNumber;
+        private volatile long sequenceNumber;
 
         private Entry(String key) {
             this.key = key;
@@ -0,0 +1,266 @@
+package com.gomdev.gallery;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Created by gomdev on 15. 4. 12..
+ * <p/>
+ * ETC1 encoder in plain java, so it doesn't depend on android.opengl.ETC1.
+ * Each 4x4 block is encoded in differential mode if the averages of its sub blocks are
+ * close enough, or in individual mode. Both flips are tried and the better one is used.
+ * Alpha is ignored.
+ */
+class Etc1Encoder {
+    static final String CLASS = "Etc1Encoder";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    static final int BLOCK_SIZE = 8;    // bytes
+
+    // same as the order of pixel index : 00, 01, 10, 11
+    private static final int[][] MODIFIER_TABLE = {
+            {2, 8, -2, -8},
+            {5, 17, -5, -17},
+            {9, 29, -9, -29},
+            {13, 42, -13, -42},
+            {18, 60, -18, -60},
+            {24, 80, -24, -80},
+            {33, 106, -33, -106},
+            {47, 183, -47, -183}
+    };
+
+    private Etc1Encoder() {
+    }
+
+    static int getEncodedSize(int width, int height) {
+        return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_SIZE;
+    }
+
+    // pixels : ARGB of width x height
+    static void encode(int[] pixels, int width, int height, ByteBuffer out) {
+        int[] rows = new int[width * 4];
+        for (int y = 0; y < height; y += 4) {
+            int numOfRows = Math.min(4, height - y);
+            System.arraycopy(pixels, y * width, rows, 0, width * numOfRows);
+            encodeBlockRow(rows, width, numOfRows, out);
+        }
+    }
+
+    // pixels : ARGB of numOfRows(1 ~ 4) rows of width.
+    // pixels out of the image are filled with the pixels on the edge.
+    static void encodeBlockRow(int[] pixels, int width, int numOfRows, ByteBuffer out) {
+        Block block = new Block();
+
+        for (int x = 0; x < width; x += 4) {
+            for (int by = 0; by < 4; by++) {
+                int row = Math.min(by, numOfRows - 1) * width;
+                for (int bx = 0; bx < 4; bx++) {
+                    int pixel = pixels[row + Math.min(x + bx, width - 1)];
+                    int i = (bx * 4 + by) * 3;
+                    block.mPixels[i] = (pixel >> 16) & 0xFF;
+                    block.mPixels[i + 1] = (pixel >> 8) & 0xFF;
+                    block.mPixels[i + 2] = pixel & 0xFF;
+                }
+            }
+
+            block.encode(out);
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static class Block {
+        // rgb of 16 pixels, pixel index is x * 4 + y
+        final int[] mPixels = new int[16 * 3];
+
+        // sub block : 0 or 1
+        private final int[] mSubBlockPixels = new int[2 * 8];
+        private final int[] mBase = new int[2 * 3];
+        private final int[] mQuantized = new int[2 * 3];
+        private final int[] mTables = new int[2];
+        private final int[] mIndices = new int[16];
+
+        private final int[] mAverage = new int[2 * 3];
+        private final int[] mFitIndices = new int[8];
+        private final int[] mFitBestIndices = new int[8];
+
+        private final int[] mBestTables = new int[2];
+        private final int[] mBestIndices = new int[16];
+        private final int[] mBestQuantized = new int[2 * 3];
+        private boolean mBestIsDifferential;
+        private boolean mBestFlip;
+
+        void encode(ByteBuffer out) {
+            int bestError = Integer.MAX_VALUE;
+
+            for (int flip = 0; flip < 2; flip++) {
+                setSubBlocks(flip == 1);
+                boolean isDifferential = quantize();
+
+                int error = 0;
+                for (int s = 0; s < 2; s++) {
+                    error += fitSubBlock(s);
+                }
+
+                if (error < bestError) {
+                    bestError = error;
+                    mBestIsDifferential = isDifferential;
+                    mBestFlip = (flip == 1);
+                    System.arraycopy(mTables, 0, mBestTables, 0, 2);
+                    System.arraycopy(mIndices, 0, mBestIndices, 0, 16);
+                    System.arraycopy(mQuantized, 0, mBestQuantized, 0, 6);
+                }
+            }
+
+            write(out);
+        }
+
+        // no flip : 2x4 left and right, flip : 4x2 top and bottom
+        private void setSubBlocks(boolean flip) {
+            int count0 = 0;
+            int count1 = 0;
+            for (int x = 0; x < 4; x++) {
+                for (int y = 0; y < 4; y++) {
+                    int pixel = x * 4 + y;
+                    boolean isFirst = flip ? (y < 2) : (x < 2);
+                    if (isFirst) {
+                        mSubBlockPixels[count0++] = pixel;
+                    } else {
+                        mSubBlockPixels[8 + count1++] = pixel;
+                    }
+                }
+            }
+        }
+
+        // base colors from the averages. returns true if differential mode is used.
+        private boolean quantize() {
+            int[] average = mAverage;
+            for (int i = 0; i < 6; i++) {
+                average[i] = 0;
+            }
+
+            for (int s = 0; s < 2; s++) {
+                for (int i = 0; i < 8; i++) {
+                    int pixel = mSubBlockPixels[s * 8 + i] * 3;
+                    average[s * 3] += mPixels[pixel];
+                    average[s * 3 + 1] += mPixels[pixel + 1];
+                    average[s * 3 + 2] += mPixels[pixel + 2];
+                }
+            }
+
+            boolean isDifferential = true;
+            for (int c = 0; c < 3; c++) {
+                int q0 = (average[c] * 31 + 8 * 255 / 2) / (8 * 255);
+                int q1 = (average[3 + c] * 31 + 8 * 255 / 2) / (8 * 255);
+                int delta = q1 - q0;
+                if (delta < -4 || delta > 3) {
+                    isDifferential = false;
+                }
+                mQuantized[c] = q0;
+                mQuantized[3 + c] = q1;
+            }
+
+            if (isDifferential == true) {
+                for (int i = 0; i < 6; i++) {
+                    int q = mQuantized[i];
+                    mBase[i] = (q << 3) | (q >> 2);
+                }
+                return true;
+            }
+
+            for (int i = 0; i < 6; i++) {
+                int q = (average[i] * 15 + 8 * 255 / 2) / (8 * 255);
+                mQuantized[i] = q;
+                mBase[i] = (q << 4) | q;
+            }
+            return false;
+        }
+
+        // chooses the table and the modifiers of the sub block, returns the error
+        private int fitSubBlock(int s) {
+            int baseR = mBase[s * 3];
+            int baseG = mBase[s * 3 + 1];
+            int baseB = mBase[s * 3 + 2];
+
+            int bestError = Integer.MAX_VALUE;
+            int[] bestIndices = mFitBestIndices;
+            int[] indices = mFitIndices;
+
+            for (int t = 0; t < MODIFIER_TABLE.length; t++) {
+                int[] modifiers = MODIFIER_TABLE[t];
+                int error = 0;
+
+                for (int i = 0; i < 8 && error < bestError; i++) {
+                    int pixel = mSubBlockPixels[s * 8 + i] * 3;
+                    int r = mPixels[pixel];
+                    int g = mPixels[pixel + 1];
+                    int b = mPixels[pixel + 2];
+
+                    int bestPixelError = Integer.MAX_VALUE;
+                    for (int m = 0; m < 4; m++) {
+                        int modifier = modifiers[m];
+                        int dr = clamp(baseR + modifier) - r;
+                        int dg = clamp(baseG + modifier) - g;
+                        int db = clamp(baseB + modifier) - b;
+                        int pixelError = dr * dr + dg * dg + db * db;
+                        if (pixelError < bestPixelError) {
+                            bestPixelError = pixelError;
+                            indices[i] = m;
+                        }
+                    }
+
+                    error += bestPixelError;
+                }
+
+                if (error < bestError) {
+                    bestError = error;
+                    mTables[s] = t;
+                    System.arraycopy(indices, 0, bestIndices, 0, 8);
+                }
+            }
+
+            for (int i = 0; i < 8; i++) {
+                mIndices[mSubBlockPixels[s * 8 + i]] = bestIndices[i];
+            }
+
+            return bestError;
+        }
+
+        private void write(ByteBuffer out) {
+            int high = 0;
+            for (int c = 0; c < 3; c++) {
+                int q0 = mBestQuantized[c];
+                int q1 = mBestQuantized[3 + c];
+                int shift = 24 - c * 8;
+                if (mBestIsDifferential == true) {
+                    high |= ((q0 << 3) | ((q1 - q0) & 0x7)) << shift;
+                } else {
+                    high |= ((q0 << 4) | q1) << shift;
+                }
+            }
+
+            high |= mBestTables[0] << 5;
+            high |= mBestTables[1] << 2;
+            high |= (mBestIsDifferential ? 1 : 0) << 1;
+            high |= (mBestFlip ? 1 : 0);
+
+            int low = 0;
+            for (int i = 0; i < 16; i++) {
+                int index = mBestIndices[i];
+                low |= ((index >> 1) & 1) << (16 + i);
+                low |= (index & 1) << i;
+            }
+
+            out.put((byte) (high >>> 24));
+            out.put((byte) (high >>> 16));
+            out.put((byte) (high >>> 8));
+            out.put((byte) high);
+            out.put((byte) (low >>> 24));
+            out.put((byte) (low >>> 16));
+            out.put((byte) (low >>> 8));
+            out.put((byte) low);
+        }
+    }
+}
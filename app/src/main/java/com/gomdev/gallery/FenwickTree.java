@@ -0,0 +1,70 @@
+package com.gomdev.gallery;
+
+/**
+ * Binary indexed tree of non-negative counts.
+ * prefix sums, updates and lookup of the position of a prefix sum are O(log n).
+ */
+class FenwickTree {
+    static final String CLASS = "FenwickTree";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private final int[] mTree;
+    private final int mSize;
+
+    FenwickTree(int[] values, int size) {
+        mSize = size;
+        mTree = new int[size + 1];
+
+        for (int i = 0; i < size; i++) {
+            mTree[i + 1] = values[i];
+        }
+
+        for (int i = 1; i <= size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void add(int index, int delta) {
+        for (int i = index + 1; i <= mSize; i += (i & -i)) {
+            mTree[i] += delta;
+        }
+    }
+
+    // sum of the first count values
+    int getPrefixSum(int count) {
+        int sum = 0;
+        for (int i = count; i > 0; i -= (i & -i)) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    int getSum() {
+        return getPrefixSum(mSize);
+    }
+
+    // index of the value which contains the position in the running sum.
+    // returns size() if position is not less than getSum().
+    int find(int position) {
+        int index = 0;
+        int remain = position;
+
+        for (int step = Integer.highestOneBit(Math.max(mSize, 1)); step > 0; step >>= 1) {
+            int next = index + step;
+            if (next <= mSize && mTree[next] <= remain) {
+                index = next;
+                remain -= mTree[next];
+            }
+        }
+
+        return index;
+    }
+}
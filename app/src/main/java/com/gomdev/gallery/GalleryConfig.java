@@ -42,6 +42,39 @@ public class GalleryConfig {
         }
     }
 
+    // resolutions of the thumbnail from the smallest one.
+    // a tile uses the smallest one which is not smaller than the tile.
+    enum ThumbnailTier {
+        MICRO(0, 96),                   // MediaStore MICRO_KIND
+        MINI(1, 384),                   // short side of MediaStore MINI_KIND
+        SCREEN(2, Integer.MAX_VALUE);   // sampled to the width of the screen
+
+        private final int mIndex;
+        private final int mMaxTileSize;
+
+        ThumbnailTier(int index, int maxTileSize) {
+            mIndex = index;
+            mMaxTileSize = maxTileSize;
+        }
+
+        int getIndex() {
+            return mIndex;
+        }
+
+        static ThumbnailTier get(int index) {
+            return values()[index];
+        }
+
+        static ThumbnailTier getTier(int tileSize) {
+            for (ThumbnailTier tier : values()) {
+                if (tileSize <= tier.mMaxTileSize) {
+                    return tier;
+                }
+            }
+            return SCREEN;
+        }
+    }
+
     private GalleryConfig() {
 
     }
@@ -61,6 +94,9 @@ public class GalleryConfig {
 
     static final float SCROLLBAR_MIN_HEIGHT_IN_DP = 50f;
 
+    static final int MIN_NUM_OF_DECODE_THREADS = 2;
+    static final int MAX_NUM_OF_DECODE_THREADS = 4;
+
     static final long IMAGE_ANIMATION_START_OFFSET = 0L;
     static final long IMAGE_ANIMATION_END_OFFSET = 300L;
     static final long DATE_LABEL_ANIMATION_START_OFFSET = IMAGE_ANIMATION_END_OFFSET;
@@ -73,5 +109,56 @@ public class GalleryConfig {
     static final long INTRO_ANIMATION_DURATION = 1300L;
     static final long MAINACTIVITY_DURATION = INTRO_ANIMATION_DURATION + 1000L;
 
+    static final long CATALOG_SYNC_DELAY = 300L;
+    static final long CATALOG_SYNC_MAX_DELAY = 1500L;
+
+    static final int BITMAP_POOL_MEMORY_DIVIDER = 16;   // 1/16 of max heap
+    static final int MAX_BITMAP_POOL_SIZE = 8 * 1024 * 1024;
+
+    static final int MAX_NUM_OF_PENDING_DISK_WRITES = 32;
+
+    // memory cache is a part of the memory class, but no more than the library needs
+    static final int MEM_CACHE_DIVIDER = 8;
+    static final int LOW_RAM_MEM_CACHE_DIVIDER = 16;
+    static final int MIN_MEM_CACHE_SIZE = 4 * 1024;                    // KB
+    static final int THUMBNAIL_MEM_CACHE_SIZE = 512 * 384 * 4 / 1024;  // KB, MINI_KIND
+
+    // disk budget is a part of the usable space, shared by DiskLruCache and the thumbnail store
+    static final int DISK_CACHE_DIVIDER = 50;
+    static final int MIN_DISK_CACHE_SIZE = 10 * 1024 * 1024;
+    static final int MAX_DISK_CACHE_SIZE = 100 * 1024 * 1024;
+    static final int THUMBNAIL_STORE_DISK_PERCENT = 50;
+
+    // thumbnail store is a number of segments within its share of the disk budget.
+    // segment files are created when the ones before them are full.
+    // records are sized to the thumbnail, which is no larger than MINI_KIND.
+    static final int THUMBNAIL_STORE_MAX_PIXELS = 512 * 384;
+    static final int THUMBNAIL_STORE_SEGMENT_SIZE = 4 * 1024 * 1024;
+    static final int THUMBNAIL_STORE_MIN_NUM_OF_SEGMENTS = 2;
+
+    // opaque thumbnails are uploaded as ETC1 compressed textures.
+    // they are encoded by the disk cache writer and used from the next thumbnail store hit.
+    static final boolean USE_COMPRESSED_THUMBNAIL_TEXTURE = true;
+
+    // thumbnails ahead of a fling are decoded up to this size
+    static final int PREFETCH_BUDGET = 4 * 1024 * 1024;
+
+    // textures of thumbnails which scrolled out are reused, at least this number
+    static final int MIN_TEXTURE_POOL_SIZE = 16;
+    // frames after which a released texture is no longer used by the draws in flight
+    static final int TEXTURE_POOL_RELEASE_FRAMES = 3;
+
+    // ImageObjects are bound to the visible rows and this number of rows above and below
+    static final int IMAGE_OBJECT_WINDOW_MARGIN = 2;   // rows
+
+    // textures are uploaded in a frame until this time is spent
+    static final long TEXTURE_UPLOAD_BUDGET = 4L * 1000L * 1000L;  // ns
+
+    // latencies of the thumbnail pipeline are shown on the album view
+    static final boolean SHOW_PIPELINE_METRICS = false;
+
+    // sqlite limits the number of host parameters to 999
+    static final int MAX_NUM_OF_IDS_IN_QUERY = 500;
+
     static final float ACTIONBAR_ELEVATION = 4f;    // dpi
 }
@@ -26,8 +26,9 @@ class GalleryContext {
         ImageManager.newInstance(context);
         ImageLoader imageLoader = ImageLoader.newInstance(context);
 
-        if (!(context instanceof MainActivity)) {
-            imageLoader.checkAndLoadImages();
+        // MainActivity and BucketListActivity load the catalog in background
+        if (context instanceof ImageListActivity) {
+            imageLoader.loadImages();
         }
 
         PackageInfo packageInfo;
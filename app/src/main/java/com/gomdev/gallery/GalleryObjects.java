@@ -25,6 +25,8 @@ import com.gomdev.gles.GLESVector3;
 import com.gomdev.gles.GLESVertexInfo;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -44,8 +46,6 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
     private final GridInfo mGridInfo;
     private final BucketInfo mBucketInfo;
 
-    private final ConcurrentLinkedQueue<Bitmap> mReusableBitmaps = new ConcurrentLinkedQueue<>();
-
     private GallerySurfaceView mSurfaceView = null;
     private AlbumViewManager mAlbumViewManager = null;
 
@@ -54,6 +54,10 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
     private GLESGLState mDateLabelGLState = null;
     private GLESGLState mImageGLState = null;
     private GLESShader mShader = null;
+    private GLESShader mImageShader = null;
+    private int mCheckIndex = 0;
+    private GLESTexture mCheckTexture = null;
+    private GLESCamera mCamera = null;
     private GLESNode mParentNode = null;
 
     private int mNumOfDateInfos = 0;
@@ -74,9 +78,26 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
 
     private List<TextureMappingInfo> mTextureMappingInfos = new ArrayList<>();
     private Queue<GalleryTexture> mWaitingTextures = new ConcurrentLinkedQueue<>();
+    private final TextureUploadBudget mTextureUploadBudget = new TextureUploadBudget(GalleryConfig.TEXTURE_UPLOAD_BUDGET);
+    private ArrayList<ImageObjects> mUploadingImageObjects = new ArrayList<>();
     private SparseArray<DateLabelObject> mInvisibleObjects = new SparseArray<>();
     private ArrayList<DateLabelObject> mAnimationObjects = new ArrayList<>();
 
+    private ThumbnailPrefetcher mThumbnailPrefetcher = null;
+    private float mVisibilityPadding = 0f;
+
+    // region ahead of the fling, shared by all ImageObjects
+    private float mPrefetchTop = 0f;
+    private float mPrefetchBottom = 0f;
+    private ThumbnailTier mPrefetchTier = ThumbnailTier.MINI;
+    private int mPrefetchSize = 0;
+
+    // date labels in [mCheckedStart, mCheckedEnd) were checked in the last frame.
+    // all date labels are checked after date labels are inserted or deleted.
+    private int mCheckedStart = 0;
+    private int mCheckedEnd = 0;
+    private boolean mIsOnAnimation = false;
+
     private GLESAnimator mAnimator = null;
     private float mAlpha = 1.0f;
 
@@ -89,6 +110,9 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         mGridInfo = gridInfo;
         mBucketInfo = bucketInfo;
 
+        mThumbnailPrefetcher = ThumbnailPrefetcher.getInstance();
+        mVisibilityPadding = GLESUtils.getPixelFromDpi(mContext, ImageObjects.VISIBILITY_PADDING_DP);
+
         setGridInfo(gridInfo);
     }
 
@@ -134,79 +158,214 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
     }
 
     // this function should be called on GLThread
+    // date labels are uploaded first, and then thumbnails from the nearest to the viewport
     void updateTexture(long currentTime) {
-        GalleryTexture texture = mWaitingTextures.poll();
+        mTextureUploadBudget.startFrame();
 
-        if (texture != null) {
+        GalleryTexture texture;
+        while (mTextureUploadBudget.hasTime() == true &&
+                (texture = mWaitingTextures.poll()) != null) {
             TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(texture.getIndex());
             final GalleryObject object = textureMappingInfo.getObject();
 
             final Bitmap bitmap = texture.getBitmapDrawable().getBitmap();
             texture.load(bitmap);
 
-            mReusableBitmaps.add(bitmap);
+            BitmapPool.getInstance().put(bitmap);
 
             object.setTexture(texture);
+
+            mTextureUploadBudget.onUploaded();
         }
 
         if (mWaitingTextures.size() > 0) {
             mSurfaceView.requestRender();
         }
 
+        float viewportCenterY = -mGridInfo.getTranslateY();
+
         int size = mDateLabelObjects.size();
         for (int i = 0; i < size; i++) {
             DateLabelObject dateLabelObject = mDateLabelObjects.get(i);
 
             ImageObjects imageObjects = dateLabelObject.getImageObjects();
-            imageObjects.updateTexture(currentTime);
+            if (imageObjects.prepareTextureUpload(currentTime, viewportCenterY) == true) {
+                mUploadingImageObjects.add(imageObjects);
+            }
+        }
+
+        if (mUploadingImageObjects.size() > 1) {
+            Collections.sort(mUploadingImageObjects, UPLOAD_ORDER);
         }
+
+        size = mUploadingImageObjects.size();
+        for (int i = 0; i < size; i++) {
+            mUploadingImageObjects.get(i).updateTexture(mTextureUploadBudget);
+        }
+        mUploadingImageObjects.clear();
+
+        mTextureUploadBudget.endFrame();
     }
 
+    private static final Comparator<ImageObjects> UPLOAD_ORDER = new Comparator<ImageObjects>() {
+        @Override
+        public int compare(ImageObjects lhs, ImageObjects rhs) {
+            return Float.compare(lhs.getNearestTextureDistance(), rhs.getNearestTextureDistance());
+        }
+    };
+
+    // date labels are found by a binary search on their tops,
+    // so only the ones around the viewport and the prefetch region are checked.
     void checkVisibility() {
         float translateY = mGridInfo.getTranslateY();
         float viewportTop = mHalfHeight - translateY;
         float viewportBottom = viewportTop - mHeight;
 
+        boolean needToPrefetch = updatePrefetchRegion(viewportTop, viewportBottom);
+
         int size = mDateLabelObjects.size();
-        for (int i = 0; i < size; i++) {
-            DateLabelObject object = mDateLabelObjects.get(i);
-            GalleryNode parentNode = object.getParentNode();
+        if (mIsOnAnimation == true || mInvisibleObjects.size() > 0) {
+            for (int i = 0; i < size; i++) {
+                checkVisibility(i, viewportTop, viewportBottom);
+            }
 
-            if (mInvisibleObjects.get(i) != null) {
-                parentNode.setVisibility(false);
+            invalidateCheckedRange();
+            return;
+        }
 
-                if (parentNode.isVisibilityChanged() == true) {
-                    unmapTexture(i, object);
-                }
+        float top = viewportTop;
+        float bottom = viewportBottom;
+        if (needToPrefetch == true) {
+            top = Math.max(top, mPrefetchTop);
+            bottom = Math.min(bottom, mPrefetchBottom);
+        }
+
+        int start = getFirstDateLabelIndex(top);
+        int end = start;
+        while (end < size && mDateLabelObjects.get(end).getTop() > bottom) {
+            end++;
+        }
+
+        // date labels which were checked in the last frame, but are out of the range
+        int prevStart = Math.min(mCheckedStart, size);
+        int prevEnd = Math.min(mCheckedEnd, size);
+        for (int i = prevStart; i < prevEnd; i++) {
+            if (i >= start && i < end) {
+                i = end - 1;
                 continue;
             }
 
-            ImageObjects imageObjects = object.getImageObjects();
+            checkVisibility(i, viewportTop, viewportBottom);
+        }
 
-            float top = object.getTop();
-            float bottom = 0f;
-            if (i + 1 < size) {
-                bottom = mDateLabelObjects.get(i + 1).getTop() - mSpacing;
-            } else {
-                bottom = mHalfHeight - mGridInfo.getScrollableHeight();
+        for (int i = start; i < end; i++) {
+            checkVisibility(i, viewportTop, viewportBottom);
+        }
+
+        mCheckedStart = start;
+        mCheckedEnd = end;
+    }
+
+    private void checkVisibility(int index, float viewportTop, float viewportBottom) {
+        DateLabelObject object = mDateLabelObjects.get(index);
+        GalleryNode parentNode = object.getParentNode();
+
+        if (mInvisibleObjects.get(index) != null) {
+            parentNode.setVisibility(false);
+
+            if (parentNode.isVisibilityChanged() == true) {
+                unmapTexture(index, object);
             }
+            return;
+        }
 
-            if (bottom < viewportTop && top > viewportBottom) {
-                parentNode.setVisibility(true);
+        ImageObjects imageObjects = object.getImageObjects();
+        imageObjects.setPrefetchRegion(mPrefetchTop, mPrefetchBottom, mPrefetchTier, mPrefetchSize);
 
-                mapTexture(i);
+        float top = object.getTop();
+        float bottom = getDateLabelBottom(index);
 
-                imageObjects.checkVisibility(true);
-            } else {
-                parentNode.setVisibility(false);
+        if (bottom < viewportTop && top > viewportBottom) {
+            parentNode.setVisibility(true);
 
-                if (parentNode.isVisibilityChanged() == true) {
-                    unmapTexture(i, object);
-                }
+            mapTexture(index);
+
+            imageObjects.checkVisibility(true);
+        } else {
+            parentNode.setVisibility(false);
+
+            if (parentNode.isVisibilityChanged() == true) {
+                unmapTexture(index, object);
+            }
 
-                imageObjects.checkVisibility(false);
+            imageObjects.checkVisibility(false);
+        }
+    }
+
+    // bottom of the last row of the date label
+    private float getDateLabelBottom(int index) {
+        if (index + 1 < mDateLabelObjects.size()) {
+            return mDateLabelObjects.get(index + 1).getTop() - mSpacing;
+        }
+
+        return mHalfHeight - mGridInfo.getScrollableHeight();
+    }
+
+    // first date label whose bottom is below y. tops are in descending order.
+    private int getFirstDateLabelIndex(float y) {
+        int low = 0;
+        int high = mDateLabelObjects.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mDateLabelObjects.get(mid).getTop() < y + mSpacing) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
         }
+
+        // the previous one can reach below y
+        return Math.max(low - 1, 0);
+    }
+
+    private void invalidateCheckedRange() {
+        mCheckedStart = 0;
+        mCheckedEnd = Integer.MAX_VALUE;
+    }
+
+    // from the padding of the viewport to the final viewport of the fling,
+    // limited to the rows which fit in the budget of the prefetcher.
+    private boolean updatePrefetchRegion(float viewportTop, float viewportBottom) {
+        mPrefetchTop = 0f;
+        mPrefetchBottom = 0f;
+
+        int direction = mThumbnailPrefetcher.getDirection();
+        if (direction == ThumbnailPrefetcher.DIRECTION_NONE || mNumOfColumns <= 0) {
+            return false;
+        }
+
+        mPrefetchTier = ThumbnailTier.getTier(mColumnWidth);
+        mPrefetchSize = ThumbnailPrefetcher.getEstimatedSize(mPrefetchTier, mColumnWidth);
+
+        int numOfRows = Math.max(mThumbnailPrefetcher.getBudget() / (mPrefetchSize * mNumOfColumns), 1);
+        float maxDistance = numOfRows * (mColumnWidth + mSpacing);
+
+        float finalViewportTop = mHalfHeight - mThumbnailPrefetcher.getFinalY();
+        if (direction == ThumbnailPrefetcher.DIRECTION_DOWN) {
+            mPrefetchTop = viewportBottom - mVisibilityPadding;
+            mPrefetchBottom = Math.max(finalViewportTop - mHeight, mPrefetchTop - maxDistance);
+        } else {
+            mPrefetchBottom = viewportTop + mVisibilityPadding;
+            mPrefetchTop = Math.min(finalViewportTop, mPrefetchBottom + maxDistance);
+        }
+
+        if (mPrefetchTop <= mPrefetchBottom) {
+            mPrefetchTop = 0f;
+            mPrefetchBottom = 0f;
+            return false;
+        }
+
+        return true;
     }
 
     void mapTexture(int index) {
@@ -274,6 +433,16 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         textureMappingInfo.setTexture(null);
     }
 
+    // a screen of tiles which scrolled out can be reused by the ones which scroll in
+    private void updateTexturePoolSize() {
+        if (mColumnWidth <= 0 || mHeight <= 0) {
+            return;
+        }
+
+        int numOfRows = (int) Math.ceil((float) mHeight / (mColumnWidth + mSpacing)) + 1;
+        TexturePool.getInstance().setMaxSize(numOfRows * mNumOfColumns);
+    }
+
     // onSurfaceChanged
 
     void onSurfaceChanged(int width, int height) {
@@ -289,6 +458,8 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
 
         mLoadingBitmap = GLESUtils.makeBitmap(16, 16, Bitmap.Config.ARGB_8888, Color.WHITE);
 
+        updateTexturePoolSize();
+
         int size = mDateLabelObjects.size();
         for (int i = 0; i < size; i++) {
             DateLabelObject object = mDateLabelObjects.get(i);
@@ -307,6 +478,8 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
             Log.d(TAG, "setupObjects() mSystemBarHeight=" + mSystemBarHeight);
         }
 
+        mCamera = camera;
+
         float yOffset = mHeight * 0.5f - mSystemBarHeight;
 
         int size = mDateLabelObjects.size();
@@ -371,6 +544,8 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
     }
 
     void setCheckTexture(GLESTexture texture) {
+        mCheckTexture = texture;
+
         int size = mDateLabelObjects.size();
         for (int i = 0; i < size; i++) {
             DateLabelObject object = mDateLabelObjects.get(i);
@@ -403,6 +578,15 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         }
     }
 
+    // textures of images, date labels are small
+    void releaseTextures() {
+        int size = mDateLabelObjects.size();
+        for (int i = 0; i < size; i++) {
+            ImageObjects imageObjects = mDateLabelObjects.get(i).getImageObjects();
+            imageObjects.releaseTextures();
+        }
+    }
+
     @Override
     public void onColumnWidthChanged() {
         if (DEBUG) {
@@ -415,6 +599,8 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         mPrevNumOfColumns = mNumOfColumns;
         mNumOfColumns = mGridInfo.getNumOfColumns();
 
+        updateTexturePoolSize();
+
         changeDateLabelObjectPosition();
 
         if (mAnimator != null) {
@@ -459,6 +645,7 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
     private void setupAnimations() {
         mInvisibleObjects.clear();
         mAnimationObjects.clear();
+        mIsOnAnimation = true;
 
         float fromAlpha = 0f;
         float toAlpha = 1f;
@@ -559,6 +746,35 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         changeDateLabelPosition();
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted()");
+        }
+
+        changeDateLabelPosition();
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted()");
+        }
+
+        changeDateLabelPosition();
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        if (DEBUG) {
+            Log.d(TAG, "onDateLabelInserted()");
+        }
+
+        mNumOfDateInfos = mGridInfo.getNumOfDateInfos();
+
+        changeDateLabelPosition();
+    }
+
 
     // initialization
 
@@ -645,11 +861,15 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
             Log.d(TAG, "setImageShader()");
         }
 
+        mImageShader = shader;
+
         int size = mDateLabelObjects.size();
         for (int i = 0; i < size; i++) {
             DateLabelObject object = mDateLabelObjects.get(i);
             ImageObjects imageObjects = object.getImageObjects();
             imageObjects.setShader(shader);
+
+            mCheckIndex = imageObjects.getCheckIndex();
         }
     }
 
@@ -665,6 +885,15 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         return imageObject;
     }
 
+    // called on the GL thread
+    ImageObject bindImageObject(ImageIndexingInfo indexingInfo) {
+        DateLabelObject object = mDateLabelObjects.get(indexingInfo.mDateLabelIndex);
+        ImageObjects imageObjects = object.getImageObjects();
+        ImageObject imageObject = imageObjects.bindObjectIfNeeded(indexingInfo.mImageIndex);
+
+        return imageObject;
+    }
+
     void hide() {
         mAlpha = 0f;
     }
@@ -683,16 +912,87 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
     }
 
     void deleteDateLabel(int index) {
-        TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(index);
-
-        GalleryTexture texture = textureMappingInfo.getTexture();
-        texture = null;
+        DateLabelObject object = mDateLabelObjects.get(index);
+        unmapTexture(index, object);
+        object.getImageObjects().cancelLoading();
 
         mTextureMappingInfos.remove(index);
 
-        DateLabelObject object = mDateLabelObjects.remove(index);
-        mParentNode.removeChild(object);
+        mDateLabelObjects.remove(index);
+        mParentNode.removeChild(object.getParentNode());
 
+        reindex(index);
+        invalidateCheckedRange();
+    }
+
+    // adds objects for the date label inserted into mBucketInfo at index.
+    // position is set by onDateLabelInserted().
+    void insertDateLabel(int index) {
+        GalleryNode node = new GalleryNode("node" + mDateLabelObjects.size());
+        mParentNode.addChild(node);
+        node.setVisibility(false);
+
+        DateLabelObject object = new DateLabelObject("dataIndex" + mDateLabelObjects.size());
+        mDateLabelObjects.add(index, object);
+        invalidateCheckedRange();
+        node.addChild(object);
+        object.setParentNode(node);
+
+        object.setGLState(mDateLabelGLState);
+        object.setListener(mObjectListener);
+
+        GLESVertexInfo vertexInfo = new GLESVertexInfo();
+        vertexInfo.setRenderType(GLESVertexInfo.RenderType.DRAW_ARRAYS);
+        vertexInfo.setPrimitiveMode(GLESVertexInfo.PrimitiveMode.TRIANGLE_STRIP);
+        object.setVertexInfo(vertexInfo, false, false);
+
+        DateLabelInfo dateLabelInfo = mBucketInfo.get(index);
+        TextureMappingInfo textureMappingInfo = new TextureMappingInfo(object, dateLabelInfo);
+        mTextureMappingInfos.add(index, textureMappingInfo);
+
+        ImageObjects imageObjects = new ImageObjects(mContext, mGridInfo, dateLabelInfo);
+        imageObjects.setAlbumViewManager(mAlbumViewManager);
+        imageObjects.setGLState(mImageGLState);
+        imageObjects.createObjects(node);
+
+        object.setImageObjects(imageObjects);
+
+        if (mShader != null && mCamera != null) {
+            object.setCamera(mCamera);
+            object.setShader(mShader);
+            object.setDummyTexture(sDummyTexture);
+
+            float width = mWidth - mSpacing * 2f;
+            float height = mDateLabelHeight;
+
+            float[] vertex = GLESUtils.makePositionCoord(-width * 0.5f, height * 0.5f, width, height);
+            vertexInfo.setBuffer(mShader.getPositionAttribIndex(), vertex, 3);
+            float[] texCoord = GLESUtils.makeTexCoord(0f, 0f, 1f, 1f);
+            vertexInfo.setBuffer(mShader.getTexCoordAttribIndex(), texCoord, 2);
+
+            imageObjects.setShader(mImageShader, mCheckIndex);
+            imageObjects.setCheckTexture(mCheckTexture);
+            imageObjects.setSurfaceView(mSurfaceView);
+            imageObjects.setScreenSize(mWidth, mHeight);
+            imageObjects.setupObjects(mCamera);
+        }
+
+        reindex(index);
+    }
+
+    // textures in flight keep their index, so it should follow the object
+    private void reindex(int fromIndex) {
+        mInvisibleObjects.clear();
+
+        int size = mDateLabelObjects.size();
+        for (int i = fromIndex; i < size; i++) {
+            mDateLabelObjects.get(i).setIndex(i);
+
+            GalleryTexture texture = mTextureMappingInfos.get(i).getTexture();
+            if (texture != null) {
+                texture.setIndex(i);
+            }
+        }
     }
 
     void deleteImage(ImageIndexingInfo indexingInfo) {
@@ -701,6 +1001,18 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         imageObjects.delete(indexingInfo.mImageIndex);
     }
 
+    void deleteImages(int dateLabelIndex, int index, int count) {
+        DateLabelObject object = mDateLabelObjects.get(dateLabelIndex);
+        ImageObjects imageObjects = object.getImageObjects();
+        imageObjects.delete(index, count);
+    }
+
+    void insertImage(ImageIndexingInfo indexingInfo) {
+        DateLabelObject object = mDateLabelObjects.get(indexingInfo.mDateLabelIndex);
+        ImageObjects imageObjects = object.getImageObjects();
+        imageObjects.insert(indexingInfo.mImageIndex);
+    }
+
     @Override
     public void onImageLoaded(int index, GalleryTexture texture) {
         mWaitingTextures.add(texture);
@@ -802,9 +1114,11 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
             int x = mContext.getResources().getDimensionPixelSize(R.dimen.dateindex_padding);
             int y = (height - textHeight) / 2 + ascent;
 
-            Bitmap bitmap = mReusableBitmaps.poll();
+            Bitmap bitmap = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
             if (bitmap == null) {
                 bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } else {
+                bitmap.eraseColor(Color.TRANSPARENT);
             }
 
             bitmap = GLESUtils.drawTextToBitmap(x, y,
@@ -830,6 +1144,7 @@ class GalleryObjects implements ImageLoadingListener, GridInfoChangeListener {
         }
 
         mInvisibleObjects.clear();
+        mIsOnAnimation = false;
 
         size = mDateLabelObjects.size();
         for (int i = 0; i < size; i++) {
@@ -4,6 +4,11 @@ import android.content.Context;
 import android.opengl.GLSurfaceView;
 import android.view.MotionEvent;
 
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
 /**
  * Created by gomdev on 14. 12. 18..
  */
@@ -15,13 +20,40 @@ public class GallerySurfaceView extends GLSurfaceView {
     private final Context mContext;
 
     private ImageListRenderer mRenderer = null;
+    private final TextureUploader mTextureUploader;
 
     public GallerySurfaceView(Context context) {
         super(context);
 
         mContext = context;
+
+        mTextureUploader = new TextureUploader(this);
+        setEGLContextFactory(mContextFactory);
     }
 
+    // the context of TextureUploader shares textures with the context of the GL thread
+    private final EGLContextFactory mContextFactory = new EGLContextFactory() {
+        @Override
+        public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+            int[] attribs = {TextureUploader.EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+            EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, attribs);
+
+            if (context != null && context != EGL10.EGL_NO_CONTEXT) {
+                mTextureUploader.start(egl, display, config, context);
+            }
+
+            return context;
+        }
+
+        @Override
+        public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+            mTextureUploader.stop();
+            TexturePool.getInstance().abandon();
+
+            egl.eglDestroyContext(display, context);
+        }
+    };
+
     @Override
     public void setRenderer(Renderer renderer) {
         super.setRenderer(renderer);
@@ -58,10 +90,29 @@ public class GallerySurfaceView extends GLSurfaceView {
         return retVal || super.onTouchEvent(event);
     }
 
+    // textures of thumbnails are released on the GL thread.
+    // they are loaded again when they are visible.
+    void releaseTextures() {
+        if (mRenderer == null) {
+            return;
+        }
+
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.releaseTextures();
+            }
+        });
+    }
+
     ImageListRenderer getRenderer() {
         return mRenderer;
     }
 
+    TextureUploader getTextureUploader() {
+        return mTextureUploader;
+    }
+
     public void finish() {
         if (mRenderer != null) {
             mRenderer.finish();
@@ -2,8 +2,11 @@ package com.gomdev.gallery;
 
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import android.opengl.ETC1Util;
 import android.opengl.GLES20;
 
+import com.gomdev.gallery.GalleryConfig.ThumbnailTier;
+
 import com.gomdev.gles.GLESTexture;
 
 /**
@@ -23,6 +26,8 @@ class GalleryTexture implements BitmapContainer {
         CANCELED
     }
 
+    private static Bitmap sPlaceholderBitmap = null;
+
     private GLESTexture mTexture = null;
     private GLESTexture.Builder mBuilder = null;
     private BitmapDrawable mDrawable = null;
@@ -35,8 +40,14 @@ class GalleryTexture implements BitmapContainer {
     volatile boolean mIsTextureLoadingStarted = false;
 
     private boolean mIsThumbnail = false;
+    private ThumbnailTier mThumbnailTier = ThumbnailTier.MINI;
 
     private int mIndex = 0;
+    private float mPositionY = Float.NaN;
+
+    // texture goes to TexturePool when it is destroyed
+    private boolean mIsPoolable = false;
+    private long mPoolKey = 0L;
 
     GalleryTexture(int width, int height) {
         synchronized (this) {
@@ -55,7 +66,11 @@ class GalleryTexture implements BitmapContainer {
         }
 
         if (mTexture != null) {
-            mTexture.destroy();
+            if (mIsPoolable == true) {
+                TexturePool.getInstance().put(mTexture, mPoolKey);
+            } else {
+                mTexture.destroy();
+            }
         }
         mTexture = null;
     }
@@ -92,10 +107,48 @@ class GalleryTexture implements BitmapContainer {
     }
 
     synchronized void load(Bitmap bitmap) {
-        mTexture = mBuilder.load(bitmap);
+        if (mIsPoolable == true) {
+            mPoolKey = TexturePool.getKey(bitmap);
+            mTexture = TexturePool.getInstance().load(mBuilder, bitmap, mPoolKey);
+        } else {
+            mTexture = mBuilder.load(bitmap);
+        }
+        setState(TextureState.LOADED);
+    }
+
+    // compressed texture replaces the image of the texture which is created by the builder.
+    // it is decoded to RGB565 if ETC1 is not supported.
+    // the pooled texture keeps its id, but ETC1 can't be updated by a sub image, so it is specified again.
+    synchronized void load(ETC1Util.ETC1Texture compressedTexture) {
+        mTexture = null;
+        if (mIsPoolable == true) {
+            mPoolKey = TexturePool.getCompressedKey(compressedTexture.getWidth(), compressedTexture.getHeight());
+            mTexture = TexturePool.getInstance().get(mPoolKey);
+        }
+
+        if (mTexture == null) {
+            mTexture = mBuilder.load(getPlaceholderBitmap());
+        }
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture.getTextureID());
+        compressedTexture.getData().position(0);
+        ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D, 0, 0,
+                GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, compressedTexture);
+
         setState(TextureState.LOADED);
     }
 
+    private static synchronized Bitmap getPlaceholderBitmap() {
+        if (sPlaceholderBitmap == null) {
+            sPlaceholderBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.RGB_565);
+        }
+        return sPlaceholderBitmap;
+    }
+
+    void setPoolable(boolean isPoolable) {
+        mIsPoolable = isPoolable;
+    }
+
     void setIndex(int index) {
         mIndex = index;
     }
@@ -104,6 +157,23 @@ class GalleryTexture implements BitmapContainer {
         return mIndex;
     }
 
+    // center of the tile in album view coordinate, used for decoding priority
+    void setPositionY(float positionY) {
+        mPositionY = positionY;
+    }
+
+    float getPositionY() {
+        return mPositionY;
+    }
+
+    void setThumbnailTier(ThumbnailTier tier) {
+        mThumbnailTier = tier;
+    }
+
+    ThumbnailTier getThumbnailTier() {
+        return mThumbnailTier;
+    }
+
     void setImageLoadingListener(ImageLoadingListener listener) {
         mImageLoadingListener = listener;
     }
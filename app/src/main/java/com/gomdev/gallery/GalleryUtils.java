@@ -7,6 +7,7 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.opengl.GLES20;
 import android.os.Build;
+import android.provider.MediaStore;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.view.View;
@@ -16,6 +17,8 @@ import com.gomdev.gles.GLESTexture;
 import com.gomdev.gles.GLESUtils;
 import com.gomdev.gles.GLESVertexInfo;
 
+import java.util.List;
+
 /**
  * Created by gomdev on 14. 12. 27..
  */
@@ -34,6 +37,23 @@ class GalleryUtils {
 
     }
 
+    // "_id IN (id, ...)". ids should not be more than MAX_NUM_OF_IDS_IN_QUERY
+    static String makeImageIDSelection(List<Long> imageIDs) {
+        StringBuilder selection = new StringBuilder();
+        selection.append(MediaStore.Images.Media._ID).append(" IN (");
+
+        int size = imageIDs.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(imageIDs.get(i));
+        }
+        selection.append(')');
+
+        return selection.toString();
+    }
+
     static int getActionBarHeight(Context context) {
         TypedValue tv = new TypedValue();
         if (context.getTheme().resolveAttribute(
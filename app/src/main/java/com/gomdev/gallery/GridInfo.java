@@ -223,6 +223,46 @@ class GridInfo {
         }
     }
 
+    // ranged changes from incremental catalog sync
+
+    void insertImageInfos(int dateLabelIndex, int index, int count) {
+        mBucketInfo.get(dateLabelIndex).setNumOfColumns(mNumOfColumns);
+
+        mNumOfRows = calcNumOfRows();
+        mScrollableHeight = calcScrollableHeight();
+
+        int size = mListeners.size();
+        for (int i = 0; i < size; i++) {
+            mListeners.get(i).onImagesInserted(dateLabelIndex, index, count);
+        }
+    }
+
+    void deleteImageInfos(int dateLabelIndex, int index, int count) {
+        mBucketInfo.get(dateLabelIndex).setNumOfColumns(mNumOfColumns);
+
+        mNumOfRows = calcNumOfRows();
+        mScrollableHeight = calcScrollableHeight();
+
+        int size = mListeners.size();
+        for (int i = 0; i < size; i++) {
+            mListeners.get(i).onImagesDeleted(dateLabelIndex, index, count);
+        }
+    }
+
+    void insertDateLabelInfo(int dateLabelIndex) {
+        mNumOfDateInfos = mBucketInfo.getNumOfDateInfos();
+
+        mBucketInfo.get(dateLabelIndex).setNumOfColumns(mNumOfColumns);
+
+        mNumOfRows = calcNumOfRows();
+        mScrollableHeight = calcScrollableHeight();
+
+        int size = mListeners.size();
+        for (int i = 0; i < size; i++) {
+            mListeners.get(i).onDateLabelInserted(dateLabelIndex);
+        }
+    }
+
     private float mTranslateY = 0f;
     private float mTranslateZ = 0f;
     private float mRotateX = 0f;
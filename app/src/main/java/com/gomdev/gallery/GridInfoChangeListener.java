@@ -9,4 +9,10 @@ public interface GridInfoChangeListener {
     public void onImageDeleted();
 
     public void onDateLabelDeleted();
+
+    public void onImagesInserted(int dateLabelIndex, int index, int count);
+
+    public void onImagesDeleted(int dateLabelIndex, int index, int count);
+
+    public void onDateLabelInserted(int dateLabelIndex);
 }
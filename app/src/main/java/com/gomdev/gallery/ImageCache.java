@@ -7,15 +7,17 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.drawable.BitmapDrawable;
+import android.opengl.ETC1Util;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
-import android.util.LruCache;
 
+import com.gomdev.gallery.GalleryConfig.ThumbnailTier;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,11 +43,16 @@ class ImageCache {
     private static final boolean DEFAULT_MEM_CACHE_ENABLED = true;
     private static final boolean DEFAULT_DISK_CACHE_ENABLED = true;
     private static final boolean DEFAULT_INIT_DISK_CACHE_ON_CREATE = false;
+    private static final boolean DEFAULT_THUMBNAIL_STORE_ENABLED = false;
+
+    private static final String THUMBNAIL_STORE_SUBDIR = "thumbnail_store";
     private final Object mDiskCacheLock = new Object();
     private ImageCacheParams mCacheParams = null;
-    private LruCache<String, BitmapDrawable> mMemoryCache;
+    private LongLruCache<BitmapDrawable> mMemoryCache;
 
     private DiskLruCache mDiskLruCache;
+    private final DiskCacheWriter mDiskCacheWriter;
+    private ThumbnailStore mThumbnailStore;
     private boolean mDiskCacheStarting = true;
 
     private ImageCache(ImageCacheParams params) {
@@ -56,6 +63,8 @@ class ImageCache {
         }
 
         initDiskCache();
+
+        mDiskCacheWriter = new DiskCacheWriter(this, params.mCompressFormat, params.mCompressQuality);
     }
 
     static ImageCache getInstance(FragmentManager fragmentManager, ImageCacheParams params) {
@@ -122,33 +131,40 @@ class ImageCache {
         if (bitmap == null) {
             Log.d(TAG, "");
         }
+
+        int compressedSize = 0;
+        if (value instanceof RecyclingBitmapDrawable) {
+            ETC1Util.ETC1Texture compressedTexture = ((RecyclingBitmapDrawable) value).getCompressedTexture();
+            if (compressedTexture != null) {
+                compressedSize = compressedTexture.getData().capacity();
+            }
+        }
+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            return bitmap.getAllocationByteCount();
+            return bitmap.getAllocationByteCount() + compressedSize;
         }
 
-        return bitmap.getByteCount();
+        return bitmap.getByteCount() + compressedSize;
     }
 
     private void initMemoryCache() {
         int cacheSize = mCacheParams.mMemCacheSize;
 
-        mMemoryCache = new LruCache<String, BitmapDrawable>(cacheSize) {
+        mMemoryCache = new LongLruCache<BitmapDrawable>(cacheSize) {
             @Override
-            protected int sizeOf(String key, BitmapDrawable value) {
+            protected int sizeOf(long key, BitmapDrawable value) {
                 // The cache size will be measured in kilobytes rather than
                 // number of items.
                 return getBitmapSize(value) / 1024;
             }
 
             @Override
-            protected void entryRemoved(boolean evicted, String key, BitmapDrawable oldValue, BitmapDrawable newValue) {
+            protected void entryRemoved(boolean evicted, long key, BitmapDrawable oldValue, BitmapDrawable newValue) {
 
+                // bitmap goes to BitmapPool when it is no longer displayed either
                 if (RecyclingBitmapDrawable.class.isInstance(oldValue)) {
                     ((RecyclingBitmapDrawable) oldValue).setIsCached(false);
                 }
-
-//                mReusableBitmaps.add
-//                        (new SoftReference<Bitmap>(oldValue.getBitmap()));
             }
         };
     }
@@ -158,11 +174,61 @@ class ImageCache {
         new InitDiskCacheTask().execute(cacheDir);
     }
 
-    void addBitmapToCache(String key, BitmapDrawable value) {
-        if (key == null || value == null) {
+    // called with mDiskCacheLock
+    private void initThumbnailStore() {
+        File storeDir = mCacheParams.mThumbnailStoreDir;
+        if (mThumbnailStore != null || mCacheParams.mThumbnailStoreEnabled == false || storeDir == null) {
+            return;
+        }
+
+        if (storeDir.exists() == false) {
+            storeDir.mkdirs();
+        }
+
+        int numOfSegments = ThumbnailStore.getNumOfSegments(mCacheParams.mThumbnailStoreSize);
+        if (getUsableSpace(storeDir) <= ThumbnailStore.getStoreSize(numOfSegments)) {
             return;
         }
 
+        try {
+            mThumbnailStore = ThumbnailStore.open(storeDir, numOfSegments);
+            if (DEBUG) {
+                Log.d(TAG, "Thumbnail store initialized");
+            }
+        } catch (IOException e) {
+            mCacheParams.mThumbnailStoreDir = null;
+            Log.e(TAG, "initThumbnailStore - " + e);
+        }
+    }
+
+    // tiers of an image are cached independently
+    static long getCacheKey(long imageID, ThumbnailTier tier) {
+        return (imageID << 2) | tier.getIndex();
+    }
+
+    static long getImageID(long cacheKey) {
+        return cacheKey >> 2;
+    }
+
+    static ThumbnailTier getThumbnailTier(long cacheKey) {
+        return ThumbnailTier.get((int) (cacheKey & 0x3));
+    }
+
+    // MINI keeps the key of the previous versions
+    static String getDiskCacheKey(long imageID, ThumbnailTier tier) {
+        if (tier == ThumbnailTier.MINI) {
+            return String.valueOf(imageID);
+        }
+        return imageID + "_" + tier.getIndex();
+    }
+
+    void addBitmapToCache(long imageID, ThumbnailTier tier, BitmapDrawable value) {
+        if (value == null) {
+            return;
+        }
+
+        long cacheKey = getCacheKey(imageID, tier);
+
         if (mMemoryCache != null) {
             if (RecyclingBitmapDrawable.class.isInstance(value)) {
                 // The removed entry is a recycling drawable, so notify it
@@ -170,59 +236,142 @@ class ImageCache {
                 ((RecyclingBitmapDrawable) value).setIsCached(true);
             }
 
-            mMemoryCache.put(key, value);
+            mMemoryCache.put(cacheKey, value);
         }
 
-        // Also add to disk cache
+        // Also add to disk cache, compressed on the writer thread
+        if (mCacheParams.mDiskCacheEnabled == true) {
+            mDiskCacheWriter.enqueue(cacheKey, value);
+        }
+    }
+
+    boolean isInDiskCache(String key) {
+        DiskLruCache diskLruCache;
         synchronized (mDiskCacheLock) {
-            // Add to disk cache
-            if (mDiskLruCache != null) {
-                OutputStream out = null;
+            diskLruCache = mDiskLruCache;
+        }
+
+        return diskLruCache != null && diskLruCache.contains(key);
+    }
+
+    // returns false if the thumbnail store is not used
+    boolean writeToThumbnailStore(long imageID, Bitmap bitmap, ETC1Util.ETC1Texture compressedTexture) {
+        ThumbnailStore thumbnailStore;
+        synchronized (mDiskCacheLock) {
+            thumbnailStore = mThumbnailStore;
+        }
+
+        if (thumbnailStore == null) {
+            return false;
+        }
+
+        if (bitmap != null && bitmap.isRecycled() == false) {
+            // compressed texture is encoded by put() on the writer thread,
+            // so it doesn't delay the decode thread
+            thumbnailStore.put(imageID, bitmap, compressedTexture);
+        }
+        return true;
+    }
+
+    ETC1Util.ETC1Texture getCompressedTextureFromDiskCache(long imageID) {
+        ThumbnailStore thumbnailStore;
+        synchronized (mDiskCacheLock) {
+            thumbnailStore = mThumbnailStore;
+        }
+
+        if (thumbnailStore == null) {
+            return null;
+        }
+
+        return thumbnailStore.getCompressedTexture(imageID);
+    }
+
+    void removeFromThumbnailStore(long imageID) {
+        ThumbnailStore thumbnailStore;
+        synchronized (mDiskCacheLock) {
+            thumbnailStore = mThumbnailStore;
+        }
+
+        if (thumbnailStore != null) {
+            thumbnailStore.remove(imageID);
+        }
+    }
+
+    // data is already compressed, so the lock is held only while it is copied.
+    void writeToDiskCache(String key, ByteArrayOutputStream data) {
+        synchronized (mDiskCacheLock) {
+            if (mDiskLruCache == null) {
+                return;
+            }
+
+            OutputStream out = null;
+            try {
+                final DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+                if (editor != null) {
+                    out = editor.newOutputStream(DISK_CACHE_INDEX);
+                    data.writeTo(out);
+                    out.close();
+                    out = null;
+                    editor.commit();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "writeToDiskCache - " + e);
+            } finally {
                 try {
-                    DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
-                    if (snapshot == null) {
-                        final DiskLruCache.Editor editor = mDiskLruCache
-                                .edit(key);
-                        if (editor != null) {
-                            out = editor.newOutputStream(DISK_CACHE_INDEX);
-                            value.getBitmap().compress(
-                                    mCacheParams.mCompressFormat, mCacheParams.mCompressQuality, out);
-                            editor.commit();
-                            out.close();
-                        }
-                    } else {
-                        snapshot.getInputStream(DISK_CACHE_INDEX).close();
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "addBitmapToCache - " + e);
-                } finally {
-                    try {
-                        if (out != null) {
-                            out.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                    if (out != null) {
+                        out.close();
                     }
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
     }
 
-    BitmapDrawable getBitmapFromMemCache(String key) {
+    // KB
+    void setMemCacheSize(int memCacheSize) {
+        mCacheParams.mMemCacheSize = memCacheSize;
+
+        if (mMemoryCache != null) {
+            mMemoryCache.resize(memCacheSize);
+        }
+    }
+
+    // drops the least recently used half of the memory cache, or all of it.
+    // pending disk writes are dropped too, they keep their bitmaps.
+    void trimMemCache(boolean evictAll) {
+        mDiskCacheWriter.clear();
+
+        if (mMemoryCache == null) {
+            return;
+        }
+
+        if (evictAll == true) {
+            mMemoryCache.evictAll();
+        } else {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    BitmapDrawable getBitmapFromMemCache(long imageID, ThumbnailTier tier) {
         BitmapDrawable value = null;
 
         if (mMemoryCache != null) {
-            value = mMemoryCache.get(key);
+            value = mMemoryCache.get(getCacheKey(imageID, tier));
         }
 
         return value;
     }
 
-    Bitmap getBitmapFromDiskCache(ImageInfo imageInfo) {
+    Bitmap getBitmapFromDiskCache(ImageInfo imageInfo, ThumbnailTier tier) {
         Bitmap bitmap = null;
 
-        String key = String.valueOf(imageInfo.getImageID());
+        String key = getDiskCacheKey(imageInfo.getImageID(), tier);
 
+        // DiskLruCache reads without its lock, so the lock is held only
+        // while waiting for the disk cache to be opened.
+        DiskLruCache diskLruCache;
+        ThumbnailStore thumbnailStore;
         synchronized (mDiskCacheLock) {
             while (mDiskCacheStarting) {
                 try {
@@ -231,43 +380,44 @@ class ImageCache {
                     e.printStackTrace();
                 }
             }
-            if (mDiskLruCache != null) {
-                InputStream inputStream = null;
-                try {
-                    final DiskLruCache.Snapshot snapshot = mDiskLruCache
-                            .get(key);
-                    if (snapshot != null) {
-                        inputStream = snapshot.getInputStream(DISK_CACHE_INDEX);
-                        if (inputStream != null) {
-                            FileDescriptor fd = ((FileInputStream) inputStream)
-                                    .getFD();
-
-                            // Decode bitmap, but we don't want to sample so
-                            // give
-                            // MAX_VALUE as the target dimensions
-                            bitmap = ImageLoader.decodeSampledBitmapFromDescriptor(imageInfo,
-                                    fd, Integer.MAX_VALUE,
-                                    Integer.MAX_VALUE, this);
-//                            bitmap = ImageManager.decodeSampledBitmapFromDescriptor(
-//                                    fd, Integer.MAX_VALUE,
-//                                    Integer.MAX_VALUE);
-                        }
+            diskLruCache = mDiskLruCache;
+            thumbnailStore = mThumbnailStore;
+        }
+
+        // thumbnail store has MINI only
+        if (thumbnailStore != null && tier == ThumbnailTier.MINI) {
+            // raw pixels, no decoding
+            bitmap = thumbnailStore.get(imageInfo.getImageID());
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        if (diskLruCache != null) {
+            InputStream inputStream = null;
+            try {
+                final DiskLruCache.Snapshot snapshot = diskLruCache.get(key);
+                if (snapshot != null) {
+                    inputStream = snapshot.getInputStream(DISK_CACHE_INDEX);
+                    if (inputStream != null) {
+                        // Decode bitmap, but we don't want to sample
+                        bitmap = ImageLoader.decodeBitmapFromStream((FileInputStream) inputStream);
                     }
-                } catch (final IOException e) {
-                    Log.e(TAG, "getBitmapFromDiskCache - " + e);
-                } finally {
-                    try {
-                        if (inputStream != null) {
-                            inputStream.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                }
+            } catch (final IOException e) {
+                Log.e(TAG, "getBitmapFromDiskCache - " + e);
+            } finally {
+                try {
+                    if (inputStream != null) {
+                        inputStream.close();
                     }
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
-
-            return bitmap;
         }
+
+        return bitmap;
     }
 
     /**
@@ -275,9 +425,11 @@ class ImageCache {
      */
     static class ImageCacheParams {
         File mDiskCacheDir;
+        File mThumbnailStoreDir;
 
         ImageCacheParams(Context context, String diskCacheDirectoryName) {
             mDiskCacheDir = getDiskCacheDir(context, diskCacheDirectoryName);
+            mThumbnailStoreDir = getDiskCacheDir(context, THUMBNAIL_STORE_SUBDIR);
         }
 
         void setMemCacheSizePercent(float percent) {
@@ -305,6 +457,9 @@ class ImageCache {
         boolean mMemoryCacheEnabled = DEFAULT_MEM_CACHE_ENABLED;
         boolean mDiskCacheEnabled = DEFAULT_DISK_CACHE_ENABLED;
         boolean mInitDiskCacheOnCreate = DEFAULT_INIT_DISK_CACHE_ON_CREATE;
+        // MINI thumbnails are written to ThumbnailStore as well as DiskLruCache
+        boolean mThumbnailStoreEnabled = DEFAULT_THUMBNAIL_STORE_ENABLED;
+        long mThumbnailStoreSize = DEFAULT_DISK_CACHE_SIZE;
 
 
     }
@@ -374,6 +529,8 @@ class ImageCache {
                         }
                     }
                 }
+                initThumbnailStore();
+
                 mDiskCacheStarting = false;
                 mDiskCacheLock.notifyAll();
             }
@@ -0,0 +1,270 @@
+package com.gomdev.gallery;
+
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created by gomdev on 15. 4. 8..
+ * <p/>
+ * Reads width, height and orientation from the header of JPEG, PNG and WebP files
+ * without decoding the image.
+ */
+class ImageHeaderParser {
+    static final String CLASS = "ImageHeaderParser";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    static final int WIDTH = 0;
+    static final int HEIGHT = 1;
+    static final int ORIENTATION = 2;
+    static final int RESULT_SIZE = 3;
+
+    private static final int MAX_SEGMENT_SIZE = 0xFFFF;
+    private static final int RIFF_HEADER_SIZE = 30;
+
+    private static final int EXIF_TAG_ORIENTATION = 0x0112;
+
+    private ImageHeaderParser() {
+    }
+
+    // result : width, height and orientation in degree.
+    // returns false if the format is not supported or the header is broken.
+    static boolean parse(String path, int[] result) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            FileChannel channel = in.getChannel();
+
+            ByteBuffer header = read(channel, 0, RIFF_HEADER_SIZE);
+            if (header == null || header.limit() < 4) {
+                return false;
+            }
+
+            result[ORIENTATION] = 0;
+
+            if (isJpeg(header)) {
+                return parseJpeg(channel, result);
+            } else if (isPng(header)) {
+                return parsePng(header, result);
+            } else if (isWebp(header)) {
+                return parseWebp(header, result);
+            }
+
+            return false;
+        } catch (IOException e) {
+            if (DEBUG) {
+                Log.d(TAG, "parse() " + path + " " + e.getMessage());
+            }
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static boolean isJpeg(ByteBuffer header) {
+        return (header.get(0) & 0xFF) == 0xFF && (header.get(1) & 0xFF) == 0xD8;
+    }
+
+    private static boolean isPng(ByteBuffer header) {
+        return header.limit() >= 24 &&
+                (header.get(0) & 0xFF) == 0x89 && header.get(1) == 'P' &&
+                header.get(2) == 'N' && header.get(3) == 'G';
+    }
+
+    private static boolean isWebp(ByteBuffer header) {
+        return header.limit() >= RIFF_HEADER_SIZE &&
+                header.get(0) == 'R' && header.get(1) == 'I' && header.get(2) == 'F' && header.get(3) == 'F' &&
+                header.get(8) == 'W' && header.get(9) == 'E' && header.get(10) == 'B' && header.get(11) == 'P';
+    }
+
+    // walks markers until SOF. orientation is read from APP1 on the way.
+    private static boolean parseJpeg(FileChannel channel, int[] result) throws IOException {
+        long position = 2;
+
+        while (true) {
+            ByteBuffer marker = read(channel, position, 4);
+            if (marker == null || marker.limit() < 2 || (marker.get(0) & 0xFF) != 0xFF) {
+                return false;
+            }
+
+            int type = marker.get(1) & 0xFF;
+            if (type == 0xFF) {
+                // fill byte
+                position++;
+                continue;
+            }
+
+            if (type == 0x01 || (type >= 0xD0 && type <= 0xD7)) {
+                position += 2;
+                continue;
+            }
+
+            if (type == 0xD9 || type == 0xDA || marker.limit() < 4) {
+                // no SOF before image data
+                return false;
+            }
+
+            int length = marker.getShort(2) & 0xFFFF;
+            if (length < 2) {
+                return false;
+            }
+
+            if (isSof(type)) {
+                ByteBuffer sof = read(channel, position + 4, 5);
+                if (sof == null || sof.limit() < 5) {
+                    return false;
+                }
+
+                result[HEIGHT] = sof.getShort(1) & 0xFFFF;
+                result[WIDTH] = sof.getShort(3) & 0xFFFF;
+                return result[WIDTH] > 0 && result[HEIGHT] > 0;
+            }
+
+            if (type == 0xE1) {
+                ByteBuffer app1 = read(channel, position + 4, Math.min(length - 2, MAX_SEGMENT_SIZE));
+                if (app1 != null) {
+                    int orientation = parseExifOrientation(app1);
+                    if (orientation >= 0) {
+                        result[ORIENTATION] = orientation;
+                    }
+                }
+            }
+
+            position += 2 + length;
+        }
+    }
+
+    private static boolean isSof(int type) {
+        return type >= 0xC0 && type <= 0xCF &&
+                type != 0xC4 && type != 0xC8 && type != 0xCC;
+    }
+
+    // returns -1 if there is no orientation tag
+    private static int parseExifOrientation(ByteBuffer app1) {
+        int limit = app1.limit();
+        if (limit < 14 ||
+                app1.get(0) != 'E' || app1.get(1) != 'x' || app1.get(2) != 'i' || app1.get(3) != 'f') {
+            return -1;
+        }
+
+        final int tiff = 6;
+        if (app1.get(tiff) == 'I' && app1.get(tiff + 1) == 'I') {
+            app1.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (app1.get(tiff) == 'M' && app1.get(tiff + 1) == 'M') {
+            app1.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return -1;
+        }
+
+        int ifd = tiff + app1.getInt(tiff + 4);
+        if (ifd < tiff || ifd + 2 > limit) {
+            return -1;
+        }
+
+        int numOfEntries = app1.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < numOfEntries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > limit) {
+                return -1;
+            }
+
+            if ((app1.getShort(entry) & 0xFFFF) == EXIF_TAG_ORIENTATION) {
+                switch (app1.getShort(entry + 8) & 0xFFFF) {
+                    case 3:
+                        return 180;
+                    case 6:
+                        return 90;
+                    case 8:
+                        return 270;
+                    default:
+                        return 0;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean parsePng(ByteBuffer header, int[] result) {
+        // IHDR is always the first chunk
+        if (header.get(12) != 'I' || header.get(13) != 'H' ||
+                header.get(14) != 'D' || header.get(15) != 'R') {
+            return false;
+        }
+
+        header.order(ByteOrder.BIG_ENDIAN);
+        result[WIDTH] = header.getInt(16);
+        result[HEIGHT] = header.getInt(20);
+        return result[WIDTH] > 0 && result[HEIGHT] > 0;
+    }
+
+    private static boolean parseWebp(ByteBuffer header, int[] result) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        byte format = header.get(15);
+        if (header.get(12) != 'V' || header.get(13) != 'P' || header.get(14) != '8') {
+            return false;
+        }
+
+        if (format == ' ') {
+            // lossy : frame tag(3) + start code(3) + 14 bits width, 14 bits height
+            if ((header.get(23) & 0xFF) != 0x9D || (header.get(24) & 0xFF) != 0x01 ||
+                    (header.get(25) & 0xFF) != 0x2A) {
+                return false;
+            }
+            result[WIDTH] = header.getShort(26) & 0x3FFF;
+            result[HEIGHT] = header.getShort(28) & 0x3FFF;
+        } else if (format == 'L') {
+            // lossless : signature(1) + 14 bits width - 1, 14 bits height - 1
+            if ((header.get(20) & 0xFF) != 0x2F) {
+                return false;
+            }
+            int bits = header.getInt(21);
+            result[WIDTH] = (bits & 0x3FFF) + 1;
+            result[HEIGHT] = ((bits >> 14) & 0x3FFF) + 1;
+        } else if (format == 'X') {
+            // extended : flags(4) + 24 bits canvas width - 1, 24 bits canvas height - 1
+            result[WIDTH] = getUInt24(header, 24) + 1;
+            result[HEIGHT] = getUInt24(header, 27) + 1;
+        } else {
+            return false;
+        }
+
+        return result[WIDTH] > 0 && result[HEIGHT] > 0;
+    }
+
+    private static int getUInt24(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) |
+                ((buffer.get(index + 1) & 0xFF) << 8) |
+                ((buffer.get(index + 2) & 0xFF) << 16);
+    }
+
+    // returns null at the end of file
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read <= 0) {
+                break;
+            }
+        }
+
+        if (buffer.position() == 0) {
+            return null;
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -16,6 +16,7 @@ class ImageInfo implements Serializable, GalleryInfo {
     private String mImagePath = null;
     private int mWidth;
     private int mHeight;
+    private long mDateTaken = 0L;
 
     ImageInfo(long id, int orientation) {
         mImageID = id;
@@ -62,6 +63,14 @@ class ImageInfo implements Serializable, GalleryInfo {
         mHeight = height;
     }
 
+    long getDateTaken() {
+        return mDateTaken;
+    }
+
+    void setDateTaken(long dateTaken) {
+        mDateTaken = dateTaken;
+    }
+
     void setDateLabelInfo(DateLabelInfo dateLabelInfo) {
         mDateLabelInfo = dateLabelInfo;
     }
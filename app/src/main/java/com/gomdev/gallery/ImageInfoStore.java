@@ -0,0 +1,295 @@
+package com.gomdev.gallery;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Keeps image infos of a DateLabelInfo in parallel primitive arrays.
+ * Image paths are kept in a byte pool relative to the directory of the bucket,
+ * ImageInfo is created only when it is requested.
+ */
+class ImageInfoStore implements Serializable {
+    static final String CLASS = "ImageInfoStore";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int NULL_PATH = -1;
+
+    private int mSize = 0;
+
+    private long[] mImageIDs = new long[INITIAL_CAPACITY];
+    private int[] mOrientations = new int[INITIAL_CAPACITY];
+    private int[] mWidths = new int[INITIAL_CAPACITY];
+    private int[] mHeights = new int[INITIAL_CAPACITY];
+    private long[] mDateTakens = new long[INITIAL_CAPACITY];
+    private int[] mPathOffsets = new int[INITIAL_CAPACITY];
+    private int[] mPathLengths = new int[INITIAL_CAPACITY];
+
+    // all images of a bucket are in the same directory.
+    // paths which are not in mDirectory are kept as absolute path.
+    private String mDirectory = null;
+    private byte[] mPathPool = new byte[INITIAL_CAPACITY * 16];
+    private int mPathPoolSize = 0;
+    private int mPathPoolGarbage = 0;
+
+    ImageInfoStore() {
+    }
+
+    private ImageInfoStore(int capacity) {
+        grow(capacity);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void insert(int index, ImageInfo imageInfo) {
+        if (mSize == mImageIDs.length) {
+            grow(mSize * 2);
+        }
+
+        int numOfMoved = mSize - index;
+        if (numOfMoved > 0) {
+            System.arraycopy(mImageIDs, index, mImageIDs, index + 1, numOfMoved);
+            System.arraycopy(mOrientations, index, mOrientations, index + 1, numOfMoved);
+            System.arraycopy(mWidths, index, mWidths, index + 1, numOfMoved);
+            System.arraycopy(mHeights, index, mHeights, index + 1, numOfMoved);
+            System.arraycopy(mDateTakens, index, mDateTakens, index + 1, numOfMoved);
+            System.arraycopy(mPathOffsets, index, mPathOffsets, index + 1, numOfMoved);
+            System.arraycopy(mPathLengths, index, mPathLengths, index + 1, numOfMoved);
+        }
+
+        mImageIDs[index] = imageInfo.getImageID();
+        mOrientations[index] = imageInfo.getOrientation();
+        mWidths[index] = imageInfo.getWidth();
+        mHeights[index] = imageInfo.getHeight();
+        mDateTakens[index] = imageInfo.getDateTaken();
+        putPath(index, imageInfo.getImagePath());
+
+        mSize++;
+    }
+
+    void delete(int index, int count) {
+        for (int i = index; i < index + count; i++) {
+            if (mPathLengths[i] != NULL_PATH) {
+                mPathPoolGarbage += mPathLengths[i];
+            }
+        }
+
+        int numOfMoved = mSize - (index + count);
+        if (numOfMoved > 0) {
+            System.arraycopy(mImageIDs, index + count, mImageIDs, index, numOfMoved);
+            System.arraycopy(mOrientations, index + count, mOrientations, index, numOfMoved);
+            System.arraycopy(mWidths, index + count, mWidths, index, numOfMoved);
+            System.arraycopy(mHeights, index + count, mHeights, index, numOfMoved);
+            System.arraycopy(mDateTakens, index + count, mDateTakens, index, numOfMoved);
+            System.arraycopy(mPathOffsets, index + count, mPathOffsets, index, numOfMoved);
+            System.arraycopy(mPathLengths, index + count, mPathLengths, index, numOfMoved);
+        }
+
+        mSize -= count;
+
+        if (mPathPoolGarbage > mPathPoolSize / 2) {
+            compactPathPool();
+        }
+    }
+
+    // trims arrays to the number of images. called when loading is finished.
+    void trimToSize() {
+        if (mImageIDs.length != mSize) {
+            grow(Math.max(mSize, 1));
+        }
+
+        if (mPathPoolGarbage > 0) {
+            compactPathPool();
+        } else if (mPathPool.length != mPathPoolSize) {
+            mPathPool = Arrays.copyOf(mPathPool, mPathPoolSize);
+        }
+    }
+
+    // used when the size is probed after the image is added
+    void setImageSize(int index, int width, int height, int orientation) {
+        mWidths[index] = width;
+        mHeights[index] = height;
+        mOrientations[index] = orientation;
+    }
+
+    long getImageID(int index) {
+        return mImageIDs[index];
+    }
+
+    int getOrientation(int index) {
+        return mOrientations[index];
+    }
+
+    int getWidth(int index) {
+        return mWidths[index];
+    }
+
+    int getHeight(int index) {
+        return mHeights[index];
+    }
+
+    long getDateTaken(int index) {
+        return mDateTakens[index];
+    }
+
+    String getImagePath(int index) {
+        int length = mPathLengths[index];
+        if (length == NULL_PATH) {
+            return null;
+        }
+
+        int offset = mPathOffsets[index];
+        String path = new String(mPathPool, offset, length, UTF_8);
+        if (length > 0 && mPathPool[offset] == '/') {
+            return path;
+        }
+
+        return mDirectory + path;
+    }
+
+    String getDirectory() {
+        return mDirectory;
+    }
+
+    ImageInfo createImageInfo(int index) {
+        ImageInfo imageInfo = new ImageInfo(mImageIDs[index], mOrientations[index]);
+        imageInfo.setWidth(mWidths[index]);
+        imageInfo.setHeight(mHeights[index]);
+        imageInfo.setDateTaken(mDateTakens[index]);
+        imageInfo.setImagePath(getImagePath(index));
+        imageInfo.setIndex(index);
+
+        return imageInfo;
+    }
+
+    // snapshot : size, directory, columns and the path pool as they are kept in memory,
+    // so CatalogSnapshot reads them back with bulk gets instead of ImageInfo for each image.
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(mSize);
+        CatalogSnapshot.writeString(out, mDirectory);
+
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mImageIDs[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mDateTakens[i]);
+        }
+
+        int[][] columns = {mOrientations, mWidths, mHeights, mPathOffsets, mPathLengths};
+        for (int[] column : columns) {
+            for (int i = 0; i < mSize; i++) {
+                out.writeInt(column[i]);
+            }
+        }
+
+        out.writeInt(mPathPoolSize);
+        out.writeInt(mPathPoolGarbage);
+        out.write(mPathPool, 0, mPathPoolSize);
+    }
+
+    static ImageInfoStore read(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0 || (long) size * (8 + 8 + 4 * 5) > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        ImageInfoStore store = new ImageInfoStore(Math.max(size, 1));
+        store.mSize = size;
+        String directory = CatalogSnapshot.readString(buffer);
+        store.mDirectory = (directory != null) ? directory.intern() : null;
+
+        int position = buffer.position();
+        buffer.asLongBuffer().get(store.mImageIDs, 0, size);
+        position += size * 8;
+        buffer.position(position);
+        buffer.asLongBuffer().get(store.mDateTakens, 0, size);
+        position += size * 8;
+
+        int[][] columns = {store.mOrientations, store.mWidths, store.mHeights,
+                store.mPathOffsets, store.mPathLengths};
+        for (int[] column : columns) {
+            buffer.position(position);
+            buffer.asIntBuffer().get(column, 0, size);
+            position += size * 4;
+        }
+        buffer.position(position);
+
+        int pathPoolSize = buffer.getInt();
+        if (pathPoolSize < 0 || pathPoolSize > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        store.mPathPoolGarbage = buffer.getInt();
+        store.mPathPool = new byte[pathPoolSize];
+        buffer.get(store.mPathPool);
+        store.mPathPoolSize = pathPoolSize;
+
+        return store;
+    }
+
+    private void putPath(int index, String path) {
+        if (path == null) {
+            mPathOffsets[index] = 0;
+            mPathLengths[index] = NULL_PATH;
+            return;
+        }
+
+        // date labels of a bucket share the same directory String
+        if (mDirectory == null) {
+            mDirectory = path.substring(0, path.lastIndexOf('/') + 1).intern();
+        }
+
+        if (mDirectory.length() > 0 && path.startsWith(mDirectory)) {
+            path = path.substring(mDirectory.length());
+        }
+
+        byte[] bytes = path.getBytes(UTF_8);
+        if (mPathPoolSize + bytes.length > mPathPool.length) {
+            mPathPool = Arrays.copyOf(mPathPool, Math.max(mPathPool.length * 2, mPathPoolSize + bytes.length));
+        }
+
+        System.arraycopy(bytes, 0, mPathPool, mPathPoolSize, bytes.length);
+        mPathOffsets[index] = mPathPoolSize;
+        mPathLengths[index] = bytes.length;
+        mPathPoolSize += bytes.length;
+    }
+
+    private void compactPathPool() {
+        byte[] pathPool = new byte[mPathPoolSize - mPathPoolGarbage];
+        int pathPoolSize = 0;
+        for (int i = 0; i < mSize; i++) {
+            int length = mPathLengths[i];
+            if (length == NULL_PATH) {
+                continue;
+            }
+
+            System.arraycopy(mPathPool, mPathOffsets[i], pathPool, pathPoolSize, length);
+            mPathOffsets[i] = pathPoolSize;
+            pathPoolSize += length;
+        }
+
+        mPathPool = pathPool;
+        mPathPoolSize = pathPoolSize;
+        mPathPoolGarbage = 0;
+    }
+
+    private void grow(int capacity) {
+        mImageIDs = Arrays.copyOf(mImageIDs, capacity);
+        mOrientations = Arrays.copyOf(mOrientations, capacity);
+        mWidths = Arrays.copyOf(mWidths, capacity);
+        mHeights = Arrays.copyOf(mHeights, capacity);
+        mDateTakens = Arrays.copyOf(mDateTakens, capacity);
+        mPathOffsets = Arrays.copyOf(mPathOffsets, capacity);
+        mPathLengths = Arrays.copyOf(mPathLengths, capacity);
+    }
+}
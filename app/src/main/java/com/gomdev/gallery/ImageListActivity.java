@@ -7,6 +7,7 @@ import android.content.ContentUris;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.graphics.Color;
 import android.graphics.PixelFormat;
 import android.net.Uri;
 import android.opengl.GLSurfaceView;
@@ -18,11 +19,13 @@ import android.os.Message;
 import android.provider.MediaStore;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.gomdev.gallery.GalleryConfig.AlbumViewMode;
@@ -30,12 +33,13 @@ import com.gomdev.gallery.GalleryConfig.DeletedInfo;
 import com.gomdev.gallery.GalleryConfig.ImageViewMode;
 import com.gomdev.gallery.GalleryConfig.VisibleMode;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.SortedSet;
 
-public class ImageListActivity extends Activity {
+public class ImageListActivity extends Activity implements CatalogChangeListener {
     static final String CLASS = "ImageListActivity";
     static final String TAG = GalleryConfig.TAG + "_" + CLASS;
     static final boolean DEBUG = GalleryConfig.DEBUG;
@@ -48,6 +52,9 @@ public class ImageListActivity extends Activity {
     final static int UPDATE_PROGRESS_DIALOG = 107;
     final static int FAIL_IMAGE_DELETION_FROM_DATABASE = 108;
     final static int DELETE_BUCKET = 109;
+    final static int UPDATE_PIPELINE_METRICS = 110;
+
+    private final static long PIPELINE_METRICS_UPDATE_INTERVAL = 1000L;
 
     private GallerySurfaceView mSurfaceView = null;
     private GalleryContext mGalleryContext = null;
@@ -55,6 +62,7 @@ public class ImageListActivity extends Activity {
     private GridInfo mGridInfo = null;
 
     private ProgressDialog mProgressDialog = null;
+    private TextView mPipelineMetricsView = null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -132,6 +140,16 @@ public class ImageListActivity extends Activity {
         mSurfaceView = new GallerySurfaceView(this);
         layout.addView(mSurfaceView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
 
+        if (GalleryConfig.SHOW_PIPELINE_METRICS == true) {
+            mPipelineMetricsView = new TextView(this);
+            mPipelineMetricsView.setTextColor(Color.WHITE);
+            mPipelineMetricsView.setBackgroundColor(0x80000000);
+            mPipelineMetricsView.setTextSize(10f);
+            layout.addView(mPipelineMetricsView, new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                    Gravity.BOTTOM | Gravity.START));
+        }
+
         ImageListRenderer renderer = new ImageListRenderer(this, mGridInfo);
 
         mSurfaceView.setEGLContextClientVersion(2);
@@ -220,6 +238,12 @@ public class ImageListActivity extends Activity {
         if (mSurfaceView != null) {
             mSurfaceView.onResume();
         }
+
+        mImageManager.addListener(this);
+
+        if (mPipelineMetricsView != null) {
+            mHandler.sendEmptyMessage(UPDATE_PIPELINE_METRICS);
+        }
     }
 
     @Override
@@ -228,6 +252,9 @@ public class ImageListActivity extends Activity {
             Log.d(TAG, "onPause()");
         }
 
+        mImageManager.removeListener(this);
+        mHandler.removeMessages(UPDATE_PIPELINE_METRICS);
+
         if (mSurfaceView != null) {
             mSurfaceView.onPause();
         }
@@ -235,6 +262,44 @@ public class ImageListActivity extends Activity {
         super.onPause();
     }
 
+    // BitmapPool and the memory cache are trimmed by CacheBudgetManager
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (DEBUG) {
+            Log.d(TAG, "onTrimMemory() level=" + level);
+        }
+
+        if (CacheBudgetManager.getTrimStage(level) >= CacheBudgetManager.TRIM_STAGE_TEXTURES &&
+                mSurfaceView != null) {
+            mSurfaceView.releaseTextures();
+        }
+    }
+
+    // adb shell dumpsys activity com.gomdev.gallery/.ImageListActivity
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        PipelineMetrics.getInstance().dump(prefix, writer);
+    }
+
+    @Override
+    public void onCatalogChanged() {
+        if (DEBUG) {
+            Log.d(TAG, "onCatalogChanged()");
+        }
+
+        // every image of this bucket is deleted outside of the gallery
+        if (mGridInfo.getBucketInfo().getNumOfDateInfos() == 0) {
+            mHandler.sendEmptyMessage(DELETE_BUCKET);
+            return;
+        }
+
+        mSurfaceView.requestRender();
+    }
+
     @Override
     public void finish() {
         if (DEBUG) {
@@ -384,33 +449,29 @@ public class ImageListActivity extends Activity {
 
         GalleryContext galleryContext = GalleryContext.getInstance();
         SortedSet<ImageIndexingInfo> set = galleryContext.getCheckedImageIndexingInfos();
-        Iterator<ImageIndexingInfo> iter = set.iterator();
 
         synchronized (GalleryContext.sLockObject) {
             int size = set.size();
 
-            ImageIndexingInfo imageIndexingInfo = null;
-            for (int i = 0; iter.hasNext(); i++) {
-                imageIndexingInfo = iter.next();
-
-                ImageManager.getInstance().deleteImage(imageIndexingInfo, deletedInfo);
-                boolean isNotDeleted = deletedInfo.contains(DeletedInfo.NONE);
-                if (isNotDeleted == true) {
-                    mHandler.sendEmptyMessage(FAIL_IMAGE_DELETION_FROM_DATABASE);
-                }
+            // one batched MediaStore delete and one grid change for all checked images
+            ImageManager.getInstance().deleteImages(set, deletedInfo);
 
-                boolean isBucketDeleted = deletedInfo.contains(DeletedInfo.BUCKET);
-                if (isBucketDeleted == true) {
-                    mHandler.sendEmptyMessage(DELETE_BUCKET);
-                    return;
-                }
+            boolean isNotDeleted = deletedInfo.contains(DeletedInfo.NONE);
+            if (isNotDeleted == true) {
+                mHandler.sendEmptyMessage(FAIL_IMAGE_DELETION_FROM_DATABASE);
+            }
 
-                Message msg = mHandler.obtainMessage(UPDATE_PROGRESS_DIALOG);
-                String str = (i + 1) + " / " + size;
-                msg.obj = str;
-                mHandler.sendMessage(msg);
+            boolean isBucketDeleted = deletedInfo.contains(DeletedInfo.BUCKET);
+            if (isBucketDeleted == true) {
+                mHandler.sendEmptyMessage(DELETE_BUCKET);
+                return;
             }
 
+            Message msg = mHandler.obtainMessage(UPDATE_PROGRESS_DIALOG);
+            String str = size + " / " + size;
+            msg.obj = str;
+            mHandler.sendMessage(msg);
+
             boolean isImageDeleted = deletedInfo.contains(DeletedInfo.IMAGE);
             if (isImageDeleted == true) {
                 mGridInfo.deleteImageInfo();
@@ -482,6 +543,10 @@ public class ImageListActivity extends Activity {
                     intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
                     startActivity(intent);
                     break;
+                case UPDATE_PIPELINE_METRICS:
+                    mPipelineMetricsView.setText(PipelineMetrics.getInstance().getSummary());
+                    sendEmptyMessageDelayed(UPDATE_PIPELINE_METRICS, PIPELINE_METRICS_UPDATE_INTERVAL);
+                    return;
                 default:
             }
             mSurfaceView.requestRender();
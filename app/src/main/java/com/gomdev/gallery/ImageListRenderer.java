@@ -120,6 +120,8 @@ class ImageListRenderer implements GLSurfaceView.Renderer, GridInfoChangeListene
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         synchronized (GalleryContext.sLockObject) {
+            mSurfaceView.getTextureUploader().swapTextures();
+
             mViewManager.updateAnimation(mCurrentTime);
             mViewManager.update(mCurrentTime);
 
@@ -319,12 +321,16 @@ class ImageListRenderer implements GLSurfaceView.Renderer, GridInfoChangeListene
     // Listener
 
     void onImageSelected(ImageIndexingInfo imageIndexingInfo) {
-        ImageObject selectedObject = mAlbumViewManager.getImageObject(imageIndexingInfo);
+        synchronized (GalleryContext.sLockObject) {
+            // the image was tapped on the screen, so it is in the window
+            ImageObject selectedObject = mAlbumViewManager.getImageObject(imageIndexingInfo);
+            if (selectedObject == null) {
+                return;
+            }
 
-        GLESVertexInfo vertexInfo = selectedObject.getVertexInfo();
-        vertexInfo.getBuffer(mTextureCustomShader.getPositionAttribIndex());
+            GLESVertexInfo vertexInfo = selectedObject.getVertexInfo();
+            vertexInfo.getBuffer(mTextureCustomShader.getPositionAttribIndex());
 
-        synchronized (GalleryContext.sLockObject) {
             mViewManager = mDetailViewManager;
 
             mAlbumViewManager.cancelLoading();
@@ -357,6 +363,27 @@ class ImageListRenderer implements GLSurfaceView.Renderer, GridInfoChangeListene
         }
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted()");
+        }
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted()");
+        }
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        if (DEBUG) {
+            Log.d(TAG, "onDateLabelInserted()");
+        }
+    }
+
     // resume
 
     void onResume() {
@@ -377,6 +404,24 @@ class ImageListRenderer implements GLSurfaceView.Renderer, GridInfoChangeListene
 
         mAlbumViewManager.onPause();
         mDetailViewManager.onPause();
+
+        // queued before GLSurfaceView.onPause(), so it runs with the context current
+        mSurfaceView.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                TexturePool.getInstance().clear();
+            }
+        });
+    }
+
+    // called on the GL thread
+    void releaseTextures() {
+        if (DEBUG) {
+            Log.d(TAG, "releaseTextures()");
+        }
+
+        mAlbumViewManager.releaseTextures();
+        TexturePool.getInstance().clear();
     }
 
     // set / get
@@ -390,8 +435,9 @@ class ImageListRenderer implements GLSurfaceView.Renderer, GridInfoChangeListene
         mDetailViewManager.setSurfaceView(surfaceView);
     }
 
+    // called on the GL thread. the image shown in the detail view can be out of the window
     ImageObject getObjectFromAlbumView(ImageIndexingInfo imageIndexingInfo) {
-        return mAlbumViewManager.getImageObject(imageIndexingInfo);
+        return mAlbumViewManager.bindImageObject(imageIndexingInfo);
     }
 
     void adjustAlbumView(float translateY) {
@@ -412,9 +458,17 @@ class ImageListRenderer implements GLSurfaceView.Renderer, GridInfoChangeListene
             return;
         }
 
-        mAlbumViewManager.show();
-        mDetailViewManager.finish();
-        mSurfaceView.requestRender();
+        // the album object of the current image is bound on the GL thread
+        mSurfaceView.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GalleryContext.sLockObject) {
+                    mAlbumViewManager.show();
+                    mDetailViewManager.finish();
+                }
+                mSurfaceView.requestRender();
+            }
+        });
     }
 
     void onFinished(boolean isDetailViewFinished) {
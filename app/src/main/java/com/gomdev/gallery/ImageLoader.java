@@ -6,17 +6,38 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.drawable.BitmapDrawable;
+import android.opengl.ETC1Util;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
 import android.text.format.DateUtils;
+import android.util.DisplayMetrics;
 import android.util.Log;
 
+import com.gomdev.gallery.GalleryConfig.AlbumViewMode;
+import com.gomdev.gallery.GalleryConfig.ImageViewMode;
 import com.gomdev.gallery.GalleryConfig.SortBy;
+import com.gomdev.gallery.GalleryConfig.ThumbnailTier;
 
+import java.io.File;
 import java.io.FileDescriptor;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ImageLoader {
     static final String CLASS = "ImageLoader";
@@ -26,20 +47,47 @@ public class ImageLoader {
     private static final String DISK_CACHE_SUBDIR = "thumbnails";
     private static final long MS_TO_DAY_CONVERT_UNIT = 86400000l; // 24 * 60 * 60 * 1000;
 
-    private static final String BUCKET_GROUP_BY = "1) GROUP BY (1";
-
-    private static final String[] PROJECTION_BUCKET = {
-            MediaStore.Images.Media.BUCKET_ID,
-            MediaStore.Images.Media.BUCKET_DISPLAY_NAME};
-
     private static final String[] PROJECTION_IMAGE = {
             MediaStore.Images.Media._ID,
             MediaStore.Images.Media.DATE_TAKEN,
             MediaStore.Images.Media.DATA,
             MediaStore.Images.Media.ORIENTATION,
             MediaStore.Images.Media.BUCKET_ID,
+            MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
             MediaStore.Images.Media.WIDTH,
-            MediaStore.Images.Media.HEIGHT
+            MediaStore.Images.Media.HEIGHT,
+            MediaStore.Images.Media.DATE_MODIFIED
+    };
+
+    private static final String[] PROJECTION_WATERMARK = {
+            "COUNT(*)",
+            "MAX(" + MediaStore.Images.Media._ID + ")",
+            "MAX(" + MediaStore.Images.Media.DATE_MODIFIED + ")"
+    };
+
+    private static final String[] PROJECTION_SYNC = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.DATE_MODIFIED
+    };
+
+    // MediaStore wraps selection in parentheses, so this appends GROUP BY to the where clause
+    private static final String BUCKET_GROUP_BY = "1) GROUP BY (" + MediaStore.Images.Media.BUCKET_ID;
+
+    private static final Comparator<LoadingBucket> DESCENDING_BUCKET_ORDER = new Comparator<LoadingBucket>() {
+        @Override
+        public int compare(LoadingBucket lhs, LoadingBucket rhs) {
+            if (lhs.mCoverDateTaken == rhs.mCoverDateTaken) {
+                return 0;
+            }
+            return (lhs.mCoverDateTaken < rhs.mCoverDateTaken) ? 1 : -1;
+        }
+    };
+
+    private static final Comparator<LoadingBucket> ASCENDING_BUCKET_ORDER = new Comparator<LoadingBucket>() {
+        @Override
+        public int compare(LoadingBucket lhs, LoadingBucket rhs) {
+            return -DESCENDING_BUCKET_ORDER.compare(lhs, rhs);
+        }
     };
 
     private static ImageLoader sImageLoader = null;
@@ -57,11 +105,34 @@ public class ImageLoader {
 
     private ImageManager mImageManager = null;
     private ImageCache mImageCache = null;
+    private CacheBudgetManager mCacheBudgetManager = null;
+    private DecodeScheduler mDecodeScheduler = null;
+    private final PipelineMetrics mPipelineMetrics = PipelineMetrics.getInstance();
 
     private Bitmap mLoadingBitmap = null;
+    private int mScreenSize = 0;
     private String mOrderClause;
+    private int mSortBy = SortBy.DESCENDING.getIndex();
+    private boolean mIsDescending = true;
 
     private boolean mIsImageLoaded = false;
+    private boolean mIsImageLoading = false;
+
+    private File mSnapshotFile = null;
+    private volatile CatalogSnapshot mReconciledSnapshot = null;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private ImageSizeCache mImageSizeCache = null;
+    private ThreadPoolExecutor mProbeExecutor = null;
+
+    private long mMaxDateModified = 0L;
+    private boolean mIsSyncing = false;
+    private boolean mIsSyncPending = false;
+
+    // loads the catalog only, without caches. used by tests with a fake ContentProvider.
+    static ImageLoader newCatalogLoader(Context context, int sortBy) {
+        return new ImageLoader(context, sortBy);
+    }
 
     private ImageLoader(Context context) {
         mContext = context;
@@ -69,21 +140,55 @@ public class ImageLoader {
         init(context);
     }
 
+    private ImageLoader(Context context, int sortBy) {
+        mContext = context;
+
+        initCatalog(sortBy);
+    }
+
     private void init(Context context) {
         mImageManager = ImageManager.getInstance();
+        mDecodeScheduler = DecodeScheduler.getInstance();
+
+        mCacheBudgetManager = CacheBudgetManager.getInstance(context);
 
         ImageCache.ImageCacheParams params = new ImageCache.ImageCacheParams(mContext, DISK_CACHE_SUBDIR);
         params.mCompressFormat = Bitmap.CompressFormat.JPEG;
         params.mCompressQuality = 70;
 //        params.setMemCacheSizePercent(0.25f);
-        params.setMemCacheSize(15 * 1024);
+        params.setMemCacheSize(mCacheBudgetManager.getMemCacheSize(mImageManager.getNumOfImages()));
+        // one disk budget is split between DiskLruCache and the thumbnail store
+        int diskBudget = mCacheBudgetManager.getDiskBudget(params.mDiskCacheDir);
+        params.mDiskCacheSize = mCacheBudgetManager.getDiskCacheSize(diskBudget);
         params.mDiskCacheEnabled = true;
         params.mMemoryCacheEnabled = true;
+        params.mThumbnailStoreEnabled = true;
+        params.mThumbnailStoreSize = mCacheBudgetManager.getThumbnailStoreSize(diskBudget);
         mImageCache = ImageCache.getInstance(((Activity) context).getFragmentManager(), params);
+        mCacheBudgetManager.setImageCache(mImageCache);
 
         SharedPreferences pref = mContext.getSharedPreferences(GalleryConfig.PREF_NAME, 0);
         int sortBy = pref.getInt(GalleryConfig.PREF_SORT_BY, SortBy.DESCENDING.getIndex());
 
+        initCatalog(sortBy);
+    }
+
+    private void initCatalog(int sortBy) {
+        mSortBy = sortBy;
+        mIsDescending = (sortBy != SortBy.ASCENDING.getIndex());
+
+        // short side, so SCREEN thumbnails are same in both orientations
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        mScreenSize = Math.min(metrics.widthPixels, metrics.heightPixels);
+
+        mSnapshotFile = new File(mContext.getFilesDir(), CatalogSnapshot.FILE_NAME);
+        mImageSizeCache = new ImageSizeCache(new File(mContext.getFilesDir(), ImageSizeCache.FILE_NAME));
+
+        int numOfCores = Runtime.getRuntime().availableProcessors();
+        mProbeExecutor = new ThreadPoolExecutor(numOfCores, numOfCores,
+                1L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mProbeExecutor.allowCoreThreadTimeOut(true);
+
         if (sortBy == SortBy.DESCENDING.getIndex()) {
             mOrderClause = MediaStore.Images.ImageColumns.DATE_TAKEN + " DESC, "
                     + MediaStore.Images.ImageColumns._ID + " DESC";
@@ -95,159 +200,696 @@ public class ImageLoader {
         mIsImageLoaded = false;
     }
 
+    int getSortBy() {
+        return mSortBy;
+    }
+
     boolean isImageLoaded() {
         return mIsImageLoaded;
     }
 
-    void checkAndLoadImages() {
-        if (mIsImageLoaded == false) {
-            loadBucketInfos();
-            loadImageInfos();
+    // used by BucketListActivity on main thread. the snapshot or MediaStore is read
+    // in background and the catalog is published with onCatalogChanged().
+    synchronized void checkAndLoadImages() {
+        if (mIsImageLoaded == true) {
+            applyReconciledCatalog();
+            return;
+        }
+
+        if (mIsImageLoading == true) {
+            return;
         }
+
+        mIsImageLoading = true;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CatalogSnapshot snapshot = CatalogSnapshot.read(mSnapshotFile, mSortBy);
+                final boolean isFromSnapshot = (snapshot != null);
+                if (isFromSnapshot == false) {
+                    snapshot = loadImageInfos();
+                    if (snapshot != null) {
+                        snapshot.write(mSnapshotFile);
+                    }
+                }
+
+                final CatalogSnapshot loadedSnapshot = snapshot;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        completeLoading(loadedSnapshot, isFromSnapshot);
+                    }
+                });
+            }
+        }, "CatalogLoader").start();
     }
 
-    private void loadBucketInfos() {
-        if (DEBUG) {
-            Log.d(TAG, "loadBucketInfos()");
+    // ImageListActivity which is restored without BucketListActivity
+    // needs the catalog before its first frame, so it is loaded on the calling thread.
+    synchronized void loadImages() {
+        if (mIsImageLoaded == true) {
+            return;
         }
 
-        Cursor cursor = mContext.getContentResolver().query(
-                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, PROJECTION_BUCKET,
-                BUCKET_GROUP_BY, null, mOrderClause);
+        CatalogSnapshot snapshot = CatalogSnapshot.read(mSnapshotFile, mSortBy);
+        if (snapshot != null) {
+            if (DEBUG) {
+                Log.d(TAG, "loadImages() load from snapshot");
+            }
+
+            publishCatalog(snapshot);
+            reconcileCatalog(snapshot);
+        } else {
+            snapshot = loadImageInfos();
+            if (snapshot != null) {
+                publishCatalog(snapshot);
+                snapshot.write(mSnapshotFile);
+            }
+        }
+    }
+
+    private synchronized void completeLoading(CatalogSnapshot snapshot, boolean isFromSnapshot) {
+        mIsImageLoading = false;
+
+        // loadImages() was called while loading
+        if (mIsImageLoaded == true || snapshot == null) {
+            return;
+        }
+
+        publishCatalog(snapshot);
+        if (isFromSnapshot == true) {
+            reconcileCatalog(snapshot);
+        }
+
+        mImageManager.notifyCatalogChanged();
+    }
+
+    // used by MainActivity. returns as soon as bucket names and covers are published.
+    // images of each bucket are loaded in background and replace its placeholder
+    // one by one, so BucketListActivity doesn't wait for the whole library.
+    synchronized void loadImagesProgressively() {
+        if (mIsImageLoaded == true || mIsImageLoading == true) {
+            return;
+        }
+
+        CatalogSnapshot snapshot = CatalogSnapshot.read(mSnapshotFile, mSortBy);
+        if (snapshot != null) {
+            publishCatalog(snapshot);
+            reconcileCatalog(snapshot);
+            return;
+        }
+
+        if (loadBucketCovers() == false) {
+            loadImages();
+            return;
+        }
 
-        int numOfImages = cursor.getCount();
-        mImageManager.setNumOfImages(numOfImages);
+        mIsImageLoading = true;
 
-        Set<Integer> buckets = new HashSet<>();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final CatalogSnapshot snapshot = loadImageInfos(true);
+                if (snapshot != null) {
+                    snapshot.write(mSnapshotFile);
+                }
 
-        if (cursor.moveToFirst() == true) {
-            do {
-                int columnIndex = cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_ID);
-                int bucketID = cursor.getInt(columnIndex);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        completeProgressiveLoading(snapshot);
+                    }
+                });
+            }
+        }, "CatalogLoader").start();
+    }
 
-                columnIndex = cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_DISPLAY_NAME);
-                String bucketName = cursor.getString(columnIndex);
+    // publishes one placeholder per bucket which has only the cover image.
+    private boolean loadBucketCovers() {
+        String dateTaken = MediaStore.Images.Media.DATE_TAKEN;
+        String[] projection = {
+                MediaStore.Images.Media._ID,
+                (mIsDescending ? "MAX(" : "MIN(") + dateTaken + ") AS " + dateTaken,
+                MediaStore.Images.Media.DATA,
+                MediaStore.Images.Media.ORIENTATION,
+                MediaStore.Images.Media.BUCKET_ID,
+                MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
+                MediaStore.Images.Media.WIDTH,
+                MediaStore.Images.Media.HEIGHT,
+                MediaStore.Images.Media.DATE_MODIFIED,
+                "COUNT(*)"
+        };
+
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    projection,
+                    BUCKET_GROUP_BY, null, mOrderClause);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "loadBucketCovers() " + e.getMessage());
+        }
 
-                if (buckets.add(bucketID) == true) {
-                    BucketInfo bucketInfo = new BucketInfo(bucketID);
-                    bucketInfo.setName(bucketName);
-                    mImageManager.addBucketInfo(bucketInfo);
+        if (cursor == null) {
+            return false;
+        }
+
+        try {
+            ImageColumns columns = new ImageColumns(cursor);
+            final int countColumn = projection.length - 1;
+            final int flags = DateUtils.FORMAT_SHOW_YEAR;
+
+            int numOfImages = 0;
+            while (cursor.moveToNext()) {
+                ImageInfo imageInfo = createImageInfo(cursor, columns, true);
+                int numOfImagesInBucket = cursor.getInt(countColumn);
+
+                DateLabelInfo dateLabelInfo = new DateLabelInfo(
+                        DateUtils.formatDateTime(mContext, imageInfo.getDateTaken(), flags));
+                dateLabelInfo.add(imageInfo);
+
+                BucketInfo bucketInfo = new BucketInfo(cursor.getInt(columns.mBucketID));
+                bucketInfo.setName(cursor.getString(columns.mBucketName));
+                bucketInfo.add(dateLabelInfo);
+                bucketInfo.setPlaceholder(numOfImagesInBucket);
+
+                mImageManager.addBucketInfo(bucketInfo);
+                numOfImages += numOfImagesInBucket;
+            }
+
+            mImageManager.setNumOfImages(numOfImages);
+        } finally {
+            cursor.close();
+        }
+
+        return true;
+    }
+
+    private void publishBucketInfo(BucketInfo bucketInfo) {
+        synchronized (GalleryContext.sLockObject) {
+            mImageManager.replaceBucketInfo(bucketInfo);
+        }
+
+        mImageManager.notifyCatalogChanged();
+    }
+
+    private void completeProgressiveLoading(CatalogSnapshot snapshot) {
+        if (snapshot != null) {
+            // buckets added or removed while loading are reflected here.
+            synchronized (GalleryContext.sLockObject) {
+                mImageManager.setBucketInfos(snapshot.getBucketInfos(), snapshot.getNumOfImages());
+            }
+            mMaxDateModified = snapshot.getMaxDateModified();
+        }
+
+        mIsImageLoading = false;
+        mIsImageLoaded = true;
+
+        updateMemCacheSize();
+
+        mImageManager.notifyCatalogChanged();
+    }
 
+    // a small library doesn't need the whole budget
+    private void updateMemCacheSize() {
+        mImageCache.setMemCacheSize(mCacheBudgetManager.getMemCacheSize(mImageManager.getNumOfImages()));
+    }
+
+    private void publishCatalog(CatalogSnapshot snapshot) {
+        List<BucketInfo> bucketInfos = snapshot.getBucketInfos();
+        int size = bucketInfos.size();
+        for (int i = 0; i < size; i++) {
+            mImageManager.addBucketInfo(bucketInfos.get(i));
+        }
+
+        mImageManager.setNumOfImages(snapshot.getNumOfImages());
+        mMaxDateModified = snapshot.getMaxDateModified();
+
+        mIsImageLoaded = true;
+
+        updateMemCacheSize();
+    }
+
+    // replaces the catalog with the one reconciled in background.
+    // BucketListActivity calls this through checkAndLoadImages() so that
+    // no album view is holding the previous catalog.
+    private void applyReconciledCatalog() {
+        CatalogSnapshot snapshot = mReconciledSnapshot;
+        if (snapshot == null) {
+            return;
+        }
+
+        mReconciledSnapshot = null;
+
+        synchronized (GalleryContext.sLockObject) {
+            mImageManager.setBucketInfos(snapshot.getBucketInfos(), snapshot.getNumOfImages());
+        }
+
+        mMaxDateModified = snapshot.getMaxDateModified();
+    }
+
+    private void reconcileCatalog(final CatalogSnapshot snapshot) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCatalogUpToDate(snapshot) == true) {
                     if (DEBUG) {
-                        Log.d(TAG, "\t bucketName=" + bucketName);
+                        Log.d(TAG, "reconcileCatalog() snapshot is up to date");
                     }
+                    return;
+                }
+
+                CatalogSnapshot newSnapshot = loadImageInfos();
+                if (newSnapshot == null) {
+                    return;
                 }
-            } while (cursor.moveToNext());
+
+                newSnapshot.write(mSnapshotFile);
+                mReconciledSnapshot = newSnapshot;
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mImageManager.notifyCatalogChanged();
+                    }
+                });
+            }
+        }, "CatalogReconciler").start();
+    }
+
+    private boolean isCatalogUpToDate(CatalogSnapshot snapshot) {
+        Cursor cursor = mContext.getContentResolver().query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                PROJECTION_WATERMARK,
+                null, null, null);
+
+        if (cursor == null) {
+            return true;
         }
 
-        cursor.close();
+        try {
+            if (cursor.moveToFirst() == false) {
+                return true;
+            }
+
+            int numOfImages = cursor.getInt(0);
+            long maxImageID = cursor.getLong(1);
+            long maxDateModified = cursor.getLong(2);
+
+            return snapshot.isUpToDate(numOfImages, maxImageID, maxDateModified);
+        } finally {
+            cursor.close();
+        }
     }
 
-    private void loadImageInfos() {
-        int size = mImageManager.getNumOfBucketInfos();
-        for (int i = 0; i < size; i++) {
-            BucketInfo bucketInfo = mImageManager.getBucketInfo(i);
-            loadImageInfosFromBucketInfo(bucketInfo);
+    // incremental sync triggered by DataObserver. this should be called on main thread.
+    void syncCatalog() {
+        if (mIsImageLoaded == false) {
+            return;
+        }
+
+        if (mIsSyncing == true) {
+            mIsSyncPending = true;
+            return;
+        }
+
+        mIsSyncing = true;
+
+        final long maxDateModified = mMaxDateModified;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final CatalogDelta delta = computeCatalogDelta(maxDateModified);
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyCatalogDelta(delta);
+                    }
+                });
+            }
+        }, "CatalogSync").start();
+    }
+
+    private void applyCatalogDelta(final CatalogDelta delta) {
+        if (delta != null && delta.isEmpty() == false) {
+            // image indices in multi selection and detail view should not be shifted
+            GalleryContext galleryContext = GalleryContext.getInstance();
+            if (galleryContext.getImageViewMode() == ImageViewMode.DETAIL_VIEW_MODE ||
+                    galleryContext.getAlbumViewMode() == AlbumViewMode.MULTI_SELECTION_MODE) {
+                mHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyCatalogDelta(delta);
+                    }
+                }, GalleryConfig.CATALOG_SYNC_DELAY);
+                return;
+            }
+
+            synchronized (GalleryContext.sLockObject) {
+                mImageManager.applyCatalogDelta(delta);
+            }
+
+            mMaxDateModified = Math.max(mMaxDateModified, delta.getMaxDateModified());
+
+            mImageManager.notifyCatalogChanged();
+        }
+
+        mIsSyncing = false;
+
+        if (mIsSyncPending == true) {
+            mIsSyncPending = false;
+            syncCatalog();
         }
     }
 
-    void loadImageInfosFromBucketInfo(BucketInfo bucketInfo) {
+    // compares _ID and DATE_MODIFIED of MediaStore with the catalog.
+    // rows modified after the last sync are reported as deleted and inserted again.
+    private CatalogDelta computeCatalogDelta(long maxDateModified) {
+        long[] imageIDs;
+        synchronized (GalleryContext.sLockObject) {
+            imageIDs = mImageManager.getImageIDs();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                PROJECTION_SYNC,
+                null, null,
+                MediaStore.Images.Media._ID + " ASC");
+
+        if (cursor == null) {
+            return null;
+        }
+
+        CatalogDelta delta = new CatalogDelta(mIsDescending);
+        List<Long> queryIDs = new ArrayList<>();
+        long newMaxDateModified = maxDateModified;
+
+        try {
+            int index = 0;
+            while (cursor.moveToNext()) {
+                long imageID = cursor.getLong(0);
+                long dateModified = cursor.getLong(1);
+
+                if (dateModified > newMaxDateModified) {
+                    newMaxDateModified = dateModified;
+                }
+
+                while (index < imageIDs.length && imageIDs[index] < imageID) {
+                    delta.addDeletedImageID(imageIDs[index++]);
+                }
+
+                if (index < imageIDs.length && imageIDs[index] == imageID) {
+                    index++;
+
+                    if (dateModified > maxDateModified) {
+                        delta.addDeletedImageID(imageID);
+                        queryIDs.add(imageID);
+                    }
+                } else {
+                    queryIDs.add(imageID);
+                }
+            }
+
+            while (index < imageIDs.length) {
+                delta.addDeletedImageID(imageIDs[index++]);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        delta.setMaxDateModified(newMaxDateModified);
+
+        int size = queryIDs.size();
+        final int maxNumOfIDs = GalleryConfig.MAX_NUM_OF_IDS_IN_QUERY;
+        for (int i = 0; i < size; i += maxNumOfIDs) {
+            loadInsertions(delta, queryIDs.subList(i, Math.min(i + maxNumOfIDs, size)));
+        }
+
         if (DEBUG) {
-            Log.d(TAG, "loadImageInfosFromBucketInfo() bucketName=" + bucketInfo.getName());
+            Log.d(TAG, "computeCatalogDelta() deleted=" + delta.getDeletedImageIDs().size()
+                    + " inserted=" + delta.getInsertions().size());
         }
 
-        int bucketID = bucketInfo.getID();
+        return delta;
+    }
 
+    private void loadInsertions(CatalogDelta delta, List<Long> imageIDs) {
         Cursor cursor = mContext.getContentResolver().query(
                 MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
                 PROJECTION_IMAGE,
-                MediaStore.Images.Media.BUCKET_ID + " = ? ",
-                new String[]{String.valueOf(bucketID)
-                },
-                mOrderClause);
+                GalleryUtils.makeImageIDSelection(imageIDs), null, null);
 
-        long prevDateTaken = 0l;
-        DateLabelInfo dateLabelInfo = null;
-        if (cursor.moveToFirst() == true) {
-            do {
-                int columnIndex = cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.Media._ID);
-                long imageID = cursor.getLong(columnIndex);
+        if (cursor == null) {
+            return;
+        }
 
-                columnIndex = cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-                String imagePath = cursor.getString(columnIndex);
+        try {
+            ImageColumns columns = new ImageColumns(cursor);
+            final int flags = DateUtils.FORMAT_SHOW_YEAR;
 
-                columnIndex = cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.Media.ORIENTATION);
-                int orientation = cursor.getInt(columnIndex);
+            while (cursor.moveToNext()) {
+                ImageInfo imageInfo = createImageInfo(cursor, columns, true);
+                String date = DateUtils.formatDateTime(mContext, imageInfo.getDateTaken(), flags);
 
-                columnIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_TAKEN);
-                long dateTakenInMs = cursor.getLong(columnIndex);
+                delta.addInsertion(cursor.getInt(columns.mBucketID),
+                        cursor.getString(columns.mBucketName),
+                        date, imageInfo);
+            }
+        } finally {
+            cursor.close();
+        }
 
-                columnIndex = cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.Media.WIDTH);
-                int width = cursor.getInt(columnIndex);
+        mImageSizeCache.save();
+    }
 
-                columnIndex = cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.Media.HEIGHT);
-                int height = cursor.getInt(columnIndex);
+    private CatalogSnapshot loadImageInfos() {
+        return loadImageInfos(false);
+    }
 
-                ImageInfo imageInfo = new ImageInfo(imageID, orientation);
-                imageInfo.setImagePath(imagePath);
+    CatalogSnapshot loadImageInfos(boolean publishEachBucket) {
+        if (DEBUG) {
+            Log.d(TAG, "loadImageInfos() publishEachBucket=" + publishEachBucket);
+        }
 
-                if (width <= 0 || height <= 0) {
-                    setImageSize(imageInfo);
-                } else {
-                    imageInfo.setWidth(width);
-                    imageInfo.setHeight(height);
+        Cursor cursor = mContext.getContentResolver().query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                PROJECTION_IMAGE,
+                null, null,
+                MediaStore.Images.Media.BUCKET_ID + " ASC, " + mOrderClause);
 
-                    adjustWidthAndHeight(imageInfo);
-                }
+        if (cursor == null) {
+            return null;
+        }
 
-                int flags = DateUtils.FORMAT_SHOW_YEAR;
-                String date = DateUtils.formatDateTime(mContext, dateTakenInMs, flags);
+        try {
+            return loadImageInfos(cursor, publishEachBucket);
+        } finally {
+            cursor.close();
+        }
+    }
 
-                dateTakenInMs /= MS_TO_DAY_CONVERT_UNIT;
+    // builds BucketInfo / DateLabelInfo / ImageInfo in a single pass.
+    // cursor should be ordered by BUCKET_ID and then by mOrderClause.
+    // if publishEachBucket is true, each bucket is posted to main thread as soon as it is complete.
+    CatalogSnapshot loadImageInfos(Cursor cursor, boolean publishEachBucket) {
+        CatalogSnapshot snapshot = new CatalogSnapshot(mSortBy);
+        snapshot.setNumOfImages(cursor.getCount());
 
-                if (prevDateTaken != dateTakenInMs) {
-                    dateLabelInfo = new DateLabelInfo(date);
-                    dateLabelInfo.add(imageInfo);
-                    bucketInfo.add(dateLabelInfo);
+        if (cursor.moveToFirst() == false) {
+            return snapshot;
+        }
 
-                    if (DEBUG) {
-                        Log.d(TAG, "\t dateLabel " + dateLabelInfo.getDate());
-                    }
-                } else {
-                    dateLabelInfo.add(imageInfo);
+        ImageColumns columns = new ImageColumns(cursor);
 
-                    if (DEBUG) {
-                        Log.d(TAG, "\t\t imageInfo width=" + imageInfo.getWidth() + " height=" + imageInfo.getHeight() + " path=" + imageInfo.getImagePath());
+        final int flags = DateUtils.FORMAT_SHOW_YEAR;
+
+        List<LoadingBucket> loadingBuckets = new ArrayList<>();
+        List<SizeProbe> sizeProbes = new ArrayList<>();
+        LoadingBucket loadingBucket = null;
+        DateLabelInfo dateLabelInfo = null;
+        long prevDay = 0L;
+
+        do {
+            int bucketID = cursor.getInt(columns.mBucketID);
+            long dateTakenInMs = cursor.getLong(columns.mDateTaken);
+
+            if (loadingBucket == null || loadingBucket.mBucketInfo.getID() != bucketID) {
+                if (loadingBucket != null) {
+                    probeImageSizes(sizeProbes);
+                    loadingBucket.mBucketInfo.trimToSize();
+
+                    if (publishEachBucket == true) {
+                        postBucketInfo(loadingBucket.mBucketInfo);
                     }
                 }
 
-                prevDateTaken = dateTakenInMs;
-            } while (cursor.moveToNext());
+                BucketInfo bucketInfo = new BucketInfo(bucketID);
+                bucketInfo.setName(cursor.getString(columns.mBucketName));
+
+                loadingBucket = new LoadingBucket(bucketInfo, dateTakenInMs);
+                loadingBuckets.add(loadingBucket);
+
+                dateLabelInfo = null;
+
+                if (DEBUG) {
+                    Log.d(TAG, "\t bucketName=" + bucketInfo.getName());
+                }
+            }
+
+            ImageInfo imageInfo = createImageInfo(cursor, columns, false);
+            snapshot.updateWatermark(imageInfo.getImageID(), cursor.getLong(columns.mDateModified));
+
+            long day = getDay(dateTakenInMs);
+            if (dateLabelInfo == null || prevDay != day) {
+                String date = DateUtils.formatDateTime(mContext, dateTakenInMs, flags);
+                dateLabelInfo = new DateLabelInfo(date);
+                loadingBucket.mBucketInfo.add(dateLabelInfo);
+
+                if (DEBUG) {
+                    Log.d(TAG, "\t dateLabel " + dateLabelInfo.getDate());
+                }
+            }
+
+            dateLabelInfo.add(imageInfo);
+
+            if (imageInfo.getWidth() <= 0 || imageInfo.getHeight() <= 0) {
+                sizeProbes.add(new SizeProbe(dateLabelInfo, imageInfo,
+                        cursor.getLong(columns.mDateModified)));
+            }
+
+            prevDay = day;
+        } while (cursor.moveToNext());
+
+        probeImageSizes(sizeProbes);
+        loadingBucket.mBucketInfo.trimToSize();
+
+        mImageSizeCache.save();
+
+        if (publishEachBucket == true) {
+            postBucketInfo(loadingBucket.mBucketInfo);
         }
 
-        cursor.close();
+        // bucket order follows the cover image of each bucket
+        Collections.sort(loadingBuckets, mIsDescending ? DESCENDING_BUCKET_ORDER : ASCENDING_BUCKET_ORDER);
 
-        mIsImageLoaded = true;
+        List<BucketInfo> bucketInfos = snapshot.getBucketInfos();
+        int size = loadingBuckets.size();
+        for (int i = 0; i < size; i++) {
+            bucketInfos.add(loadingBuckets.get(i).mBucketInfo);
+        }
+
+        return snapshot;
     }
 
-    private static void setImageSize(ImageInfo imageInfo) {
-        String path = imageInfo.getImagePath();
+    private void postBucketInfo(final BucketInfo bucketInfo) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                publishBucketInfo(bucketInfo);
+            }
+        });
+    }
 
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path, options);
+    static long getDay(long dateTakenInMs) {
+        return dateTakenInMs / MS_TO_DAY_CONVERT_UNIT;
+    }
+
+    // if probeSize is false, size unknown to MediaStore is left as 0 and
+    // should be probed later by probeImageSizes().
+    private ImageInfo createImageInfo(Cursor cursor, ImageColumns columns, boolean probeSize) {
+        String path = cursor.getString(columns.mData);
+        int orientation = cursor.getInt(columns.mOrientation);
+        int width = cursor.getInt(columns.mWidth);
+        int height = cursor.getInt(columns.mHeight);
+
+        if ((width <= 0 || height <= 0) && probeSize == true) {
+            int[] result = new int[ImageHeaderParser.RESULT_SIZE];
+            probeImageSize(path, cursor.getLong(columns.mDateModified), result);
+
+            width = result[ImageHeaderParser.WIDTH];
+            height = result[ImageHeaderParser.HEIGHT];
+            if (orientation == 0) {
+                orientation = result[ImageHeaderParser.ORIENTATION];
+            }
+        }
 
-        imageInfo.setWidth(options.outWidth);
-        imageInfo.setHeight(options.outHeight);
+        ImageInfo imageInfo = new ImageInfo(cursor.getLong(columns.mID), orientation);
+        imageInfo.setImagePath(path);
+        imageInfo.setDateTaken(cursor.getLong(columns.mDateTaken));
+        imageInfo.setWidth(Math.max(width, 0));
+        imageInfo.setHeight(Math.max(height, 0));
 
         adjustWidthAndHeight(imageInfo);
+
+        return imageInfo;
+    }
+
+    // result : width, height and orientation as ImageHeaderParser. safe to call on any thread.
+    private void probeImageSize(String path, long dateModified, int[] result) {
+        if (path == null) {
+            return;
+        }
+
+        if (mImageSizeCache.get(path, dateModified, result) == true) {
+            return;
+        }
+
+        if (ImageHeaderParser.parse(path, result) == false) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+
+            result[ImageHeaderParser.WIDTH] = options.outWidth;
+            result[ImageHeaderParser.HEIGHT] = options.outHeight;
+            result[ImageHeaderParser.ORIENTATION] = 0;
+        }
+
+        mImageSizeCache.put(path, dateModified, result);
+    }
+
+    // probes are run in parallel and written into the date labels on the calling thread.
+    private void probeImageSizes(final List<SizeProbe> sizeProbes) {
+        final int size = sizeProbes.size();
+        if (size == 0) {
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger(0);
+        Callable<Void> worker = new Callable<Void>() {
+            @Override
+            public Void call() {
+                int index;
+                while ((index = next.getAndIncrement()) < size) {
+                    SizeProbe sizeProbe = sizeProbes.get(index);
+                    probeImageSize(sizeProbe.mPath, sizeProbe.mDateModified, sizeProbe.mResult);
+                }
+                return null;
+            }
+        };
+
+        int numOfWorkers = Math.min(size, mProbeExecutor.getMaximumPoolSize());
+        List<Callable<Void>> workers = new ArrayList<>(numOfWorkers);
+        for (int i = 0; i < numOfWorkers; i++) {
+            workers.add(worker);
+        }
+
+        try {
+            mProbeExecutor.invokeAll(workers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (int i = 0; i < size; i++) {
+            sizeProbes.get(i).apply();
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "probeImageSizes() size=" + size);
+        }
+
+        sizeProbes.clear();
     }
 
     private static void adjustWidthAndHeight(ImageInfo imageInfo) {
@@ -264,30 +906,79 @@ public class ImageLoader {
     }
 
     <T extends BitmapContainer> void loadThumbnail(ImageInfo imageInfo, T container) {
-        final String imageKey = String.valueOf(imageInfo.getImageID());
-        final BitmapDrawable value = mImageCache.getBitmapFromMemCache(imageKey);
+        loadThumbnail(imageInfo, container, ThumbnailTier.MINI);
+    }
+
+    <T extends BitmapContainer> void loadThumbnail(ImageInfo imageInfo, T container,
+                                                   ThumbnailTier tier) {
+        long requestTime = PipelineMetrics.now();
+        final BitmapDrawable value = mImageCache.getBitmapFromMemCache(imageInfo.getImageID(), tier);
 
         if (value != null) {
             container.setBitmapDrawable(value);
+            mPipelineMetrics.recordSource(PipelineMetrics.Source.MEMORY, PipelineMetrics.now() - requestTime);
             if (DEBUG) {
                 Log.d(TAG, "Memory cache hit " + imageInfo.getImagePath());
             }
         } else {
             if (BitmapWorker.cancelPotentialWork(imageInfo, container) && container != null) {
-                final BitmapLoaderTask<T> task = new BitmapLoaderTask<>(container);
+                final BitmapLoaderTask<T> task = new BitmapLoaderTask<>(container, tier);
                 final AsyncDrawable asyncDrawable =
                         new AsyncDrawable(mContext.getResources(),
                                 mLoadingBitmap, task);
                 container.setBitmapDrawable(asyncDrawable);
 
-                task.execute(imageInfo);
+                mDecodeScheduler.execute(task, imageInfo);
             }
         }
     }
 
+    // compressed texture from the disk cache, or null.
+    // it is encoded by DiskCacheWriter, so the first display uploads the bitmap.
+    private ETC1Util.ETC1Texture getCompressedTexture(long imageID, Bitmap bitmap) {
+        ETC1Util.ETC1Texture compressedTexture = mImageCache.getCompressedTextureFromDiskCache(imageID);
+        if (compressedTexture != null &&
+                compressedTexture.getWidth() == bitmap.getWidth() &&
+                compressedTexture.getHeight() == bitmap.getHeight()) {
+            return compressedTexture;
+        }
+
+        return null;
+    }
+
+    static ETC1Util.ETC1Texture encodeCompressedTexture(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        ByteBuffer data = ByteBuffer.allocateDirect(Etc1Encoder.getEncodedSize(width, height))
+                .order(ByteOrder.nativeOrder());
+
+        // a row of blocks at a time
+        int[] rows = new int[width * 4];
+        for (int y = 0; y < height; y += 4) {
+            int numOfRows = Math.min(4, height - y);
+            bitmap.getPixels(rows, 0, width, 0, y, width, numOfRows);
+            Etc1Encoder.encodeBlockRow(rows, width, numOfRows, data);
+        }
+        data.position(0);
+
+        return new ETC1Util.ETC1Texture(width, height, data);
+    }
+
+    // frees slots of deleted images in the thumbnail store
+    void removeThumbnails(List<ImageInfo> imageInfos) {
+        for (ImageInfo imageInfo : imageInfos) {
+            mImageCache.removeFromThumbnailStore(imageInfo.getImageID());
+        }
+    }
+
+    boolean isThumbnailInMemCache(ImageInfo imageInfo, ThumbnailTier tier) {
+        return mImageCache.getBitmapFromMemCache(imageInfo.getImageID(), tier) != null;
+    }
+
     <T extends BitmapContainer> boolean loadThumbnailFromMemCache(ImageInfo imageInfo, T container) {
-        final String imageKey = String.valueOf(imageInfo.getImageID());
-        final BitmapDrawable value = mImageCache.getBitmapFromMemCache(imageKey);
+        final BitmapDrawable value = mImageCache.getBitmapFromMemCache(imageInfo.getImageID(),
+                ThumbnailTier.MINI);
 
         if (value != null) {
             container.setBitmapDrawable(value);
@@ -305,12 +996,14 @@ public class ImageLoader {
                     new AsyncDrawable(mContext.getResources(),
                             mLoadingBitmap, task);
             container.setBitmapDrawable(asyncDrawable);
-            task.execute(imageInfo);
+            mDecodeScheduler.execute(task, imageInfo);
         }
     }
 
+    // options can be canceled by BitmapFactory.Options.requestCancelDecode()
     Bitmap getBitmap(ImageInfo imageInfo, int requestWidth,
-                     int requestHeight, boolean forcePortrait) {
+                     int requestHeight, boolean forcePortrait,
+                     BitmapFactory.Options options) {
         int orientation = imageInfo.getOrientation();
         if (orientation == 90 || orientation == 270) {
             int temp = requestWidth;
@@ -319,10 +1012,15 @@ public class ImageLoader {
         }
 
         Bitmap bitmap = decodeSampledBitmap(imageInfo, requestWidth,
-                requestHeight);
+                requestHeight, options);
 //        Bitmap bitmap = decodeSampledBitmapFromFile(imageInfo,
 //                requestWidth, requestHeight, mImageCache);
 
+        if (options.mCancel == true) {
+            BitmapPool.getInstance().put(bitmap);
+            return null;
+        }
+
         if (forcePortrait == true && orientation != 0) {
             bitmap = rotate(bitmap, orientation);
         }
@@ -330,31 +1028,49 @@ public class ImageLoader {
         return bitmap;
     }
 
+    // the source is drawn into a pooled bitmap and goes back to the pool,
+    // so rotated thumbnails don't allocate. degrees is 90, 180 or 270.
     private static Bitmap rotate(Bitmap b, int degrees) {
-        if (degrees != 0 && b != null) {
-            Matrix m = new Matrix();
-            m.setRotate(degrees,
-                    (float) b.getWidth() / 2, (float) b.getHeight() / 2);
+        if (degrees == 0 || b == null) {
+            return b;
+        }
+
+        int width = b.getWidth();
+        int height = b.getHeight();
+        boolean isSwapped = (degrees == 90 || degrees == 270);
+        int rotatedWidth = isSwapped ? height : width;
+        int rotatedHeight = isSwapped ? width : height;
+        Bitmap.Config config = (b.getConfig() != null) ? b.getConfig() : Bitmap.Config.ARGB_8888;
+
+        BitmapPool bitmapPool = BitmapPool.getInstance();
+        Bitmap rotated = bitmapPool.get(rotatedWidth, rotatedHeight, config);
+        if (rotated == null) {
             try {
-                Bitmap b2 = Bitmap.createBitmap(
-                        b, 0, 0, b.getWidth(), b.getHeight(), m, true);
-                if (b != b2) {
-                    b.recycle();
-                    b = b2;
-                }
+                rotated = Bitmap.createBitmap(rotatedWidth, rotatedHeight, config);
             } catch (OutOfMemoryError ex) {
                 // We have no memory to rotate. Return the original bitmap.
+                return b;
             }
         }
-        return b;
+
+        // every pixel of rotated is drawn, so a pooled bitmap needs no clearing
+        Matrix m = new Matrix();
+        m.setRotate(degrees, (float) width / 2, (float) height / 2);
+        m.postTranslate((float) (rotatedWidth - width) / 2, (float) (rotatedHeight - height) / 2);
+
+        rotated.setHasAlpha(b.hasAlpha());
+        Canvas canvas = new Canvas(rotated);
+        canvas.drawBitmap(b, m, null);
+        canvas.setBitmap(null);
+
+        bitmapPool.put(b);
+
+        return rotated;
     }
 
     private static Bitmap decodeSampledBitmapFromFile(ImageInfo imageInfo,
                                                       int reqWidth, int reqHeight,
-                                                      ImageCache cache) {
-
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-
+                                                      BitmapFactory.Options options) {
         int width = imageInfo.getWidth();
         int height = imageInfo.getHeight();
         options.inSampleSize = calculateInSampleSize(width, height, reqWidth,
@@ -364,18 +1080,17 @@ public class ImageLoader {
         options.outHeight = height;
 
         String path = imageInfo.getImagePath();
-        return BitmapFactory.decodeFile(path, options);
+        return decodeFile(path, options, imageInfo);
     }
 
-    private static Bitmap decodeSampledBitmap(ImageInfo imageInfo, int reqWidth, int reqHeight) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-
+    private static Bitmap decodeSampledBitmap(ImageInfo imageInfo, int reqWidth, int reqHeight,
+                                              BitmapFactory.Options options) {
         int width = imageInfo.getWidth();
         int height = imageInfo.getHeight();
         options.inSampleSize = calculateInSampleSize(width, height, reqWidth, reqHeight);
 
         String path = imageInfo.getImagePath();
-        return BitmapFactory.decodeFile(path, options);
+        return decodeFile(path, options, imageInfo);
     }
 
     static Bitmap decodeSampledBitmapFromDescriptor(ImageInfo imageInfo,
@@ -391,24 +1106,61 @@ public class ImageLoader {
                 .decodeFileDescriptor(fileDescriptor, null, options);
     }
 
-    static Bitmap decodeSampledBitmapFromDescriptor(
-            ImageInfo imageInfo,
-            FileDescriptor fileDescriptor,
-            int reqWidth, int reqHeight,
-            ImageCache cache) {
+    // decodes a thumbnail of disk cache without sampling.
+    // bounds are read first so that a pooled bitmap of the same size can be reused.
+    static Bitmap decodeBitmapFromStream(FileInputStream inputStream) throws IOException {
+        FileDescriptor fileDescriptor = inputStream.getFD();
 
         final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        inputStream.getChannel().position(0);
+
+        options.inJustDecodeBounds = false;
+        boolean useInBitmap = BitmapPool.getInstance().setInBitmap(options, options.outWidth, options.outHeight);
+        try {
+            return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        } catch (IllegalArgumentException e) {
+            if (useInBitmap == false) {
+                throw e;
+            }
+
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            inputStream.getChannel().position(0);
+            return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        }
+    }
 
+    // decodes with a pooled bitmap if there is one for the decoded size.
+    private static Bitmap decodeFile(String path, BitmapFactory.Options options, ImageInfo imageInfo) {
+        // width and height of ImageInfo are already rotated by orientation
         int width = imageInfo.getWidth();
         int height = imageInfo.getHeight();
-        options.inSampleSize = calculateInSampleSize(width, height, reqWidth,
-                reqHeight);
+        int orientation = imageInfo.getOrientation();
+        if (orientation == 90 || orientation == 270) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
 
-        options.outWidth = width;
-        options.outHeight = height;
+        int sampleSize = Math.max(options.inSampleSize, 1);
+        int decodedWidth = (width + sampleSize - 1) / sampleSize;
+        int decodedHeight = (height + sampleSize - 1) / sampleSize;
 
-        return BitmapFactory
-                .decodeFileDescriptor(fileDescriptor, null, options);
+        boolean useInBitmap = BitmapPool.getInstance().setInBitmap(options, decodedWidth, decodedHeight);
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            if (useInBitmap == false) {
+                throw e;
+            }
+
+            // size in MediaStore may be different from the file
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(path, options);
+        }
     }
 
     private static int calculateInSampleSize(
@@ -432,16 +1184,91 @@ public class ImageLoader {
         return inSampleSize;
     }
 
+    // column indices of PROJECTION_IMAGE
+    private static class ImageColumns {
+        final int mID;
+        final int mDateTaken;
+        final int mData;
+        final int mOrientation;
+        final int mBucketID;
+        final int mBucketName;
+        final int mWidth;
+        final int mHeight;
+        final int mDateModified;
+
+        ImageColumns(Cursor cursor) {
+            mID = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+            mDateTaken = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_TAKEN);
+            mData = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
+            mOrientation = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.ORIENTATION);
+            mBucketID = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_ID);
+            mBucketName = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_DISPLAY_NAME);
+            mWidth = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.WIDTH);
+            mHeight = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.HEIGHT);
+            mDateModified = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_MODIFIED);
+        }
+    }
+
+    private static class SizeProbe {
+        final DateLabelInfo mDateLabelInfo;
+        final int mIndex;
+        final String mPath;
+        final long mDateModified;
+        final int mOrientation;
+        final int[] mResult = new int[ImageHeaderParser.RESULT_SIZE];
+
+        SizeProbe(DateLabelInfo dateLabelInfo, ImageInfo imageInfo, long dateModified) {
+            mDateLabelInfo = dateLabelInfo;
+            mIndex = imageInfo.getIndex();
+            mPath = imageInfo.getImagePath();
+            mDateModified = dateModified;
+            mOrientation = imageInfo.getOrientation();
+        }
+
+        void apply() {
+            int orientation = (mOrientation == 0) ? mResult[ImageHeaderParser.ORIENTATION] : mOrientation;
+            int width = Math.max(mResult[ImageHeaderParser.WIDTH], 0);
+            int height = Math.max(mResult[ImageHeaderParser.HEIGHT], 0);
+            if (orientation == 90 || orientation == 270) {
+                int temp = width;
+                width = height;
+                height = temp;
+            }
+
+            mDateLabelInfo.getImageInfoStore().setImageSize(mIndex, width, height, orientation);
+        }
+    }
+
+    private static class LoadingBucket {
+        final BucketInfo mBucketInfo;
+        final long mCoverDateTaken;
+
+        LoadingBucket(BucketInfo bucketInfo, long coverDateTaken) {
+            mBucketInfo = bucketInfo;
+            mCoverDateTaken = coverDateTaken;
+        }
+    }
+
     class BitmapLoaderTask<T extends BitmapContainer> extends BitmapWorker.BitmapWorkerTask<T> {
 
         private boolean mNeedThumbnail = true;
+        private ThumbnailTier mThumbnailTier = ThumbnailTier.MINI;
+
+        // decode in progress, stopped by cancelDecode()
+        private volatile BitmapFactory.Options mDecodeOptions = null;
+        private volatile long mThumbnailRequestID = -1L;
 
         private int mRequestWidth = 0;
         private int mRequestHeight = 0;
 
-        BitmapLoaderTask(T container) {
+        // us, for PipelineMetrics
+        private final long mRequestTime = PipelineMetrics.now();
+        private PipelineMetrics.Source mSource = null;
+
+        BitmapLoaderTask(T container, ThumbnailTier tier) {
             super(container);
             mNeedThumbnail = true;
+            mThumbnailTier = tier;
         }
 
         BitmapLoaderTask(T container, int requestWidth,
@@ -453,52 +1280,189 @@ public class ImageLoader {
             mRequestHeight = requestHeight;
         }
 
+        @Override
+        void cancelDecode() {
+            BitmapFactory.Options options = mDecodeOptions;
+            if (options != null) {
+                options.requestCancelDecode();
+            }
+
+            long imageID = mThumbnailRequestID;
+            if (imageID >= 0L) {
+                MediaStore.Images.Thumbnails.cancelThumbnailRequest(
+                        mContext.getContentResolver(), imageID);
+            }
+        }
+
         // Decode image in background.
         @Override
         protected BitmapDrawable doInBackground(GalleryInfo... params) {
             mGalleryInfo = params[0];
             ImageInfo imageInfo = (ImageInfo) params[0];
 
+            long startTime = PipelineMetrics.now();
+            mPipelineMetrics.recordStage(PipelineMetrics.Stage.QUEUE_WAIT, startTime - mRequestTime);
+
             if (isCancelled() == true) {
                 return null;
             }
 
-            ImageLoader mImageLoader = ImageLoader.getInstance();
+            BitmapDrawable value = null;
+            try {
+                value = decode(imageInfo);
+            } finally {
+                if (isCancelled() == true) {
+                    mPipelineMetrics.onDecodeCanceled(PipelineMetrics.now() - startTime, value == null);
+                } else if (mSource != null) {
+                    mPipelineMetrics.recordSource(mSource, PipelineMetrics.now() - mRequestTime);
+                }
+            }
+
+            return value;
+        }
+
+        // cancellation is checked between the stages, and a bitmap of canceled one goes to BitmapPool
+        private BitmapDrawable decode(ImageInfo imageInfo) {
             Bitmap bitmap;
             BitmapDrawable value;
             if (mNeedThumbnail == true) {
 
-                bitmap = mImageCache.getBitmapFromDiskCache(imageInfo);
-                if (bitmap == null && isCancelled() == false) {
-                    long imageID = imageInfo.getImageID();
-                    bitmap = MediaStore.Images.Thumbnails.getThumbnail(
-                            mContext.getContentResolver(), imageID,
-                            MediaStore.Images.Thumbnails.MINI_KIND, null);
-                    if (bitmap == null) {
-                        bitmap = decodeSampledBitmapFromFile(imageInfo, 512, 512, mImageCache);
-                    }
+                long startTime = PipelineMetrics.now();
+                bitmap = mImageCache.getBitmapFromDiskCache(imageInfo, mThumbnailTier);
+                mPipelineMetrics.recordStage(PipelineMetrics.Stage.DISK_READ, PipelineMetrics.now() - startTime);
 
-                    bitmap = rotate(bitmap, imageInfo.getOrientation());
-                } else {
+                if (bitmap != null) {
+                    mSource = PipelineMetrics.Source.DISK;
                     if (DEBUG) {
                         Log.d(TAG, "Disk cache hit " + imageInfo.getImagePath());
                     }
+                } else if (isCancelled() == false) {
+                    bitmap = decodeThumbnail(imageInfo, mThumbnailTier);
                 }
 
-                value = new RecyclingBitmapDrawable(mContext.getResources(), bitmap);
+                if (isCancelled() == true) {
+                    BitmapPool.getInstance().put(bitmap);
+                    return null;
+                }
+
+                RecyclingBitmapDrawable drawable = new RecyclingBitmapDrawable(mContext.getResources(), bitmap);
 
                 if (bitmap != null) {
-                    String imageKey = String.valueOf(imageInfo.getImageID());
-                    mImageCache.addBitmapToCache(imageKey, value);
+                    // compressed texture is kept in the thumbnail store with MINI
+                    if (GalleryConfig.USE_COMPRESSED_THUMBNAIL_TEXTURE == true &&
+                            mThumbnailTier == ThumbnailTier.MINI &&
+                            bitmap.hasAlpha() == false && isCancelled() == false) {
+                        long compressStartTime = PipelineMetrics.now();
+                        drawable.setCompressedTexture(getCompressedTexture(imageInfo.getImageID(), bitmap));
+                        mPipelineMetrics.recordStage(PipelineMetrics.Stage.COMPRESSED_TEXTURE,
+                                PipelineMetrics.now() - compressStartTime);
+                    }
+
+                    if (isCancelled() == true) {
+                        BitmapPool.getInstance().put(bitmap);
+                        return null;
+                    }
+
+                    mImageCache.addBitmapToCache(imageInfo.getImageID(), mThumbnailTier, drawable);
                 }
+
+                value = drawable;
             } else {
-                bitmap = mImageLoader.getBitmap(imageInfo, mRequestWidth,
-                        mRequestHeight, true);
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                mDecodeOptions = options;
+                try {
+                    if (isCancelled() == true) {
+                        return null;
+                    }
+
+                    bitmap = getBitmap(imageInfo, mRequestWidth,
+                            mRequestHeight, true, options);
+                } finally {
+                    mDecodeOptions = null;
+                }
+
+                if (bitmap == null && isCancelled() == true) {
+                    return null;
+                }
 
                 value = new BitmapDrawable(mContext.getResources(), bitmap);
             }
 
             return value;
         }
+
+        private Bitmap decodeThumbnail(ImageInfo imageInfo, ThumbnailTier tier) {
+            Bitmap bitmap = null;
+            int size = 0;
+
+            long startTime = PipelineMetrics.now();
+            switch (tier) {
+                case MICRO:
+                    bitmap = getThumbnail(imageInfo.getImageID(), MediaStore.Images.Thumbnails.MICRO_KIND);
+                    size = 96;
+                    break;
+                case MINI:
+                    bitmap = getThumbnail(imageInfo.getImageID(), MediaStore.Images.Thumbnails.MINI_KIND);
+                    size = 512;
+                    break;
+                case SCREEN:
+                    size = mScreenSize;
+                    break;
+            }
+
+            if (tier != ThumbnailTier.SCREEN) {
+                mPipelineMetrics.recordStage(PipelineMetrics.Stage.MEDIA_STORE_THUMBNAIL,
+                        PipelineMetrics.now() - startTime);
+            }
+
+            if (bitmap != null) {
+                mSource = PipelineMetrics.Source.MEDIA_STORE;
+            } else if (isCancelled() == false) {
+                mSource = PipelineMetrics.Source.FILE;
+
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                mDecodeOptions = options;
+                try {
+                    if (isCancelled() == false) {
+                        startTime = PipelineMetrics.now();
+                        bitmap = decodeSampledBitmapFromFile(imageInfo, size, size, options);
+                        mPipelineMetrics.recordStage(PipelineMetrics.Stage.FILE_DECODE,
+                                PipelineMetrics.now() - startTime);
+                    }
+                } finally {
+                    mDecodeOptions = null;
+                }
+            }
+
+            if (isCancelled() == true) {
+                BitmapPool.getInstance().put(bitmap);
+                return null;
+            }
+
+            if (bitmap == null || imageInfo.getOrientation() == 0) {
+                return bitmap;
+            }
+
+            startTime = PipelineMetrics.now();
+            bitmap = rotate(bitmap, imageInfo.getOrientation());
+            mPipelineMetrics.recordStage(PipelineMetrics.Stage.ROTATE, PipelineMetrics.now() - startTime);
+
+            return bitmap;
+        }
+
+        // id is set before cancellation is checked, so cancelDecode() never misses the request
+        private Bitmap getThumbnail(long imageID, int kind) {
+            mThumbnailRequestID = imageID;
+            try {
+                if (isCancelled() == true) {
+                    return null;
+                }
+
+                return MediaStore.Images.Thumbnails.getThumbnail(
+                        mContext.getContentResolver(), imageID, kind, null);
+            } finally {
+                mThumbnailRequestID = -1L;
+            }
+        }
     }
 }
@@ -1,12 +1,22 @@
 package com.gomdev.gallery;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.database.Cursor;
 import android.provider.MediaStore;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
 
 import com.gomdev.gallery.GalleryConfig.DeletedInfo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -28,6 +38,26 @@ class ImageManager {
         return sImageManager;
     }
 
+    private static final Comparator<ImageInfo> REVERSE_CATALOG_ORDER = new Comparator<ImageInfo>() {
+        @Override
+        public int compare(ImageInfo lhs, ImageInfo rhs) {
+            DateLabelInfo lhsDateLabelInfo = lhs.getDateLabelInfo();
+            DateLabelInfo rhsDateLabelInfo = rhs.getDateLabelInfo();
+
+            int result = rhsDateLabelInfo.getBucketInfo().getIndex() - lhsDateLabelInfo.getBucketInfo().getIndex();
+            if (result != 0) {
+                return result;
+            }
+
+            result = rhsDateLabelInfo.getIndex() - lhsDateLabelInfo.getIndex();
+            if (result != 0) {
+                return result;
+            }
+
+            return rhs.getIndex() - lhs.getIndex();
+        }
+    };
+
     private final Context mContext;
 
     private int mNumOfImages = 0;
@@ -37,6 +67,8 @@ class ImageManager {
 
     private int mBucketIndex = 0;
 
+    private List<CatalogChangeListener> mListeners = new ArrayList<>();
+
     private ImageManager(Context context) {
         mContext = context;
 
@@ -53,6 +85,61 @@ class ImageManager {
         bucketInfo.setIndex(mBucketIndex++);
     }
 
+    // replaces the placeholder which has the same bucket ID.
+    void replaceBucketInfo(BucketInfo bucketInfo) {
+        int size = mBucketInfos.size();
+        for (int i = 0; i < size; i++) {
+            BucketInfo placeholder = mBucketInfos.get(i);
+            if (placeholder.getID() != bucketInfo.getID()) {
+                continue;
+            }
+
+            mBucketInfos.set(i, bucketInfo);
+            bucketInfo.setIndex(i);
+
+            if (mCurrentBucketInfo == placeholder) {
+                mCurrentBucketInfo = bucketInfo;
+            }
+            return;
+        }
+    }
+
+    // replaces whole catalog. should be called while no album is opened.
+    void setBucketInfos(List<BucketInfo> bucketInfos, int numOfImages) {
+        int currentBucketID = (mCurrentBucketInfo != null) ? mCurrentBucketInfo.getID() : -1;
+
+        mBucketInfos.clear();
+        mBucketIndex = 0;
+        mCurrentBucketInfo = null;
+
+        int size = bucketInfos.size();
+        for (int i = 0; i < size; i++) {
+            BucketInfo bucketInfo = bucketInfos.get(i);
+            addBucketInfo(bucketInfo);
+
+            if (bucketInfo.getID() == currentBucketID) {
+                mCurrentBucketInfo = bucketInfo;
+            }
+        }
+
+        mNumOfImages = numOfImages;
+    }
+
+    void addListener(CatalogChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(CatalogChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    void notifyCatalogChanged() {
+        int size = mListeners.size();
+        for (int i = 0; i < size; i++) {
+            mListeners.get(i).onCatalogChanged();
+        }
+    }
+
     BucketInfo getBucketInfo(int index) {
         return mBucketInfos.get(index);
     }
@@ -78,40 +165,16 @@ class ImageManager {
     }
 
     int getImageIndex(ImageIndexingInfo imageIndexingInfo) {
-        int index = 0;
-
         BucketInfo bucketInfo = mBucketInfos.get(imageIndexingInfo.mBucketIndex);
 
-        int dateLabelIndex = imageIndexingInfo.mDateLabelIndex;
-        int imageInfoIndex = imageIndexingInfo.mImageIndex;
-
-        for (int i = 0; i < dateLabelIndex; i++) {
-            index += bucketInfo.get(i).getNumOfImages();
-        }
-
-        index += imageInfoIndex;
-
-        return index;
+        return bucketInfo.getImageIndex(imageIndexingInfo.mDateLabelIndex,
+                imageIndexingInfo.mImageIndex);
     }
 
     ImageIndexingInfo getImageIndexingInfo(int index) {
         int bucketIndex = mCurrentBucketInfo.getIndex();
-        int dateLabelIndex = 0;
-        int imageIndex = 0;
-
-        int size = mCurrentBucketInfo.getNumOfDateInfos();
-        for (int i = 0; i < size; i++) {
-            DateLabelInfo dateLabelInfo = mCurrentBucketInfo.get(i);
-            int maxIndexInDateLabel = dateLabelInfo.getNumOfImages() - 1;
-            if (maxIndexInDateLabel < index) {
-                index -= (maxIndexInDateLabel + 1);
-                dateLabelIndex++;
-            } else {
-                break;
-            }
-        }
-
-        imageIndex = index;
+        int dateLabelIndex = mCurrentBucketInfo.getDateLabelIndex(index);
+        int imageIndex = index - mCurrentBucketInfo.getImageIndex(dateLabelIndex, 0);
 
         return new ImageIndexingInfo(bucketIndex, dateLabelIndex, imageIndex);
     }
@@ -159,6 +222,394 @@ class ImageManager {
         mNumOfImages--;
     }
 
+    // deletes images of current bucket with one MediaStore delete for each MAX_NUM_OF_IDS_IN_QUERY images.
+    // GridInfo is not notified for each range. caller should notify it once according to deletedInfo.
+    void deleteImages(Collection<ImageIndexingInfo> imageIndexingInfos, Set<DeletedInfo> deletedInfo) {
+        List<ImageInfo> imageInfos = new ArrayList<>(imageIndexingInfos.size());
+        for (ImageIndexingInfo imageIndexingInfo : imageIndexingInfos) {
+            imageInfos.add(getImageInfo(imageIndexingInfo));
+        }
+
+        List<ImageInfo> deletedImageInfos = deleteFromMediaStore(imageInfos);
+        if (deletedImageInfos.size() < imageInfos.size()) {
+            deletedInfo.add(DeletedInfo.NONE);
+        }
+
+        if (deletedImageInfos.isEmpty() == true) {
+            return;
+        }
+
+        BucketInfo bucketInfo = mCurrentBucketInfo;
+        int numOfDateLabels = bucketInfo.getNumOfDateInfos();
+
+        deleteImageInfos(deletedImageInfos, false);
+
+        deletedInfo.add(DeletedInfo.IMAGE);
+
+        if (bucketInfo.getNumOfDateInfos() != numOfDateLabels) {
+            deletedInfo.add(DeletedInfo.DATELABEL);
+        }
+
+        if (bucketInfo.getNumOfDateInfos() == 0) {
+            deletedInfo.add(DeletedInfo.BUCKET);
+        }
+    }
+
+    // returns images which are deleted from MediaStore
+    private List<ImageInfo> deleteFromMediaStore(List<ImageInfo> imageInfos) {
+        ContentResolver resolver = mContext.getContentResolver();
+        List<ImageInfo> deletedImageInfos = new ArrayList<>(imageInfos.size());
+
+        final int maxNumOfIDs = GalleryConfig.MAX_NUM_OF_IDS_IN_QUERY;
+        int size = imageInfos.size();
+        for (int i = 0; i < size; i += maxNumOfIDs) {
+            List<ImageInfo> chunk = imageInfos.subList(i, Math.min(i + maxNumOfIDs, size));
+            List<Long> imageIDs = new ArrayList<>(chunk.size());
+            for (ImageInfo imageInfo : chunk) {
+                imageIDs.add(imageInfo.getImageID());
+            }
+
+            String selection = GalleryUtils.makeImageIDSelection(imageIDs);
+            int num = resolver.delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, selection, null);
+            if (num == chunk.size()) {
+                deletedImageInfos.addAll(chunk);
+                continue;
+            } else if (num <= 0) {
+                continue;
+            }
+
+            // some of them are not deleted. remaining ones are kept in the catalog.
+            LongSparseArray<Boolean> remainingImageIDs = new LongSparseArray<>();
+            Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    new String[]{MediaStore.Images.Media._ID}, selection, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        remainingImageIDs.put(cursor.getLong(0), Boolean.TRUE);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            for (ImageInfo imageInfo : chunk) {
+                if (remainingImageIDs.get(imageInfo.getImageID()) == null) {
+                    deletedImageInfos.add(imageInfo);
+                }
+            }
+        }
+
+        return deletedImageInfos;
+    }
+
+    // sorted ids of all images in the catalog
+    long[] getImageIDs() {
+        long[] imageIDs = new long[mNumOfImages];
+        int count = 0;
+
+        int numOfBuckets = mBucketInfos.size();
+        for (int i = 0; i < numOfBuckets; i++) {
+            BucketInfo bucketInfo = mBucketInfos.get(i);
+
+            int numOfDateLabels = bucketInfo.getNumOfDateInfos();
+            for (int j = 0; j < numOfDateLabels; j++) {
+                DateLabelInfo dateLabelInfo = bucketInfo.get(j);
+
+                int numOfImages = dateLabelInfo.getNumOfImages();
+                for (int k = 0; k < numOfImages; k++) {
+                    if (count == imageIDs.length) {
+                        imageIDs = Arrays.copyOf(imageIDs, count * 2 + 1);
+                    }
+                    imageIDs[count++] = dateLabelInfo.getImageID(k);
+                }
+            }
+        }
+
+        imageIDs = Arrays.copyOf(imageIDs, count);
+        Arrays.sort(imageIDs);
+
+        return imageIDs;
+    }
+
+    // applies the delta in place. GalleryContext.sLockObject should be held.
+    void applyCatalogDelta(CatalogDelta delta) {
+        SparseArray<BucketInfo> bucketInfos = new SparseArray<>();
+
+        List<Long> deletedImageIDs = delta.getDeletedImageIDs();
+        int size = deletedImageIDs.size();
+        long[] sortedDeletedImageIDs = new long[size];
+        for (int i = 0; i < size; i++) {
+            sortedDeletedImageIDs[i] = deletedImageIDs.get(i);
+        }
+        Arrays.sort(sortedDeletedImageIDs);
+
+        // only deleted images are created as ImageInfo
+        List<ImageInfo> deletedImageInfos = new ArrayList<>();
+        int numOfBuckets = mBucketInfos.size();
+        for (int i = 0; i < numOfBuckets; i++) {
+            BucketInfo bucketInfo = mBucketInfos.get(i);
+            bucketInfos.put(bucketInfo.getID(), bucketInfo);
+
+            if (size == 0) {
+                continue;
+            }
+
+            int numOfDateLabels = bucketInfo.getNumOfDateInfos();
+            for (int j = 0; j < numOfDateLabels; j++) {
+                DateLabelInfo dateLabelInfo = bucketInfo.get(j);
+
+                int numOfImages = dateLabelInfo.getNumOfImages();
+                for (int k = 0; k < numOfImages; k++) {
+                    if (Arrays.binarySearch(sortedDeletedImageIDs, dateLabelInfo.getImageID(k)) >= 0) {
+                        deletedImageInfos.add(dateLabelInfo.get(k));
+                    }
+                }
+            }
+        }
+
+        deleteImageInfos(deletedImageInfos, true);
+
+        List<CatalogDelta.Insertion> insertions = delta.getInsertions();
+        Map<DateLabelInfo, List<ImageInfo>> insertedImages = new HashMap<>();
+        size = insertions.size();
+
+        long[] imageIDs = (size > 0) ? getImageIDs() : null;
+        LongSparseArray<ImageInfo> insertedImageInfos = new LongSparseArray<>(size);
+        for (int i = 0; i < size; i++) {
+            CatalogDelta.Insertion insertion = insertions.get(i);
+            ImageInfo imageInfo = insertion.mImageInfo;
+            long imageID = imageInfo.getImageID();
+            if (Arrays.binarySearch(imageIDs, imageID) >= 0 || insertedImageInfos.get(imageID) != null) {
+                continue;
+            }
+
+            insertedImageInfos.put(imageID, imageInfo);
+
+            BucketInfo bucketInfo = bucketInfos.get(insertion.mBucketID);
+            if (bucketInfo == null) {
+                bucketInfo = new BucketInfo(insertion.mBucketID);
+                bucketInfo.setName(insertion.mBucketName);
+                bucketInfos.put(insertion.mBucketID, bucketInfo);
+            }
+
+            insertImageInfo(bucketInfo, insertion.mDate, imageInfo, delta.isDescending(), insertedImages);
+        }
+
+        if (mAlbumViewManager != null) {
+            GridInfo gridInfo = mAlbumViewManager.getGridInfo();
+            for (Map.Entry<DateLabelInfo, List<ImageInfo>> entry : insertedImages.entrySet()) {
+                notifyImagesInserted(gridInfo, entry.getKey(), entry.getValue(), delta.isDescending());
+            }
+        }
+    }
+
+    // one ranged event for each contiguous run of inserted images,
+    // at their positions after all images are inserted
+    private void notifyImagesInserted(GridInfo gridInfo, DateLabelInfo dateLabelInfo,
+                                      List<ImageInfo> imageInfos, boolean isDescending) {
+        int size = imageInfos.size();
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            ImageInfo imageInfo = imageInfos.get(i);
+            indices[i] = findImageIndex(dateLabelInfo, imageInfo.getDateTaken(), imageInfo.getImageID(), isDescending);
+        }
+        Arrays.sort(indices);
+
+        int dateLabelIndex = dateLabelInfo.getIndex();
+        int i = 0;
+        while (i < size) {
+            int first = indices[i];
+            int count = 1;
+            while (i + count < size && indices[i + count] == first + count) {
+                count++;
+            }
+
+            gridInfo.insertImageInfos(dateLabelIndex, first, count);
+
+            i += count;
+        }
+    }
+
+    private boolean isOnAlbumView(BucketInfo bucketInfo) {
+        return mAlbumViewManager != null && mAlbumViewManager.getBucketInfo() == bucketInfo;
+    }
+
+    // deletes images from the last one so that indices of remaining images are kept
+    private void deleteImageInfos(List<ImageInfo> imageInfos, boolean notifyGridInfo) {
+        Collections.sort(imageInfos, REVERSE_CATALOG_ORDER);
+
+        ImageLoader imageLoader = ImageLoader.getInstance();
+        if (imageLoader != null) {
+            imageLoader.removeThumbnails(imageInfos);
+        }
+
+        int size = imageInfos.size();
+        int i = 0;
+        while (i < size) {
+            DateLabelInfo dateLabelInfo = imageInfos.get(i).getDateLabelInfo();
+            BucketInfo bucketInfo = dateLabelInfo.getBucketInfo();
+            int dateLabelIndex = dateLabelInfo.getIndex();
+            boolean isOnAlbumView = isOnAlbumView(bucketInfo);
+
+            int end = i;
+            while (end < size && imageInfos.get(end).getDateLabelInfo() == dateLabelInfo) {
+                end++;
+            }
+
+            if (end - i == dateLabelInfo.getNumOfImages()) {
+                bucketInfo.deleteDateLabel(dateLabelIndex);
+
+                if (isOnAlbumView == true) {
+                    mAlbumViewManager.deleteDateLabel(dateLabelIndex);
+                    if (notifyGridInfo == true) {
+                        mAlbumViewManager.getGridInfo().deleteDateLabelInfo();
+                    }
+                }
+
+                if (bucketInfo.getNumOfDateInfos() == 0) {
+                    deleteBucketInfo(bucketInfo);
+                }
+            } else {
+                // coalesce contiguous indices into one range
+                int j = i;
+                while (j < end) {
+                    int last = imageInfos.get(j).getIndex();
+                    int first = last;
+                    j++;
+                    while (j < end && imageInfos.get(j).getIndex() == first - 1) {
+                        first--;
+                        j++;
+                    }
+
+                    int count = last - first + 1;
+                    dateLabelInfo.deleteImageInfos(first, count);
+
+                    if (isOnAlbumView == true) {
+                        mAlbumViewManager.deleteImages(dateLabelIndex, first, count);
+                        if (notifyGridInfo == true) {
+                            mAlbumViewManager.getGridInfo().deleteImageInfos(dateLabelIndex, first, count);
+                        }
+                    }
+                }
+            }
+
+            mNumOfImages -= (end - i);
+
+            i = end;
+        }
+    }
+
+    private void deleteBucketInfo(BucketInfo bucketInfo) {
+        int index = mBucketInfos.indexOf(bucketInfo);
+        if (index < 0) {
+            return;
+        }
+
+        delete(index);
+
+        if (mCurrentBucketInfo == bucketInfo && mBucketInfos.size() > 0) {
+            mCurrentBucketInfo = mBucketInfos.get(0);
+        }
+    }
+
+    // same order with ImageLoader.mOrderClause. ids are always descending.
+    private static int compareImageOrder(long lhsDateTaken, long lhsImageID,
+                                         long rhsDateTaken, long rhsImageID, boolean isDescending) {
+        if (lhsDateTaken != rhsDateTaken) {
+            return ((lhsDateTaken < rhsDateTaken) == isDescending) ? 1 : -1;
+        }
+        return (lhsImageID < rhsImageID) ? 1 : ((lhsImageID == rhsImageID) ? 0 : -1);
+    }
+
+    // first position whose image is not before the image, on the primitive columns of the date label
+    private static int findImageIndex(DateLabelInfo dateLabelInfo, long dateTaken, long imageID, boolean isDescending) {
+        int low = 0;
+        int high = dateLabelInfo.getNumOfImages();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareImageOrder(dateLabelInfo.getDateTaken(mid), dateLabelInfo.getImageID(mid),
+                    dateTaken, imageID, isDescending) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void insertImageInfo(BucketInfo bucketInfo, String date, ImageInfo imageInfo,
+                                 boolean isDescending, Map<DateLabelInfo, List<ImageInfo>> insertedImages) {
+        long day = ImageLoader.getDay(imageInfo.getDateTaken());
+        boolean isOnAlbumView = isOnAlbumView(bucketInfo);
+
+        int numOfDateLabels = bucketInfo.getNumOfDateInfos();
+        int dateLabelIndex = 0;
+        for (; dateLabelIndex < numOfDateLabels; dateLabelIndex++) {
+            long labelDay = ImageLoader.getDay(bucketInfo.get(dateLabelIndex).getDateTaken(0));
+            if (labelDay == day || (labelDay < day) == isDescending) {
+                break;
+            }
+        }
+
+        if (dateLabelIndex == numOfDateLabels ||
+                ImageLoader.getDay(bucketInfo.get(dateLabelIndex).getDateTaken(0)) != day) {
+            DateLabelInfo dateLabelInfo = new DateLabelInfo(date);
+            dateLabelInfo.add(imageInfo);
+
+            if (numOfDateLabels == 0) {
+                insertBucketInfo(bucketInfo, imageInfo.getDateTaken(), isDescending);
+            }
+
+            bucketInfo.insert(dateLabelIndex, dateLabelInfo);
+
+            if (isOnAlbumView == true) {
+                mAlbumViewManager.insertDateLabel(dateLabelIndex);
+                mAlbumViewManager.getGridInfo().insertDateLabelInfo(dateLabelIndex);
+            }
+
+            mNumOfImages++;
+            return;
+        }
+
+        DateLabelInfo dateLabelInfo = bucketInfo.get(dateLabelIndex);
+        int imageIndex = findImageIndex(dateLabelInfo, imageInfo.getDateTaken(), imageInfo.getImageID(), isDescending);
+
+        dateLabelInfo.insert(imageIndex, imageInfo);
+
+        if (isOnAlbumView == true) {
+            mAlbumViewManager.insertImage(new ImageIndexingInfo(bucketInfo.getIndex(), dateLabelIndex, imageIndex));
+
+            List<ImageInfo> imageInfos = insertedImages.get(dateLabelInfo);
+            if (imageInfos == null) {
+                imageInfos = new ArrayList<>();
+                insertedImages.put(dateLabelInfo, imageInfos);
+            }
+            imageInfos.add(imageInfo);
+        }
+
+        mNumOfImages++;
+    }
+
+    private void insertBucketInfo(BucketInfo bucketInfo, long coverDateTaken, boolean isDescending) {
+        int size = mBucketInfos.size();
+        int index = 0;
+        for (; index < size; index++) {
+            long dateTaken = mBucketInfos.get(index).getFirst().getDateTaken(0);
+            if ((dateTaken < coverDateTaken) == isDescending && dateTaken != coverDateTaken) {
+                break;
+            }
+        }
+
+        mBucketInfos.add(index, bucketInfo);
+
+        size = mBucketInfos.size();
+        for (int i = index; i < size; i++) {
+            mBucketInfos.get(i).setIndex(i);
+        }
+
+        mBucketIndex = size;
+    }
+
     private void delete(int index) {
         mBucketInfos.remove(index);
 
@@ -166,5 +617,7 @@ class ImageManager {
         for (int i = index; i < size; i++) {
             mBucketInfos.get(i).setIndex(i);
         }
+
+        mBucketIndex = size;
     }
 }
@@ -28,6 +28,18 @@ class ImageObject extends GalleryObject {
         super(name);
     }
 
+    // called when the object is bound to another image
+    void reset() {
+        mIsVisible = false;
+        mPrevVisibility = false;
+
+        mAlpha = 1f;
+        mAnimationStartTime = 0L;
+        mIsOnAlphaAnimation = false;
+
+        mIsChecked = false;
+    }
+
     void setScale(float scale) {
         mScale = scale;
     }
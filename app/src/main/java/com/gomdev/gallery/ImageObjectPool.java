@@ -4,6 +4,9 @@ import java.util.LinkedList;
 
 /**
  * Created by gomdev on 15. 2. 10..
+ * <p/>
+ * ImageObjects which scrolled out of the window of ImageObjects,
+ * bound again to the images which scroll in.
  */
 public class ImageObjectPool {
     static final String CLASS = "ImageObjectPool";
@@ -12,11 +15,11 @@ public class ImageObjectPool {
 
     private static LinkedList<ImageObject> sImageObjects = new LinkedList<>();
 
-    static void push(ImageObject object) {
+    static synchronized void push(ImageObject object) {
         sImageObjects.push(object);
     }
 
-    static ImageObject pop() {
+    static synchronized ImageObject pop() {
         ImageObject object;
         if (sImageObjects.isEmpty() == true) {
             object = new ImageObject("imageObject");
@@ -25,4 +28,8 @@ public class ImageObjectPool {
         }
         return object;
     }
+
+    static synchronized int size() {
+        return sImageObjects.size();
+    }
 }
@@ -5,11 +5,13 @@ import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.drawable.BitmapDrawable;
+import android.opengl.ETC1Util;
 import android.opengl.GLES20;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.gomdev.gallery.GalleryConfig.AlbumViewMode;
+import com.gomdev.gallery.GalleryConfig.ThumbnailTier;
 import com.gomdev.gallery.GalleryTexture.TextureState;
 import com.gomdev.gles.GLESCamera;
 import com.gomdev.gles.GLESConfig;
@@ -24,7 +26,8 @@ import com.gomdev.gles.GLESVertexInfo;
 
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -37,7 +40,7 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
     static final boolean DEBUG = GalleryConfig.DEBUG;
 
     private static final int ALPAH_ANIMATION_DURATION = 300;
-    private static final float VISIBILITY_PADDING_DP = 60f;    // dp
+    static final float VISIBILITY_PADDING_DP = 60f;    // dp
 
     private static final boolean DEBUG_IMAGE = false;
 
@@ -60,11 +63,11 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
     private AlbumViewManager mAlbumViewManager = null;
     private GalleryContext mGalleryContext = null;
     private ImageLoader mImageLoader = null;
+    private DecodeScheduler mDecodeScheduler = null;
+    private ThumbnailPrefetcher mThumbnailPrefetcher = null;
     private GalleryNode mParentNode = null;
     private GLESCamera mCamera = null;
 
-    private List<ImageObject> mObjects = new ArrayList<>();
-
     private GLESShader mShader = null;
     private GLESGLState mGLState = null;
 
@@ -79,6 +82,7 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
 
     private int mSpacing = 0;
     private int mNumOfColumns = 0;
+    private int mPrevNumOfColumns = 0;
     private int mNumOfImages = 0;
     private int mColumnWidth = 0;
     private int mPrevColumnWidth = 0;
@@ -91,8 +95,23 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
 
     private float mVisibilityPadding = 0f;
 
-    private List<TextureMappingInfo> mTextureMappingInfos = new ArrayList<>();
+    // region ahead of the fling, set by GalleryObjects
+    private float mPrefetchTop = 0f;
+    private float mPrefetchBottom = 0f;
+    private ThumbnailTier mPrefetchTier = ThumbnailTier.MINI;
+    private int mPrefetchSize = 0;
+
+    // objects are bound only to the images in [mWindowStart, mWindowEnd),
+    // which is the visible rows and IMAGE_OBJECT_WINDOW_MARGIN rows around them.
+    // the key is the index of the image. the window is not moved while animating.
+    private SparseArray<TextureMappingInfo> mTextureMappingInfos = new SparseArray<>();
+    private int mWindowStart = 0;
+    private int mWindowEnd = 0;
+    private boolean mIsOnAnimation = false;
+
     private Queue<GalleryTexture> mWaitingTextures = new ConcurrentLinkedQueue<>();
+    private ArrayList<GalleryTexture> mUploadingTextures = new ArrayList<>();
+    private float mViewportCenterY = 0f;
     private SparseArray<ImageObject> mInvisibleObjects = new SparseArray<>();
     private ArrayList<ImageObject> mAnimationObjects = new ArrayList<>();
 
@@ -118,6 +137,8 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
 
     private void init() {
         mImageLoader = ImageLoader.getInstance();
+        mDecodeScheduler = DecodeScheduler.getInstance();
+        mThumbnailPrefetcher = ThumbnailPrefetcher.getInstance();
         mGalleryContext = GalleryContext.getInstance();
 
         mVisibilityPadding = GLESUtils.getPixelFromDpi(mContext, VISIBILITY_PADDING_DP);
@@ -126,6 +147,7 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
     private void setGridInfo(GridInfo gridInfo) {
         mSpacing = gridInfo.getSpacing();
         mNumOfColumns = gridInfo.getNumOfColumns();
+        mPrevNumOfColumns = mNumOfColumns;
         mColumnWidth = gridInfo.getColumnWidth();
         mPrevColumnWidth = mColumnWidth;
         mDefaultColumnWidth = gridInfo.getDefaultColumnWidth();
@@ -153,9 +175,9 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
     }
 
     private void setTranslate() {
-        int size = mObjects.size();
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
             setTranslate(object);
         }
     }
@@ -166,16 +188,98 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         object.setTranslate(translateX, translateY);
     }
 
-    void updateTexture(long currentTime) {
+    // returns true if there are textures to upload. they are sorted from the nearest to the viewport.
+    boolean prepareTextureUpload(long currentTime, float viewportCenterY) {
         mCurrentTime = currentTime;
 
-        GalleryTexture texture = mWaitingTextures.poll();
+        GalleryTexture texture;
+        while ((texture = mWaitingTextures.poll()) != null) {
+            mUploadingTextures.add(texture);
+        }
 
-        if (texture != null) {
-            TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(texture.getIndex());
-            final ImageObject object = (ImageObject) textureMappingInfo.getObject();
-            Bitmap bitmap = texture.getBitmapDrawable().getBitmap();
+        if (mUploadingTextures.size() == 0) {
+            return false;
+        }
+
+        mViewportCenterY = viewportCenterY;
+        Collections.sort(mUploadingTextures, mUploadOrderComparator);
+
+        return true;
+    }
+
+    // distance of the nearest texture which is prepared
+    float getNearestTextureDistance() {
+        if (mUploadingTextures.size() == 0) {
+            return Float.MAX_VALUE;
+        }
+
+        return getDistance(mUploadingTextures.get(0));
+    }
+
+    private float getDistance(GalleryTexture texture) {
+        float positionY = texture.getPositionY();
+        if (Float.isNaN(positionY) == true) {
+            return Float.MAX_VALUE;
+        }
+
+        return Math.abs(positionY - mViewportCenterY);
+    }
+
+    private final Comparator<GalleryTexture> mUploadOrderComparator = new Comparator<GalleryTexture>() {
+        @Override
+        public int compare(GalleryTexture lhs, GalleryTexture rhs) {
+            return Float.compare(getDistance(lhs), getDistance(rhs));
+        }
+    };
+
+    // textures which are not uploaded in the budget wait for the next frame
+    void updateTexture(TextureUploadBudget budget) {
+        int size = mUploadingTextures.size();
+        int i = 0;
+        for (; i < size && budget.hasTime() == true; i++) {
+            updateTexture(mUploadingTextures.get(i));
+            budget.onUploaded();
+        }
+
+        for (; i < size; i++) {
+            mWaitingTextures.add(mUploadingTextures.get(i));
+        }
+        mUploadingTextures.clear();
+
+        if (mWaitingTextures.size() > 0) {
+            mSurfaceView.requestRender();
+        }
+    }
+
+    private void updateTexture(GalleryTexture texture) {
+        if (isMapped(texture) == false) {
+            return;
+        }
 
+        loadTexture(texture);
+        swapTexture(texture);
+    }
+
+    // false if the object of the texture is unbound or mapped to another texture
+    private boolean isMapped(GalleryTexture texture) {
+        TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(texture.getIndex());
+        return (textureMappingInfo != null && textureMappingInfo.getTexture() == texture);
+    }
+
+    // called on the GL thread, or on TextureUploader
+    private void loadTexture(GalleryTexture texture) {
+        BitmapDrawable drawable = texture.getBitmapDrawable();
+        Bitmap bitmap = drawable.getBitmap();
+
+        ETC1Util.ETC1Texture compressedTexture = null;
+        if (drawable instanceof RecyclingBitmapDrawable) {
+            compressedTexture = ((RecyclingBitmapDrawable) drawable).getCompressedTexture();
+        }
+
+        long uploadStartTime = PipelineMetrics.now();
+        if (compressedTexture != null) {
+            texture.load(compressedTexture);
+        } else {
             if (bitmap == null) {
                 int width = mWidth / 10;
                 int height = mHeight / 10;
@@ -183,23 +287,235 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
                 bitmap = GLESUtils.makeBitmap(width, height, Bitmap.Config.ARGB_8888, Color.DKGRAY);
             }
             texture.load(bitmap);
+        }
+        PipelineMetrics.getInstance().recordStage(PipelineMetrics.Stage.TEXTURE_UPLOAD,
+                PipelineMetrics.now() - uploadStartTime);
+    }
 
-            object.setTexture(texture);
+    private void swapTexture(GalleryTexture texture) {
+        TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(texture.getIndex());
+        final ImageObject object = (ImageObject) textureMappingInfo.getObject();
 
-            object.setAnimationStartTime(currentTime);
-            object.setIsOnAlphaAnimation(true);
-        }
+        // an upgrade replaces the texture on the screen without alpha animation
+        boolean isUpgrade = (object.getGalleryTexture() != null);
 
-        if (mWaitingTextures.size() > 0) {
-            mSurfaceView.requestRender();
+        setTexCoord(object, (ImageInfo) textureMappingInfo.getGalleryInfo(),
+                texture.getBitmapDrawable().getBitmap());
+
+        object.setTexture(texture);
+
+        if (isUpgrade == false) {
+            object.setAnimationStartTime(mCurrentTime);
+            object.setIsOnAlphaAnimation(true);
         }
     }
 
+    // objects are on the grid except while animating, so only the rows around the viewport are checked
     void checkVisibility(boolean parentVisibility) {
+        if (mIsOnAnimation == true || mInvisibleObjects.size() > 0 ||
+                mColumnWidth <= 0 || mNumOfColumns <= 0) {
+            if (parentVisibility == true) {
+                handleVisibleObjects();
+            } else {
+                handleInvisibleObjects();
+            }
+
+            invalidateWindow();
+            return;
+        }
+
+        int start = 0;
+        int end = 0;
+
         if (parentVisibility == true) {
-            handleVisibleObjects();
-        } else {
-            handleInvisibleObjects();
+            float translateY = mGridInfo.getTranslateY();
+            float viewportTop = mHalfHeight - translateY;
+            float viewportBottom = viewportTop - mHeight;
+
+            start = getFirstIndex(viewportTop + mVisibilityPadding, mStartOffsetY);
+            end = getEndIndex(viewportBottom - mVisibilityPadding, mStartOffsetY);
+        }
+
+        moveWindow(start, end);
+        cullObjects(start, end);
+    }
+
+    void setPrefetchRegion(float top, float bottom, ThumbnailTier tier, int size) {
+        mPrefetchTop = top;
+        mPrefetchBottom = bottom;
+        mPrefetchTier = tier;
+        mPrefetchSize = size;
+    }
+
+    // the window is checked again on the next frame
+    private void invalidateWindow() {
+        mWindowStart = -1;
+        mWindowEnd = -1;
+    }
+
+    // first object whose bottom is below y
+    private int getFirstIndex(float y, float startOffsetY) {
+        float rowHeight = mColumnWidth + mSpacing;
+        int row = (int) Math.floor((startOffsetY - mColumnWidth - y) / rowHeight) + 1;
+        row = Math.max(row, 0);
+
+        return (int) Math.min((long) row * mNumOfColumns, mDateLabelInfo.getNumOfImages());
+    }
+
+    // next of the last object whose top is above y
+    private int getEndIndex(float y, float startOffsetY) {
+        float rowHeight = mColumnWidth + mSpacing;
+        int row = (int) Math.ceil((startOffsetY - y) / rowHeight);
+        row = Math.max(row, 0);
+
+        return (int) Math.min((long) row * mNumOfColumns, mDateLabelInfo.getNumOfImages());
+    }
+
+    private float getObjectLeft(int index, int numOfColumns, int columnWidth) {
+        return mSpacing + (index % numOfColumns) * (columnWidth + mSpacing) - mHalfWidth;
+    }
+
+    private float getObjectTop(int index, int numOfColumns, int columnWidth) {
+        return -((index / numOfColumns) * (columnWidth + mSpacing));
+    }
+
+    // objects out of the window go back to ImageObjectPool, and the images in it are bound.
+    // start, end : visible objects
+    private void moveWindow(int start, int end) {
+        int windowStart = 0;
+        int windowEnd = 0;
+        if (start < end) {
+            int margin = GalleryConfig.IMAGE_OBJECT_WINDOW_MARGIN * mNumOfColumns;
+            windowStart = Math.max(start - margin, 0);
+            windowEnd = Math.min(end + margin, mDateLabelInfo.getNumOfImages());
+        }
+
+        if (windowStart == mWindowStart && windowEnd == mWindowEnd) {
+            return;
+        }
+
+        for (int i = mTextureMappingInfos.size() - 1; i >= 0; i--) {
+            int index = mTextureMappingInfos.keyAt(i);
+            if (index < windowStart || index >= windowEnd) {
+                releaseObject(i);
+            }
+        }
+
+        for (int i = windowStart; i < windowEnd; i++) {
+            if (mTextureMappingInfos.get(i) == null) {
+                bindObject(i);
+            }
+        }
+
+        mWindowStart = windowStart;
+        mWindowEnd = windowEnd;
+    }
+
+    // an object from ImageObjectPool is bound to the image at index, on the grid
+    private ImageObject bindObject(int index) {
+        ImageObject object = ImageObjectPool.pop();
+        object.reset();
+
+        object.setIndex(index);
+        object.setGLState(mGLState);
+        object.setListener(mObjectListener);
+        object.setCheck(isChecked(index));
+
+        object.setStartOffsetY(mStartOffsetY);
+        object.setNextStartOffsetY(mNextStartOffsetY);
+        object.setScale(mScale);
+        object.setLeftTop(getObjectLeft(index, mNumOfColumns, mColumnWidth),
+                getObjectTop(index, mNumOfColumns, mColumnWidth));
+        setTranslate(object);
+
+        if (object.getVertexInfo() == null) {
+            GLESVertexInfo vertexInfo = new GLESVertexInfo();
+            vertexInfo.setRenderType(GLESVertexInfo.RenderType.DRAW_ARRAYS);
+            vertexInfo.setPrimitiveMode(GLESVertexInfo.PrimitiveMode.TRIANGLE_STRIP);
+            object.setVertexInfo(vertexInfo, false, false);
+        }
+
+        if (mShader != null) {
+            setupObject(object);
+        }
+
+        mParentNode.addChild(object);
+
+        TextureMappingInfo textureMappingInfo = new TextureMappingInfo(object, mDateLabelInfo.get(index));
+        mTextureMappingInfos.put(index, textureMappingInfo);
+
+        return object;
+    }
+
+    // i : position in mTextureMappingInfos
+    private void releaseObject(int i) {
+        int index = mTextureMappingInfos.keyAt(i);
+        ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
+
+        object.setVisibility(false);
+        unmapTexture(index, object);
+        mParentNode.removeChild(object);
+
+        mTextureMappingInfos.removeAt(i);
+
+        ImageObjectPool.push(object);
+    }
+
+    private void setupObject(ImageObject object) {
+        object.setCamera(mCamera);
+        object.setShader(mShader);
+        object.setDummyTexture(sDummyTexture);
+
+        float halfDefaultColumnWidth = mDefaultColumnWidth * 0.5f;
+        float[] vertex = GLESUtils.makePositionCoord(-halfDefaultColumnWidth, halfDefaultColumnWidth, mDefaultColumnWidth, mDefaultColumnWidth);
+        object.getVertexInfo().setBuffer(mShader.getPositionAttribIndex(), vertex, 3);
+    }
+
+    // the check of a recycled object follows GalleryContext
+    private boolean isChecked(int index) {
+        if (mGalleryContext.getAlbumViewMode() != AlbumViewMode.MULTI_SELECTION_MODE) {
+            return false;
+        }
+
+        int bucketIndex = mGridInfo.getBucketInfo().getIndex();
+        ImageIndexingInfo indexingInfo = new ImageIndexingInfo(bucketIndex, mDateLabelInfo.getIndex(), index);
+        return mGalleryContext.getCheckedImageIndexingInfos().contains(indexingInfo);
+    }
+
+    // objects in [start, end) are visible. only the objects in the window are checked.
+    private void cullObjects(int start, int end) {
+        int size = mTextureMappingInfos.size();
+        for (int i = 0; i < size; i++) {
+            int index = mTextureMappingInfos.keyAt(i);
+            TextureMappingInfo textureMappingInfo = mTextureMappingInfos.valueAt(i);
+            ImageObject object = (ImageObject) textureMappingInfo.getObject();
+
+            if (index >= start && index < end) {
+                object.setVisibility(true);
+
+                if (isTextureMappingNeeded(textureMappingInfo, object) == true) {
+                    mapTexture(index);
+                }
+            } else {
+                object.setVisibility(false);
+
+                if (object.isVisibilityChanged() == true) {
+                    unmapTexture(index, object);
+                }
+            }
+        }
+
+        if (mPrefetchTop > mPrefetchBottom) {
+            int prefetchStart = getFirstIndex(mPrefetchTop, mStartOffsetY);
+            int prefetchEnd = getEndIndex(mPrefetchBottom, mStartOffsetY);
+
+            for (int i = prefetchStart; i < prefetchEnd; i++) {
+                if (i >= start && i < end) {
+                    continue;
+                }
+
+                prefetchThumbnail(i, getObjectTop(i, mNumOfColumns, mColumnWidth) + mStartOffsetY);
+            }
         }
     }
 
@@ -208,44 +524,116 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         float viewportTop = mHalfHeight - translateY;
         float viewportBottom = viewportTop - mHeight;
 
-        int size = mObjects.size();
+        // while animating, only the moving objects can be visible.
+        // the others are unmapped by setupAnimations().
+        if (mIsOnAnimation == true) {
+            int size = mAnimationObjects.size();
+            for (int i = 0; i < size; i++) {
+                ImageObject object = mAnimationObjects.get(i);
+                int index = object.getIndex();
+
+                // released from the window while animating
+                TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(index);
+                if (textureMappingInfo == null || textureMappingInfo.getObject() != object) {
+                    continue;
+                }
+
+                handleVisibleObject(index, textureMappingInfo, viewportTop, viewportBottom, false);
+            }
+            return;
+        }
+
+        boolean needToPrefetch = (mPrefetchTop > mPrefetchBottom);
+
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            int index = mTextureMappingInfos.keyAt(i);
+            TextureMappingInfo textureMappingInfo = mTextureMappingInfos.valueAt(i);
 
-            if (mInvisibleObjects.get(i) != null) {
+            if (mInvisibleObjects.get(index) != null) {
+                ImageObject object = (ImageObject) textureMappingInfo.getObject();
                 if (object.isVisibilityChanged() == true) {
-                    unmapTexture(i, object);
+                    unmapTexture(index, object);
                 }
                 continue;
             }
 
-            float top = object.getTop() + mStartOffsetY;
+            handleVisibleObject(index, textureMappingInfo, viewportTop, viewportBottom, needToPrefetch);
+        }
+    }
 
-            if ((top - mColumnWidth) < (viewportTop + mVisibilityPadding) &&
-                    (top > (viewportBottom - mVisibilityPadding))) {
+    private void handleVisibleObject(int index, TextureMappingInfo textureMappingInfo,
+                                     float viewportTop, float viewportBottom, boolean needToPrefetch) {
+        ImageObject object = (ImageObject) textureMappingInfo.getObject();
+        float top = object.getTop() + mStartOffsetY;
 
-                object.setVisibility(true);
+        if ((top - mColumnWidth) < (viewportTop + mVisibilityPadding) &&
+                (top > (viewportBottom - mVisibilityPadding))) {
 
-                mapTexture(i);
-            } else {
-                object.setVisibility(false);
+            object.setVisibility(true);
 
-                if (object.isVisibilityChanged() == true) {
-                    unmapTexture(i, object);
-                }
+            if (isTextureMappingNeeded(textureMappingInfo, object) == true) {
+                mapTexture(index);
+            }
+        } else {
+            object.setVisibility(false);
+
+            if (object.isVisibilityChanged() == true) {
+                unmapTexture(index, object);
+            }
+
+            if (needToPrefetch == true) {
+                prefetchThumbnail(index, top);
             }
         }
     }
 
     private void handleInvisibleObjects() {
-        int size = mObjects.size();
+        boolean needToPrefetch = (mPrefetchTop > mPrefetchBottom);
+
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            int index = mTextureMappingInfos.keyAt(i);
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
 
             object.setVisibility(false);
 
-            unmapTexture(i, object);
+            unmapTexture(index, object);
+
+            if (needToPrefetch == true && mInvisibleObjects.get(index) == null) {
+                prefetchThumbnail(index, object.getTop() + mStartOffsetY);
+            }
+        }
+    }
+
+    private void prefetchThumbnail(int index, float top) {
+        if (top <= mPrefetchBottom || (top - mColumnWidth) >= mPrefetchTop) {
+            return;
         }
+
+        ImageInfo imageInfo = mDateLabelInfo.get(index);
+        mThumbnailPrefetcher.prefetch(imageInfo, mPrefetchTier, top - mColumnWidth * 0.5f, mPrefetchSize);
+    }
+
+    // a texture is requested when the object becomes visible or has no texture,
+    // and it is upgraded when its tier is smaller than the one of the column width after a fling.
+    private boolean isTextureMappingNeeded(TextureMappingInfo textureMappingInfo, ImageObject object) {
+        if (object.isVisibilityChanged() == true) {
+            return true;
+        }
+
+        GalleryTexture texture = textureMappingInfo.getTexture();
+        if (texture == null) {
+            return true;
+        }
+
+        TextureState textureState = texture.getState();
+        if (textureState == TextureState.NONE || textureState == TextureState.CANCELED) {
+            return true;
+        }
+
+        return mDecodeScheduler.isOnFling() == false &&
+                texture.getThumbnailTier().compareTo(ThumbnailTier.getTier(mColumnWidth)) < 0;
     }
 
     private void mapTexture(int index) {
@@ -254,16 +642,34 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         GalleryTexture texture = textureMappingInfo.getTexture();
         if (texture != null) {
             TextureState textureState = texture.getState();
-            if (textureState != TextureState.NONE && textureState != TextureState.CANCELED) {
+            if (textureState != TextureState.NONE && textureState != TextureState.CANCELED &&
+                    textureState != TextureState.LOADED) {
                 return;
             }
         }
 
         ImageInfo imageInfo = (ImageInfo) textureMappingInfo.getGalleryInfo();
+        ImageObject object = (ImageObject) textureMappingInfo.getObject();
+
+        // the texture on the screen is kept until the larger one is loaded
+        ThumbnailTier tier = ThumbnailTier.getTier(mColumnWidth);
+        GalleryTexture displayedTexture = object.getGalleryTexture();
+        if (displayedTexture != null) {
+            if (displayedTexture.getThumbnailTier().compareTo(tier) >= 0 ||
+                    mDecodeScheduler.isOnFling() == true) {
+                return;
+            }
+        } else {
+            tier = getThumbnailTier(imageInfo, tier);
+        }
 
         texture = new GalleryTexture(imageInfo.getWidth(), imageInfo.getHeight());
         texture.setIndex(index);
+        texture.setPoolable(true);
         texture.setImageLoadingListener(this);
+        texture.setThumbnailTier(tier);
+
+        texture.setPositionY(mStartOffsetY + object.getTop() - mColumnWidth * 0.5f);
 
         if ((texture != null && texture.isTextureLoadingNeeded() == true)) {
             texture.setState(TextureState.REQUEST);
@@ -275,7 +681,7 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
             } else {
                 synchronized (texture) {
                     texture.setState(TextureState.DECODING);
-                    mImageLoader.loadThumbnail(imageInfo, texture);
+                    mImageLoader.loadThumbnail(imageInfo, texture, tier);
                 }
             }
 
@@ -284,6 +690,16 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         }
     }
 
+    // MICRO while flinging, and the tile is upgraded when the fling is finished.
+    private ThumbnailTier getThumbnailTier(ImageInfo imageInfo, ThumbnailTier tier) {
+        if (mDecodeScheduler.isOnFling() == true &&
+                mImageLoader.isThumbnailInMemCache(imageInfo, tier) == false) {
+            return ThumbnailTier.MICRO;
+        }
+
+        return tier;
+    }
+
     void loadDebugImage(ImageInfo imageInfo, GalleryTexture texture) {
         if (mLoadingBitmap == null) {
             mLoadingBitmap = GLESUtils.makeBitmap(16, 16, Bitmap.Config.ARGB_8888, Color.LTGRAY);
@@ -325,9 +741,11 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
                 break;
             case DECODING:
                 BitmapWorker.cancelWork(texture, false);
+                texture.setState(TextureState.CANCELED);
                 break;
             case QUEUING:
                 mWaitingTextures.remove(texture);
+                texture.setState(TextureState.CANCELED);    // skipped by TextureUploader
                 break;
             case CANCELED:
                 break;
@@ -342,15 +760,19 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
             Log.d(TAG, "onSurfaceChanged() DateLabel index=" + mDateLabelInfo.getIndex() + " width=" + width + " height=" + height);
         }
 
+        setScreenSize(width, height);
+
+        if (sDummyTexture == null) {
+            sDummyTexture = GalleryUtils.createDummyTexture(DUMMY_TEXTURE_COLOR);
+        }
+    }
+
+    void setScreenSize(int width, int height) {
         mWidth = width;
         mHeight = height;
 
         mHalfWidth = width * 0.5f;
         mHalfHeight = height * 0.5f;
-
-        if (sDummyTexture == null) {
-            sDummyTexture = GalleryUtils.createDummyTexture(DUMMY_TEXTURE_COLOR);
-        }
     }
 
     void setupObjects(GLESCamera camera) {
@@ -361,38 +783,25 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         mCamera = camera;
 
         float halfColumnWidth = mColumnWidth * 0.5f;
-        float halfDefaultColumnWidth = mDefaultColumnWidth * 0.5f;
 
-        int xPosition = 0;
-        int yPosition = 0;
-
-        int size = mObjects.size();
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
-            object.setCamera(mCamera);
+            int index = mTextureMappingInfos.keyAt(i);
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
+            setupObject(object);
 
-            float left = mSpacing + xPosition * (mColumnWidth + mSpacing) - mHalfWidth;
-            float top = -(yPosition * (mColumnWidth + mSpacing));
+            float left = getObjectLeft(index, mNumOfColumns, mColumnWidth);
+            float top = getObjectTop(index, mNumOfColumns, mColumnWidth);
 
             object.setLeftTop(left, top);
 
             object.setTranslate(left - (-halfColumnWidth), mStartOffsetY + top - (halfColumnWidth));
             object.setScale(mScale);
             object.setAlpha(1.0f);
-
-            GLESVertexInfo vertexInfo = object.getVertexInfo();
-            float[] vertex = GLESUtils.makePositionCoord(-halfDefaultColumnWidth, halfDefaultColumnWidth, mDefaultColumnWidth, mDefaultColumnWidth);
-            vertexInfo.setBuffer(mShader.getPositionAttribIndex(), vertex, 3);
-
-            mEndOffsetY = top - mColumnWidth;
-
-            xPosition++;
-            if (xPosition >= mNumOfColumns) {
-                xPosition = 0;
-                yPosition++;
-            }
         }
 
+        updateEndOffsetY();
+
         createCheckTexCoord();
     }
 
@@ -421,18 +830,16 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
             sDummyTexture = GalleryUtils.createDummyTexture(DUMMY_TEXTURE_COLOR);
         }
 
-        int size = mObjects.size();
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            TextureMappingInfo textureMappingInfo = mTextureMappingInfos.valueAt(i);
+            ImageObject object = (ImageObject) textureMappingInfo.getObject();
             object.setVisibility(false);
             object.setShader(mShader);
 
             object.setDummyTexture(sDummyTexture);
-        }
 
-        size = mTextureMappingInfos.size();
-        for (int i = 0; i < size; i++) {
-            mTextureMappingInfos.get(i).setTexture(null);
+            textureMappingInfo.setTexture(null);
         }
     }
 
@@ -452,6 +859,14 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         cancelLoading();
     }
 
+    // visible objects map their textures again on the next frame
+    void releaseTextures() {
+        int size = mTextureMappingInfos.size();
+        for (int i = 0; i < size; i++) {
+            unmapTexture(mTextureMappingInfos.keyAt(i), (ImageObject) mTextureMappingInfos.valueAt(i).getObject());
+        }
+    }
+
     @Override
     public void onColumnWidthChanged() {
         if (DEBUG) {
@@ -463,6 +878,7 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         mPrevColumnWidth = mColumnWidth;
         mColumnWidth = mGridInfo.getColumnWidth();
 
+        mPrevNumOfColumns = mNumOfColumns;
         mNumOfColumns = mGridInfo.getNumOfColumns();
 
         mScale = (float) mColumnWidth / mDefaultColumnWidth;
@@ -473,36 +889,81 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
     }
 
     private void changeImageObjectPosition() {
-        int size = mObjects.size();
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            int index = mTextureMappingInfos.keyAt(i);
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
 
             object.setPrevLeftTop(object.getLeft(), object.getTop());
 
             float prevScale = (float) mPrevColumnWidth / mDefaultColumnWidth;
             object.setPrevScale(prevScale);
 
-            float nextLeft = mSpacing + (i % mNumOfColumns) * (mColumnWidth + mSpacing) - mHalfWidth;
-            float nextTop = -((i / mNumOfColumns) * (mColumnWidth + mSpacing));
-            object.setNextLeftTop(nextLeft, nextTop);
+            setNextPosition(index, object);
+        }
+
+        updateEndOffsetY();
+    }
 
-            float nextScale = (float) mColumnWidth / mDefaultColumnWidth;
-            object.setNextScale(nextScale);
+    private void setNextPosition(int index, ImageObject object) {
+        float nextLeft = getObjectLeft(index, mNumOfColumns, mColumnWidth);
+        float nextTop = getObjectTop(index, mNumOfColumns, mColumnWidth);
+        object.setNextLeftTop(nextLeft, nextTop);
 
-            mEndOffsetY = nextTop - mDefaultColumnWidth * nextScale;
+        float nextScale = (float) mColumnWidth / mDefaultColumnWidth;
+        object.setNextScale(nextScale);
+    }
+
+    // objects which will be visible at the end of the animation are bound before it starts.
+    // they start from their positions in the previous grid.
+    private void bindNextVisibleObjects(float nextViewportTop, float nextViewportBottom) {
+        int start = getFirstIndex(nextViewportTop, mNextStartOffsetY);
+        int end = getEndIndex(nextViewportBottom, mNextStartOffsetY);
+
+        float prevScale = (float) mPrevColumnWidth / mDefaultColumnWidth;
+
+        for (int i = start; i < end; i++) {
+            if (mTextureMappingInfos.get(i) != null) {
+                continue;
+            }
+
+            ImageObject object = bindObject(i);
+
+            float prevLeft = getObjectLeft(i, mPrevNumOfColumns, mPrevColumnWidth);
+            float prevTop = getObjectTop(i, mPrevNumOfColumns, mPrevColumnWidth);
+            object.setPrevLeftTop(prevLeft, prevTop);
+            object.setPrevScale(prevScale);
+
+            object.setLeftTop(prevLeft, prevTop);
+            object.setScale(prevScale);
+            object.setTranslate(prevLeft + mDefaultColumnWidth * prevScale * 0.5f,
+                    mStartOffsetY + prevTop - mDefaultColumnWidth * prevScale * 0.5f);
+
+            setNextPosition(i, object);
+        }
+    }
+
+    private void updateEndOffsetY() {
+        int numOfImages = mDateLabelInfo.getNumOfImages();
+        if (numOfImages > 0) {
+            int numOfRows = (numOfImages + mNumOfColumns - 1) / mNumOfColumns;
+            mEndOffsetY = -((numOfRows - 1) * (mColumnWidth + mSpacing)) - mColumnWidth;
+        } else {
+            mEndOffsetY = 0f;
         }
     }
 
     private void setupAnimations() {
         mAnimationObjects.clear();
+        mIsOnAnimation = true;
 
         if (mParentNode.getVisibility() == false) {
-            int size = mObjects.size();
+            int size = mTextureMappingInfos.size();
             for (int i = 0; i < size; i++) {
-                ImageObject object = mObjects.get(i);
+                ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
 
                 object.setVisibility(false);
-                mInvisibleObjects.put(i, object);
+                mInvisibleObjects.put(mTextureMappingInfos.keyAt(i), object);
             }
 
             return;
@@ -515,9 +976,12 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         float nextViewportTop = mHalfHeight - nextTranslateY;
         float nextViewportBottom = nextViewportTop - mHeight;
 
-        int size = mObjects.size();
+        bindNextVisibleObjects(nextViewportTop, nextViewportBottom);
+
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            int index = mTextureMappingInfos.keyAt(i);
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
 
             float prevTop = object.getPrevTop();
             float prevBottom = prevTop - mPrevColumnWidth;
@@ -533,7 +997,11 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
             } else {
                 object.setVisibility(false);
 
-                mInvisibleObjects.put(i, object);
+                mInvisibleObjects.put(index, object);
+
+                if (object.isVisibilityChanged() == true) {
+                    unmapTexture(index, object);
+                }
             }
         }
     }
@@ -554,62 +1022,85 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         changeObjectPosition();
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        if (dateLabelIndex != mDateLabelInfo.getIndex()) {
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "onImagesInserted() dateLabel index=" + dateLabelIndex + " index=" + index + " count=" + count);
+        }
+
+        mNumOfImages = mDateLabelInfo.getNumOfImages();
+
+        changeObjectPosition(index);
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        if (dateLabelIndex != mDateLabelInfo.getIndex()) {
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "onImagesDeleted() dateLabel index=" + dateLabelIndex + " index=" + index + " count=" + count);
+        }
+
+        mNumOfImages = mDateLabelInfo.getNumOfImages();
+
+        changeObjectPosition(index);
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        // start offset is changed by GalleryObjects
+    }
+
     private void changeObjectPosition() {
+        changeObjectPosition(0);
+    }
+
+    // only rows from the one including fromIndex are changed
+    private void changeObjectPosition(int fromIndex) {
         float halfColumnWidth = mColumnWidth * 0.5f;
 
-        int size = mObjects.size();
-        int xPosition = 0;
-        int yPosition = 0;
+        int start = (fromIndex / mNumOfColumns) * mNumOfColumns;
+
+        updateEndOffsetY();
+
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            int index = mTextureMappingInfos.keyAt(i);
+            if (index < start) {
+                continue;
+            }
+
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
 
-            float left = mSpacing + xPosition * (mColumnWidth + mSpacing) - mHalfWidth;
-            float top = -(yPosition * (mColumnWidth + mSpacing));
+            float left = getObjectLeft(index, mNumOfColumns, mColumnWidth);
+            float top = getObjectTop(index, mNumOfColumns, mColumnWidth);
 
             object.setLeftTop(left, top);
 
             object.setTranslate(left - (-halfColumnWidth), mStartOffsetY + top - (halfColumnWidth));
             object.setScale(mScale);
             object.setAlpha(1.0f);
-
-            mEndOffsetY = top - mColumnWidth;
-
-            xPosition++;
-            if (xPosition >= mNumOfColumns) {
-                xPosition = 0;
-                yPosition++;
-            }
         }
     }
 
     // initialization
 
+    // objects are bound to the images around the viewport by checkVisibility()
     void createObjects(GalleryNode parentNode) {
         if (DEBUG) {
-            Log.d(TAG, "createObjects(parentNode)");
+            Log.d(TAG, "createObjects(parentNode) numOfImages=" + mNumOfImages +
+                    " pooled=" + ImageObjectPool.size());
         }
 
         mParentNode = parentNode;
 
-        for (int i = 0; i < mNumOfImages; i++) {
-            ImageObject object = new ImageObject("ImageObject_" + mDateLabelInfo.getIndex() + "_" + i);
-
-            mObjects.add(object);
-            mParentNode.addChild(object);
-            object.setGLState(mGLState);
-            object.setListener(mObjectListener);
-            object.setIndex(i);
-            object.setVisibility(false);
-
-            GLESVertexInfo vertexInfo = new GLESVertexInfo();
-            vertexInfo.setRenderType(GLESVertexInfo.RenderType.DRAW_ARRAYS);
-            vertexInfo.setPrimitiveMode(GLESVertexInfo.PrimitiveMode.TRIANGLE_STRIP);
-            object.setVertexInfo(vertexInfo, false, false);
-
-            ImageInfo imageInfo = mDateLabelInfo.get(i);
-            TextureMappingInfo textureMappingInfo = new TextureMappingInfo(object, imageInfo);
-            mTextureMappingInfos.add(textureMappingInfo);
-        }
+        invalidateWindow();
     }
 
     // set / get
@@ -636,9 +1127,9 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         mNeedToSetTranslate = true;
 
 
-        int size = mObjects.size();
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
             object.setStartOffsetY(startOffsetY);
         }
     }
@@ -658,9 +1149,9 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
     void setNextStartOffsetY(float nextStartOffsetY) {
         mNextStartOffsetY = nextStartOffsetY;
 
-        int size = mObjects.size();
+        int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            ImageObject object = mObjects.get(i);
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
             object.setNextStartOffsetY(nextStartOffsetY);
         }
     }
@@ -693,38 +1184,170 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         mCheckIndex = mShader.getAttribLocation("aTexCoord2");
     }
 
+    // sets the shader without touching GL state.
+    // used for objects created after setShader() is called on GL thread.
+    void setShader(GLESShader shader, int checkIndex) {
+        mShader = shader;
+        mCheckIndex = checkIndex;
+
+        int size = mTextureMappingInfos.size();
+        for (int i = 0; i < size; i++) {
+            ImageObject object = (ImageObject) mTextureMappingInfos.valueAt(i).getObject();
+            object.setShader(mShader);
+            object.setDummyTexture(sDummyTexture);
+        }
+    }
+
+    int getCheckIndex() {
+        return mCheckIndex;
+    }
+
     void setGLState(GLESGLState state) {
         mGLState = state;
     }
 
+    // null if the image is out of the window.
+    // mTextureMappingInfos is changed on the GL thread, so GalleryContext.sLockObject should be held on other threads.
     ImageObject getObject(int index) {
-        return mObjects.get(index);
+        TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(index);
+        if (textureMappingInfo != null) {
+            return (ImageObject) textureMappingInfo.getObject();
+        }
+
+        return null;
+    }
+
+    // called on the GL thread. an image out of the window is bound until the window is checked on the next frame
+    ImageObject bindObjectIfNeeded(int index) {
+        ImageObject object = getObject(index);
+        if (object != null) {
+            return object;
+        }
+
+        object = bindObject(index);
+        invalidateWindow();
+
+        return object;
     }
 
     void delete(int index) {
-        TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(index);
+        delete(index, 1);
+    }
 
-        GalleryTexture texture = textureMappingInfo.getTexture();
-        texture = null;
+    void delete(int index, int count) {
+        for (int i = mTextureMappingInfos.size() - 1; i >= 0; i--) {
+            int objectIndex = mTextureMappingInfos.keyAt(i);
+            if (objectIndex >= index && objectIndex < index + count) {
+                releaseObject(i);
+            }
+        }
 
-        mTextureMappingInfos.remove(index);
+        reindex(index, -count);
+        invalidateWindow();
+    }
 
-        ImageObject object = mObjects.remove(index);
-        mParentNode.removeChild(object);
+    // the image inserted into mDateLabelInfo at index is bound when it comes into the window.
+    // position is set by onImagesInserted().
+    void insert(int index) {
+        reindex(index, 1);
+        invalidateWindow();
+    }
+
+    // objects from fromIndex are moved by delta.
+    // textures in flight keep their index, so it should follow the object
+    private void reindex(int fromIndex, int delta) {
+        mInvisibleObjects.clear();
+
+        SparseArray<TextureMappingInfo> textureMappingInfos = new SparseArray<>(mTextureMappingInfos.size());
+
+        int size = mTextureMappingInfos.size();
+        for (int i = 0; i < size; i++) {
+            int index = mTextureMappingInfos.keyAt(i);
+            TextureMappingInfo textureMappingInfo = mTextureMappingInfos.valueAt(i);
+
+            if (index >= fromIndex) {
+                index += delta;
+
+                textureMappingInfo.getObject().setIndex(index);
+
+                GalleryTexture texture = textureMappingInfo.getTexture();
+                if (texture != null) {
+                    texture.setIndex(index);
+                }
+            }
+
+            textureMappingInfos.append(index, textureMappingInfo);
+        }
+
+        mTextureMappingInfos = textureMappingInfos;
     }
 
     @Override
     public void onImageLoaded(int index, GalleryTexture texture) {
-        TextureMappingInfo textureMappingInfo = mTextureMappingInfos.get(index);
-        final ImageObject object = (ImageObject) textureMappingInfo.getObject();
+        TextureUploader textureUploader = mSurfaceView.getTextureUploader();
+        if (textureUploader.isAvailable() == true) {
+            textureUploader.upload(new ThumbnailUploadJob(texture));
+            return;
+        }
 
-        final Bitmap bitmap = texture.getBitmapDrawable().getBitmap();
+        mWaitingTextures.add(texture);
+        mSurfaceView.requestRender();
+    }
+
+    private class ThumbnailUploadJob implements TextureUploader.UploadJob {
+        private final GalleryTexture mTexture;
 
+        ThumbnailUploadJob(GalleryTexture texture) {
+            mTexture = texture;
+        }
+
+        // the state is checked under the lock of the texture, so a canceled texture is not uploaded
+        @Override
+        public boolean upload() {
+            synchronized (mTexture) {
+                if (mTexture.getState() != TextureState.QUEUING) {
+                    return false;
+                }
+
+                loadTexture(mTexture);
+            }
+            return true;
+        }
+
+        // the texture is destroyed if it is unmapped while it is uploaded
+        @Override
+        public void swap() {
+            if (isMapped(mTexture) == true) {
+                swapTexture(mTexture);
+            } else {
+                mTexture.destroy();
+            }
+        }
+
+        // a texture which is still waiting is uploaded on the GL thread instead.
+        // nothing is done for a canceled one.
+        @Override
+        public void onDropped() {
+            synchronized (mTexture) {
+                if (mTexture.getState() == TextureState.QUEUING) {
+                    mWaitingTextures.add(mTexture);
+                    mSurfaceView.requestRender();
+                    return;
+                }
+            }
+
+            if (mTexture.getState() == TextureState.LOADED) {
+                swap();
+            }
+        }
+    }
+
+    // set when the texture is loaded, because the aspect ratio of the tiers can be different
+    private void setTexCoord(ImageObject object, ImageInfo imageInfo, Bitmap bitmap) {
         int imageWidth = 0;
         int imageHeight = 0;
 
         if (bitmap == null) {
-            ImageInfo imageInfo = (ImageInfo) textureMappingInfo.getGalleryInfo();
             imageWidth = imageInfo.getWidth();
             imageHeight = imageInfo.getHeight();
         } else {
@@ -736,15 +1359,12 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
 
         GLESVertexInfo vertexInfo = object.getVertexInfo();
         vertexInfo.setBuffer(mShader.getTexCoordAttribIndex(), texCoord, 2);
-
-        mWaitingTextures.add(texture);
-        mSurfaceView.requestRender();
     }
 
     void cancelLoading() {
         int size = mTextureMappingInfos.size();
         for (int i = 0; i < size; i++) {
-            TextureMappingInfo info = mTextureMappingInfos.get(i);
+            TextureMappingInfo info = mTextureMappingInfos.valueAt(i);
 
             GalleryTexture texture = info.getTexture();
             if (texture == null) {
@@ -779,6 +1399,7 @@ class ImageObjects implements ImageLoadingListener, GridInfoChangeListener {
         }
 
         mInvisibleObjects.clear();
+        mIsOnAnimation = false;
     }
 
     private void invalidateObject(ImageObject object) {
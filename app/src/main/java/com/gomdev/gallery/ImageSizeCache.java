@@ -0,0 +1,179 @@
+package com.gomdev.gallery;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by gomdev on 15. 4. 8..
+ * <p/>
+ * Persistent width, height and orientation of images which MediaStore doesn't know.
+ * An entry is valid only while the date modified of the image is the same.
+ * <p/>
+ * header : magic, version, numOfEntries
+ * entry : path, dateModified, width, height, orientation
+ */
+class ImageSizeCache {
+    static final String CLASS = "ImageSizeCache";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    static final String FILE_NAME = "image_size.bin";
+
+    private static final int MAGIC = 0x474F4D53; // "GOMS"
+    private static final int VERSION = 1;
+
+    private final File mFile;
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+    private boolean mIsLoaded = false;
+    private boolean mIsDirty = false;
+
+    ImageSizeCache(File file) {
+        mFile = file;
+    }
+
+    // result : width, height and orientation as ImageHeaderParser
+    synchronized boolean get(String path, long dateModified, int[] result) {
+        load();
+
+        Entry entry = mEntries.get(path);
+        if (entry == null || entry.mDateModified != dateModified) {
+            return false;
+        }
+
+        result[ImageHeaderParser.WIDTH] = entry.mWidth;
+        result[ImageHeaderParser.HEIGHT] = entry.mHeight;
+        result[ImageHeaderParser.ORIENTATION] = entry.mOrientation;
+        return true;
+    }
+
+    synchronized void put(String path, long dateModified, int[] result) {
+        load();
+
+        mEntries.put(path, new Entry(dateModified,
+                result[ImageHeaderParser.WIDTH],
+                result[ImageHeaderParser.HEIGHT],
+                result[ImageHeaderParser.ORIENTATION]));
+        mIsDirty = true;
+    }
+
+    synchronized void save() {
+        if (mIsDirty == false) {
+            return;
+        }
+
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                Entry value = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(value.mDateModified);
+                out.writeInt(value.mWidth);
+                out.writeInt(value.mHeight);
+                out.writeShort(value.mOrientation);
+            }
+
+            out.close();
+            out = null;
+
+            if (tmpFile.renameTo(mFile) == false) {
+                Log.e(TAG, "save() rename failed");
+                tmpFile.delete();
+                return;
+            }
+
+            mIsDirty = false;
+        } catch (IOException e) {
+            Log.e(TAG, "save() " + e.getMessage());
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (mIsLoaded == true) {
+            return;
+        }
+
+        mIsLoaded = true;
+
+        if (mFile.exists() == false) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+
+            int numOfEntries = in.readInt();
+            for (int i = 0; i < numOfEntries; i++) {
+                String path = in.readUTF();
+                long dateModified = in.readLong();
+                int width = in.readInt();
+                int height = in.readInt();
+                int orientation = in.readShort();
+
+                mEntries.put(path, new Entry(dateModified, width, height, orientation));
+            }
+
+            if (DEBUG) {
+                Log.d(TAG, "load() numOfEntries=" + numOfEntries);
+            }
+        } catch (EOFException e) {
+            Log.e(TAG, "load() truncated");
+            mEntries.clear();
+        } catch (IOException e) {
+            Log.e(TAG, "load() " + e.getMessage());
+            mEntries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        final long mDateModified;
+        final int mWidth;
+        final int mHeight;
+        final int mOrientation;
+
+        Entry(long dateModified, int width, int height, int orientation) {
+            mDateModified = dateModified;
+            mWidth = width;
+            mHeight = height;
+            mOrientation = orientation;
+        }
+    }
+}
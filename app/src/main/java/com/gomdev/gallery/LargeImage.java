@@ -2,9 +2,11 @@ package com.gomdev.gallery;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
 import android.graphics.Rect;
 import android.opengl.GLES20;
+import android.util.Log;
 import android.view.MotionEvent;
 
 import com.gomdev.gles.GLESCamera;
@@ -47,6 +49,7 @@ public class LargeImage {
     }
 
     private final Context mContext;
+    private GallerySurfaceView mSurfaceView = null;
 
     private ImageInfo mImageInfo;
 
@@ -95,11 +98,17 @@ public class LargeImage {
 
     // rendering
 
+    // tiles are uploaded by TextureUploader if it is available.
+    // otherwise, this function waits for the tiles to be decoded and uploads them.
     void updateTexture() {
         int numOfUpdatedTexture = 0;
 
         mCompletionService = new ExecutorCompletionService<>(mExecutor);
 
+        final TextureUploader textureUploader = (mSurfaceView != null) ?
+                mSurfaceView.getTextureUploader() : null;
+        boolean isUploaderAvailable = (textureUploader != null) && textureUploader.isAvailable();
+
         float translateX = 0f;
         float translateY = 0f;
 
@@ -131,13 +140,24 @@ public class LargeImage {
             boolean isInScreen = isInScreen(left, right, bottom, top);
 
             if (isInScreen == true && object.isTextureMapped() == false) {
+                if (object.isTextureRequested() == true) {
+                    continue;
+                }
+
                 int imageX = object.getImageX();
                 int imageY = object.getmImageY();
-                numOfUpdatedTexture++;
 
                 final Rect rect = new Rect(imageX, imageY, imageX + width, imageY + height);
                 final int index = i;
 
+                if (isUploaderAvailable == true) {
+                    object.setTextureRequested(true);
+                    requestTile(textureUploader, index, object, rect);
+                    continue;
+                }
+
+                numOfUpdatedTexture++;
+
                 mCompletionService.submit(new Callable<BlockInfo>() {
                     @Override
                     public BlockInfo call() throws Exception {
@@ -164,12 +184,8 @@ public class LargeImage {
                 Bitmap bitmap = blockInfo.mBitmap;
                 int index = blockInfo.mIndex;
 
-                GLESTexture.Builder builder = new GLESTexture.Builder(
-                        GLES20.GL_TEXTURE_2D, bitmap.getWidth(), bitmap.getHeight())
-                        .setWrapMode(GLES20.GL_CLAMP_TO_EDGE)
-                        .setFilter(GLES20.GL_NEAREST, GLES20.GL_NEAREST);
-                GLESTexture texture = builder.load(bitmap);
-                bitmap.recycle();
+                GLESTexture texture = loadTexture(bitmap);
+                BitmapPool.getInstance().put(bitmap);
                 bitmap = null;
 
                 mObjects[index].setTexture(texture);
@@ -184,13 +200,109 @@ public class LargeImage {
         }
     }
 
+    private void requestTile(final TextureUploader textureUploader, final int index,
+                             final LargeImageObject object, final Rect rect) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Bitmap bitmap = decodeRegion(rect);
+                    textureUploader.upload(new TileUploadJob(index, object, bitmap));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "requestTile() " + e);
+                    object.setTextureRequested(false);
+                }
+            }
+        });
+    }
+
+    private static GLESTexture loadTexture(Bitmap bitmap) {
+        GLESTexture.Builder builder = new GLESTexture.Builder(
+                GLES20.GL_TEXTURE_2D, bitmap.getWidth(), bitmap.getHeight())
+                .setWrapMode(GLES20.GL_CLAMP_TO_EDGE)
+                .setFilter(GLES20.GL_NEAREST, GLES20.GL_NEAREST);
+        return builder.load(bitmap);
+    }
+
+    private class TileUploadJob implements TextureUploader.UploadJob {
+        private final int mIndex;
+        private final LargeImageObject mObject;
+        private Bitmap mBitmap;
+        private GLESTexture mTexture = null;
+
+        TileUploadJob(int index, LargeImageObject object, Bitmap bitmap) {
+            mIndex = index;
+            mObject = object;
+            mBitmap = bitmap;
+        }
+
+        @Override
+        public boolean upload() {
+            if (mBitmap == null) {
+                return false;
+            }
+
+            mTexture = loadTexture(mBitmap);
+            BitmapPool.getInstance().put(mBitmap);
+            mBitmap = null;
+
+            return true;
+        }
+
+        // the texture is destroyed if another image is loaded while it is uploaded
+        @Override
+        public void swap() {
+            if (mIndex < mNumOfObjects && mObjects[mIndex] == mObject) {
+                mObject.setTexture(mTexture);
+                mObject.setTextureMapped(true);
+                mObject.setTextureRequested(false);
+            } else {
+                mTexture.destroy();
+            }
+        }
+
+        // the tile is requested again by updateTexture()
+        @Override
+        public void onDropped() {
+            if (mBitmap != null) {
+                BitmapPool.getInstance().put(mBitmap);
+                mBitmap = null;
+            }
+
+            if (mTexture != null) {
+                mTexture.destroy();
+                mTexture = null;
+            }
+
+            mObject.setTextureRequested(false);
+        }
+    }
+
     private BlockInfo decodeRegion(int index, Rect rect) {
-        Bitmap bitmap = mDecoder.decodeRegion(rect, null);
+        Bitmap bitmap = decodeRegion(rect);
         BlockInfo blockInfo = new BlockInfo(index, bitmap);
 
         return blockInfo;
     }
 
+    // region decoder draws into inBitmap without resizing it, so only the same size is reused.
+    private Bitmap decodeRegion(Rect rect) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inBitmap = BitmapPool.getInstance().get(rect.width(), rect.height(), Bitmap.Config.ARGB_8888);
+
+        try {
+            return mDecoder.decodeRegion(rect, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            return mDecoder.decodeRegion(rect, options);
+        }
+    }
+
 
     // onSurfaceChanged
     void onSurfaceChanged(int width, int height) {
@@ -205,6 +317,10 @@ public class LargeImage {
 
     // initialize
 
+    void setSurfaceView(GallerySurfaceView surfaceView) {
+        mSurfaceView = surfaceView;
+    }
+
     void setCamera(GLESCamera camera) {
         mCamera = camera;
     }
@@ -442,13 +558,13 @@ public class LargeImage {
 
                 if (isInScreen(mObjects[index]) == true) {
                     rect.set(imageX, imageY, imageX + objWidth, imageY + objHeight);
-                    Bitmap bitmap = mDecoder.decodeRegion(rect, null);
+                    Bitmap bitmap = decodeRegion(rect);
                     GLESTexture.Builder builder = new GLESTexture.Builder(
                             GLES20.GL_TEXTURE_2D, bitmap.getWidth(), bitmap.getHeight())
                             .setWrapMode(GLES20.GL_CLAMP_TO_EDGE)
                             .setFilter(GLES20.GL_NEAREST, GLES20.GL_NEAREST);
                     GLESTexture texture = builder.load(bitmap);
-                    bitmap.recycle();
+                    BitmapPool.getInstance().put(bitmap);
                     bitmap = null;
 
                     mObjects[index].setTexture(texture);
@@ -22,6 +22,7 @@ public class LargeImageObject extends GLESObject {
     private int mTextureID = -1;
 
     private boolean mIsTextureMapped = false;
+    private volatile boolean mIsTextureRequested = false;    // decoded and uploaded by TextureUploader
 
     public LargeImageObject() {
         super();
@@ -88,4 +89,12 @@ public class LargeImageObject extends GLESObject {
     boolean isTextureMapped() {
         return mIsTextureMapped;
     }
+
+    void setTextureRequested(boolean isTextureRequested) {
+        mIsTextureRequested = isTextureRequested;
+    }
+
+    boolean isTextureRequested() {
+        return mIsTextureRequested;
+    }
 }
@@ -0,0 +1,102 @@
+package com.gomdev.gallery;
+
+/**
+ * Created by gomdev on 15. 4. 15..
+ * <p/>
+ * Histogram of latencies in microseconds with a fixed number of buckets.
+ * Each power of 2 is divided into SUB_BUCKETS, so a percentile is
+ * within 1 / SUB_BUCKETS of the recorded value.
+ */
+class LatencyHistogram {
+    static final String CLASS = "LatencyHistogram";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int NUM_OF_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final int[] mCounts = new int[NUM_OF_BUCKETS];
+    private long mCount = 0L;
+    private long mSum = 0L;
+    private long mMax = 0L;
+
+    synchronized void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+
+        mCounts[getIndex(value)]++;
+        mCount++;
+        mSum += value;
+        mMax = Math.max(mMax, value);
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            mCounts[i] = 0;
+        }
+
+        mCount = 0L;
+        mSum = 0L;
+        mMax = 0L;
+    }
+
+    synchronized long getCount() {
+        return mCount;
+    }
+
+    synchronized long getMean() {
+        return (mCount > 0L) ? mSum / mCount : 0L;
+    }
+
+    synchronized long getMax() {
+        return mMax;
+    }
+
+    // percentile : 0 ~ 100, returns the upper bound of the bucket
+    synchronized long getPercentile(float percentile) {
+        if (mCount == 0L) {
+            return 0L;
+        }
+
+        long target = (long) Math.ceil(mCount * percentile / 100f);
+        target = Math.max(target, 1L);
+
+        long count = 0L;
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                return Math.min(getValue(i + 1) - 1L, mMax);
+            }
+        }
+
+        return mMax;
+    }
+
+    private static int getIndex(long value) {
+        // exact for small values
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int index = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+
+        return Math.min(index, NUM_OF_BUCKETS - 1);
+    }
+
+    // lower bound of the bucket
+    private static long getValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+
+        return (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+}
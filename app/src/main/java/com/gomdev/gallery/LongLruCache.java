@@ -0,0 +1,306 @@
+package com.gomdev.gallery;
+
+import java.util.Arrays;
+
+/**
+ * Created by gomdev on 15. 4. 10..
+ * <p/>
+ * LruCache keyed by long without boxing.
+ * Entries are kept in parallel arrays and linked in an intrusive LRU list,
+ * and are found by an open addressing table of entry indices.
+ * get() doesn't allocate anything.
+ */
+class LongLruCache<V> {
+    static final String CLASS = "LongLruCache";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NONE = -1;
+
+    private int mMaxSize;
+    private int mSize = 0;
+
+    // entries
+    private long[] mKeys;
+    private Object[] mValues;
+    private int[] mSizes;
+    private int[] mPrev;
+    private int[] mNext;
+    private int mNumOfEntries = 0;
+    private int mFreeEntry = NONE;      // linked by mNext
+    private int mNumOfUsedEntries = 0;  // entries which are used at least once
+
+    // LRU list, head is the least recently used
+    private int mHead = NONE;
+    private int mTail = NONE;
+
+    // open addressing table of entry indices, linear probing
+    private int[] mTable;
+    private int mMask;
+
+    LongLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        mMaxSize = maxSize;
+
+        mKeys = new long[INITIAL_CAPACITY];
+        mValues = new Object[INITIAL_CAPACITY];
+        mSizes = new int[INITIAL_CAPACITY];
+        mPrev = new int[INITIAL_CAPACITY];
+        mNext = new int[INITIAL_CAPACITY];
+
+        mTable = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(mTable, NONE);
+        mMask = mTable.length - 1;
+    }
+
+    protected int sizeOf(long key, V value) {
+        return 1;
+    }
+
+    // called with the lock of this cache
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized final V get(long key) {
+        int entry = findEntry(key);
+        if (entry == NONE) {
+            return null;
+        }
+
+        moveToTail(entry);
+        return (V) mValues[entry];
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized final V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        int size = sizeOf(key, value);
+
+        V oldValue = null;
+        int entry = findEntry(key);
+        if (entry != NONE) {
+            oldValue = (V) mValues[entry];
+            mSize -= mSizes[entry];
+
+            mValues[entry] = value;
+            mSizes[entry] = size;
+            moveToTail(entry);
+        } else {
+            entry = obtainEntry();
+            mKeys[entry] = key;
+            mValues[entry] = value;
+            mSizes[entry] = size;
+            linkToTail(entry);
+            insertToTable(entry);
+        }
+
+        mSize += size;
+
+        if (oldValue != null && oldValue != value) {
+            entryRemoved(false, key, oldValue, value);
+        }
+
+        trimToSize(mMaxSize);
+        return oldValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized final V remove(long key) {
+        int entry = findEntry(key);
+        if (entry == NONE) {
+            return null;
+        }
+
+        V oldValue = (V) mValues[entry];
+        removeEntry(entry);
+        entryRemoved(false, key, oldValue, null);
+
+        return oldValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized final void trimToSize(int maxSize) {
+        while (mSize > maxSize && mHead != NONE) {
+            int entry = mHead;
+            long key = mKeys[entry];
+            V oldValue = (V) mValues[entry];
+
+            removeEntry(entry);
+            entryRemoved(true, key, oldValue, null);
+        }
+    }
+
+    final void evictAll() {
+        trimToSize(-1);
+    }
+
+    synchronized final int size() {
+        return mSize;
+    }
+
+    synchronized final int maxSize() {
+        return mMaxSize;
+    }
+
+    synchronized final void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    synchronized final int getNumOfEntries() {
+        return mNumOfEntries;
+    }
+
+    private int findEntry(long key) {
+        int slot = hash(key) & mMask;
+        while (true) {
+            int entry = mTable[slot];
+            if (entry == NONE) {
+                return NONE;
+            }
+
+            if (mKeys[entry] == key) {
+                return entry;
+            }
+
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    private int obtainEntry() {
+        int entry;
+        if (mFreeEntry != NONE) {
+            entry = mFreeEntry;
+            mFreeEntry = mNext[entry];
+        } else {
+            if (mNumOfUsedEntries == mKeys.length) {
+                growEntries(mKeys.length * 2);
+            }
+            entry = mNumOfUsedEntries++;
+        }
+
+        mNumOfEntries++;
+        if (mNumOfEntries * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        }
+
+        return entry;
+    }
+
+    private void removeEntry(int entry) {
+        removeFromTable(entry);
+        unlink(entry);
+
+        mSize -= mSizes[entry];
+        mValues[entry] = null;
+        mSizes[entry] = 0;
+
+        mNext[entry] = mFreeEntry;
+        mFreeEntry = entry;
+        mNumOfEntries--;
+    }
+
+    private void insertToTable(int entry) {
+        int slot = hash(mKeys[entry]) & mMask;
+        while (mTable[slot] != NONE) {
+            slot = (slot + 1) & mMask;
+        }
+        mTable[slot] = entry;
+    }
+
+    // backward shift deletion, so no tombstone is needed
+    private void removeFromTable(int entry) {
+        int slot = hash(mKeys[entry]) & mMask;
+        while (mTable[slot] != entry) {
+            slot = (slot + 1) & mMask;
+        }
+
+        int hole = slot;
+        int next = (hole + 1) & mMask;
+        while (mTable[next] != NONE) {
+            int home = hash(mKeys[mTable[next]]) & mMask;
+            // move the entry to the hole if the hole is between its home and its slot
+            if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+                mTable[hole] = mTable[next];
+                hole = next;
+            }
+            next = (next + 1) & mMask;
+        }
+
+        mTable[hole] = NONE;
+    }
+
+    private void rehash(int tableSize) {
+        mTable = new int[tableSize];
+        Arrays.fill(mTable, NONE);
+        mMask = tableSize - 1;
+
+        for (int entry = mHead; entry != NONE; entry = mNext[entry]) {
+            insertToTable(entry);
+        }
+    }
+
+    private void growEntries(int capacity) {
+        mKeys = Arrays.copyOf(mKeys, capacity);
+        mValues = Arrays.copyOf(mValues, capacity);
+        mSizes = Arrays.copyOf(mSizes, capacity);
+        mPrev = Arrays.copyOf(mPrev, capacity);
+        mNext = Arrays.copyOf(mNext, capacity);
+    }
+
+    private void moveToTail(int entry) {
+        if (entry == mTail) {
+            return;
+        }
+
+        unlink(entry);
+        linkToTail(entry);
+    }
+
+    private void linkToTail(int entry) {
+        mPrev[entry] = mTail;
+        mNext[entry] = NONE;
+
+        if (mTail != NONE) {
+            mNext[mTail] = entry;
+        } else {
+            mHead = entry;
+        }
+        mTail = entry;
+    }
+
+    private void unlink(int entry) {
+        int prev = mPrev[entry];
+        int next = mNext[entry];
+
+        if (prev != NONE) {
+            mNext[prev] = next;
+        } else {
+            mHead = next;
+        }
+
+        if (next != NONE) {
+            mPrev[next] = prev;
+        } else {
+            mTail = prev;
+        }
+    }
+
+    private static int hash(long key) {
+        // image ids are sequential, spread them over the table
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -6,6 +6,7 @@ import android.graphics.PixelFormat;
 import android.opengl.GLSurfaceView;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
@@ -16,6 +17,7 @@ public class MainActivity extends Activity {
     private static final boolean DEBUG = GalleryConfig.DEBUG;
 
     private GLSurfaceView mSurfaceView = null;
+    private final Handler mHandler = new Handler();
 
     public MainActivity() {
         if (DEBUG) {
@@ -93,7 +95,8 @@ public class MainActivity extends Activity {
 
             mStartTick = System.nanoTime();
 
-            imageLoader.checkAndLoadImages();
+            // returns when bucket covers are ready. rest of images are loaded in background.
+            imageLoader.loadImagesProgressively();
 
             Log.d(TAG, "init() loading duration=" + ((System.nanoTime() - mStartTick) / 1000000));
             return null;
@@ -108,14 +111,18 @@ public class MainActivity extends Activity {
             long currentTick = System.nanoTime();
             long durationInMS = (currentTick - mStartTick) / 1000000L;
 
-            if (durationInMS < GalleryConfig.MAINACTIVITY_DURATION) {
-                try {
-                    Thread.currentThread().sleep(GalleryConfig.MAINACTIVITY_DURATION - durationInMS);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            long remainingInMS = GalleryConfig.MAINACTIVITY_DURATION - durationInMS;
+            if (remainingInMS > 0) {
+                mHandler.postDelayed(mStartBucketListRunnable, remainingInMS);
+            } else {
+                mStartBucketListRunnable.run();
             }
+        }
+    };
 
+    private final Runnable mStartBucketListRunnable = new Runnable() {
+        @Override
+        public void run() {
             Intent intent = new Intent(MainActivity.this, com.gomdev.gallery.BucketListActivity.class);
             MainActivity.this.startActivity(intent);
             finish();
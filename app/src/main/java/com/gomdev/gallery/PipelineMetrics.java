@@ -0,0 +1,202 @@
+package com.gomdev.gallery;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by gomdev on 15. 4. 15..
+ * <p/>
+ * Counters and latency histograms of the thumbnail pipeline.
+ * Latency of a source is from the request to the end of decoding.
+ * It is dumped by "adb shell dumpsys activity com.gomdev.gallery/.ImageListActivity",
+ * and shown on the album view if GalleryConfig.SHOW_PIPELINE_METRICS is true.
+ */
+class PipelineMetrics {
+    static final String CLASS = "PipelineMetrics";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    enum Source {
+        MEMORY,
+        DISK,
+        MEDIA_STORE,
+        FILE
+    }
+
+    enum Stage {
+        QUEUE_WAIT,
+        DISK_READ,
+        MEDIA_STORE_THUMBNAIL,
+        FILE_DECODE,
+        ROTATE,
+        COMPRESSED_TEXTURE,
+        TEXTURE_UPLOAD
+    }
+
+    private static PipelineMetrics sPipelineMetrics = null;
+
+    static synchronized PipelineMetrics getInstance() {
+        if (sPipelineMetrics == null) {
+            sPipelineMetrics = new PipelineMetrics();
+        }
+        return sPipelineMetrics;
+    }
+
+    // microseconds
+    static long now() {
+        return System.nanoTime() / 1000L;
+    }
+
+    private final AtomicInteger[] mSourceCounts = new AtomicInteger[Source.values().length];
+    private final LatencyHistogram[] mSourceLatencies = new LatencyHistogram[Source.values().length];
+    private final LatencyHistogram[] mStageLatencies = new LatencyHistogram[Stage.values().length];
+
+    private final AtomicInteger mNumOfDroppedRequests = new AtomicInteger();  // canceled in the queue
+    private final AtomicInteger mNumOfStoppedDecodes = new AtomicInteger();   // stopped in the middle
+    private final AtomicInteger mNumOfWastedDecodes = new AtomicInteger();    // finished and thrown away
+    private final AtomicLong mWastedDecodeTime = new AtomicLong();            // us
+
+    private final AtomicInteger mNumOfUploadOverruns = new AtomicInteger();   // frames over TextureUploadBudget
+    private final AtomicLong mUploadOverrunTime = new AtomicLong();           // us
+
+    private PipelineMetrics() {
+        for (int i = 0; i < mSourceCounts.length; i++) {
+            mSourceCounts[i] = new AtomicInteger();
+            mSourceLatencies[i] = new LatencyHistogram();
+        }
+
+        for (int i = 0; i < mStageLatencies.length; i++) {
+            mStageLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    void recordSource(Source source, long latency) {
+        mSourceCounts[source.ordinal()].incrementAndGet();
+        mSourceLatencies[source.ordinal()].record(latency);
+    }
+
+    void recordStage(Stage stage, long latency) {
+        mStageLatencies[stage.ordinal()].record(latency);
+    }
+
+    // overrun : time over the budget of the frame
+    void onUploadBudgetOverrun(long overrun) {
+        mNumOfUploadOverruns.incrementAndGet();
+        mUploadOverrunTime.addAndGet(overrun);
+    }
+
+    void onRequestDropped() {
+        mNumOfDroppedRequests.incrementAndGet();
+    }
+
+    // elapsedTime : time spent on the canceled decode
+    void onDecodeCanceled(long elapsedTime, boolean isStopped) {
+        if (isStopped == true) {
+            mNumOfStoppedDecodes.incrementAndGet();
+        } else {
+            mNumOfWastedDecodes.incrementAndGet();
+        }
+        long wastedDecodeTime = mWastedDecodeTime.addAndGet(elapsedTime);
+
+        if (DEBUG) {
+            Log.d(TAG, "onDecodeCanceled() stopped=" + mNumOfStoppedDecodes.get() +
+                    " wasted=" + mNumOfWastedDecodes.get() + " time=" + wastedDecodeTime / 1000L + "ms");
+        }
+    }
+
+    int getCount(Source source) {
+        return mSourceCounts[source.ordinal()].get();
+    }
+
+    // 0 ~ 1
+    float getMemoryHitRatio() {
+        int numOfRequests = 0;
+        for (AtomicInteger count : mSourceCounts) {
+            numOfRequests += count.get();
+        }
+
+        return (numOfRequests > 0) ? (float) getCount(Source.MEMORY) / numOfRequests : 0f;
+    }
+
+    // 0 ~ 1, of the requests which missed the memory cache
+    float getDiskHitRatio() {
+        int numOfMisses = getCount(Source.DISK) + getCount(Source.MEDIA_STORE) + getCount(Source.FILE);
+        return (numOfMisses > 0) ? (float) getCount(Source.DISK) / numOfMisses : 0f;
+    }
+
+    void reset() {
+        for (int i = 0; i < mSourceCounts.length; i++) {
+            mSourceCounts[i].set(0);
+            mSourceLatencies[i].reset();
+        }
+
+        for (LatencyHistogram histogram : mStageLatencies) {
+            histogram.reset();
+        }
+
+        mNumOfDroppedRequests.set(0);
+        mNumOfStoppedDecodes.set(0);
+        mNumOfWastedDecodes.set(0);
+        mWastedDecodeTime.set(0L);
+        mNumOfUploadOverruns.set(0);
+        mUploadOverrunTime.set(0L);
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + CLASS + " (latency in ms)");
+        writer.println(prefix + String.format(Locale.US, "  memory hit=%.1f%% disk hit=%.1f%%",
+                getMemoryHitRatio() * 100f, getDiskHitRatio() * 100f));
+        writer.println(prefix + "  dropped=" + mNumOfDroppedRequests.get() +
+                " stopped=" + mNumOfStoppedDecodes.get() +
+                " wasted=" + mNumOfWastedDecodes.get() +
+                " wastedTime=" + mWastedDecodeTime.get() / 1000L + "ms");
+        writer.println(prefix + "  upload overrun=" + mNumOfUploadOverruns.get() +
+                " overrunTime=" + mUploadOverrunTime.get() / 1000L + "ms");
+
+        writer.println(prefix + "  source");
+        for (Source source : Source.values()) {
+            dumpHistogram(prefix + "    ", source.name(), mSourceLatencies[source.ordinal()], writer);
+        }
+
+        writer.println(prefix + "  stage");
+        for (Stage stage : Stage.values()) {
+            dumpHistogram(prefix + "    ", stage.name(), mStageLatencies[stage.ordinal()], writer);
+        }
+    }
+
+    private static void dumpHistogram(String prefix, String name, LatencyHistogram histogram, PrintWriter writer) {
+        writer.println(prefix + String.format(Locale.US,
+                "%-22s n=%-6d p50=%-8.1f p95=%-8.1f p99=%-8.1f max=%.1f",
+                name, histogram.getCount(),
+                histogram.getPercentile(50f) / 1000f,
+                histogram.getPercentile(95f) / 1000f,
+                histogram.getPercentile(99f) / 1000f,
+                histogram.getMax() / 1000f));
+    }
+
+    // a few lines for the overlay
+    String getSummary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "mem %.0f%% disk %.0f%% wasted %dms\n",
+                getMemoryHitRatio() * 100f, getDiskHitRatio() * 100f, mWastedDecodeTime.get() / 1000L));
+
+        for (Source source : Source.values()) {
+            LatencyHistogram histogram = mSourceLatencies[source.ordinal()];
+            builder.append(String.format(Locale.US, "%s %d p50 %.1f p95 %.1f p99 %.1f\n",
+                    source.name(), histogram.getCount(),
+                    histogram.getPercentile(50f) / 1000f,
+                    histogram.getPercentile(95f) / 1000f,
+                    histogram.getPercentile(99f) / 1000f));
+        }
+
+        LatencyHistogram queueWait = mStageLatencies[Stage.QUEUE_WAIT.ordinal()];
+        builder.append(String.format(Locale.US, "queue p50 %.1f p95 %.1f",
+                queueWait.getPercentile(50f) / 1000f, queueWait.getPercentile(95f) / 1000f));
+
+        return builder.toString();
+    }
+}
@@ -19,12 +19,13 @@ package com.gomdev.gallery;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import android.opengl.ETC1Util;
 import android.util.Log;
 
 /**
  * A BitmapDrawable that keeps track of whether it is being displayed or cached.
  * When the drawable is no longer being displayed or cached,
- * {@link android.graphics.Bitmap#recycle() recycle()} will be called on this drawable's bitmap.
+ * this drawable's bitmap is handed over to {@link BitmapPool} to be reused.
  */
 class RecyclingBitmapDrawable extends BitmapDrawable {
     static final String CLASS = "RecyclingBitmapDrawable";
@@ -35,11 +36,23 @@ class RecyclingBitmapDrawable extends BitmapDrawable {
     private int mDisplayRefCount = 0;
 
     private boolean mHasBeenDisplayed;
+    private boolean mIsReleased = false;
+
+    // encoded from the bitmap, uploaded instead of the bitmap if it exists
+    private ETC1Util.ETC1Texture mCompressedTexture = null;
 
     RecyclingBitmapDrawable(Resources res, Bitmap bitmap) {
         super(res, bitmap);
     }
 
+    void setCompressedTexture(ETC1Util.ETC1Texture compressedTexture) {
+        mCompressedTexture = compressedTexture;
+    }
+
+    ETC1Util.ETC1Texture getCompressedTexture() {
+        return mCompressedTexture;
+    }
+
     /**
      * Notify the drawable that the displayed state has changed. Internally a
      * count is kept so that the drawable knows when it is no longer being
@@ -84,13 +97,16 @@ class RecyclingBitmapDrawable extends BitmapDrawable {
 
     private synchronized void checkState() {
         if (mCacheRefCount <= 0 && mDisplayRefCount <= 0 && mHasBeenDisplayed
-                && hasValidBitmap()) {
+                && mIsReleased == false && hasValidBitmap()) {
             if (DEBUG) {
-                Log.d(TAG, "No longer being used or cached so recycling. "
+                Log.d(TAG, "No longer being used or cached so releasing to pool. "
                         + toString());
             }
 
-            getBitmap().recycle();
+            // bitmap may be reused by others once it is in the pool
+            mIsReleased = true;
+
+            BitmapPool.getInstance().put(getBitmap());
         }
     }
 
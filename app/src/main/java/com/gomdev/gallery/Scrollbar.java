@@ -284,6 +284,21 @@ class Scrollbar implements GridInfoChangeListener {
         calcScrollbarHeight();
     }
 
+    @Override
+    public void onImagesInserted(int dateLabelIndex, int index, int count) {
+        calcScrollbarHeight();
+    }
+
+    @Override
+    public void onImagesDeleted(int dateLabelIndex, int index, int count) {
+        calcScrollbarHeight();
+    }
+
+    @Override
+    public void onDateLabelInserted(int dateLabelIndex) {
+        calcScrollbarHeight();
+    }
+
     // initialize
 
     void setSurfaceView(GallerySurfaceView surfaceView) {
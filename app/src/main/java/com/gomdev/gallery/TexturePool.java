@@ -0,0 +1,162 @@
+package com.gomdev.gallery;
+
+import android.graphics.Bitmap;
+import android.opengl.ETC1;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import com.gomdev.gles.GLESTexture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by gomdev on 15. 4. 18..
+ * <p/>
+ * Textures of thumbnails which scrolled out, kept for the ones which scroll in.
+ * A texture is reused by a bitmap of the same size and format with glTexSubImage2D,
+ * so its id is not deleted and generated again.
+ * The pool keeps about the number of visible tiles, and is emptied on onPause().
+ * Textures are deleted when they are evicted, so the pool should be used with a context current.
+ * A released texture is reused only a few frames after it is released, because draws of
+ * the GL thread may still use it while TextureUploader fills it in the shared context.
+ * The frames in flight are limited by eglSwapBuffers(), so no glFinish() is needed.
+ */
+class TexturePool {
+    static final String CLASS = "TexturePool";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static TexturePool sTexturePool = null;
+
+    static synchronized TexturePool getInstance() {
+        if (sTexturePool == null) {
+            sTexturePool = new TexturePool();
+        }
+        return sTexturePool;
+    }
+
+    private static class Entry {
+        final long mKey;
+        final GLESTexture mTexture;
+        final long mReleasedFrame;
+
+        Entry(long key, GLESTexture texture, long releasedFrame) {
+            mKey = key;
+            mTexture = texture;
+            mReleasedFrame = releasedFrame;
+        }
+    }
+
+    // from the least recently released one
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    // released in the last frames, not reused yet. in the released order.
+    private final ArrayList<Entry> mReleasedEntries = new ArrayList<>();
+    private int mMaxSize = GalleryConfig.MIN_TEXTURE_POOL_SIZE;
+    private long mFrame = 0L;
+
+    private int mNumOfReuses = 0;
+    private int mNumOfCreations = 0;
+
+    private TexturePool() {
+    }
+
+    static long getKey(Bitmap bitmap) {
+        return getKey(bitmap.getWidth(), bitmap.getHeight(),
+                GLUtils.getInternalFormat(bitmap), GLUtils.getType(bitmap));
+    }
+
+    static long getCompressedKey(int width, int height) {
+        return getKey(width, height, ETC1.ETC1_RGB8_OES, 0);
+    }
+
+    private static long getKey(int width, int height, int format, int type) {
+        return ((long) width << 48) | ((long) height << 32) |
+                ((long) (format & 0xFFFF) << 16) | (type & 0xFFFF);
+    }
+
+    // numOfTextures : number of visible tiles. the pool is trimmed by the next put().
+    synchronized void setMaxSize(int numOfTextures) {
+        mMaxSize = Math.max(numOfTextures, GalleryConfig.MIN_TEXTURE_POOL_SIZE);
+    }
+
+    // a texture of the same size is filled by the bitmap, or a new one is created by the builder
+    GLESTexture load(GLESTexture.Builder builder, Bitmap bitmap, long key) {
+        GLESTexture texture = get(key);
+        if (texture == null) {
+            return builder.load(bitmap);
+        }
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.getTextureID());
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+
+        return texture;
+    }
+
+    // returns null if there is no texture of the key
+    synchronized GLESTexture get(long key) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            Entry entry = mEntries.get(i);
+            if (entry.mKey == key) {
+                mEntries.remove(i);
+                mNumOfReuses++;
+                return entry.mTexture;
+            }
+        }
+
+        mNumOfCreations++;
+        return null;
+    }
+
+    synchronized void put(GLESTexture texture, long key) {
+        mReleasedEntries.add(new Entry(key, texture, mFrame));
+    }
+
+    // this function should be called on GLThread once a frame.
+    // textures released numOfFrames frames ago or before can be reused.
+    synchronized void recycleReleasedTextures(int numOfFrames) {
+        mFrame++;
+
+        int numOfRecycled = 0;
+        int size = mReleasedEntries.size();
+        while (numOfRecycled < size &&
+                mFrame - mReleasedEntries.get(numOfRecycled).mReleasedFrame >= numOfFrames) {
+            numOfRecycled++;
+        }
+
+        if (numOfRecycled == 0) {
+            return;
+        }
+
+        List<Entry> recycled = mReleasedEntries.subList(0, numOfRecycled);
+        mEntries.addAll(recycled);
+        recycled.clear();
+        trimToSize(mMaxSize);
+    }
+
+    // this function should be called on GLThread
+    synchronized void clear() {
+        if (DEBUG) {
+            Log.d(TAG, "clear() size=" + mEntries.size() + " reuses=" + mNumOfReuses +
+                    " creations=" + mNumOfCreations);
+        }
+
+        // deleted textures are freed by GL after the draws which use them
+        recycleReleasedTextures(0);
+        trimToSize(0);
+    }
+
+    // the context is destroyed with its textures
+    synchronized void abandon() {
+        mEntries.clear();
+        mReleasedEntries.clear();
+    }
+
+    private void trimToSize(int maxSize) {
+        while (mEntries.size() > maxSize) {
+            Entry entry = mEntries.remove(0);
+            entry.mTexture.destroy();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.gomdev.gallery;
+
+import android.util.Log;
+
+/**
+ * Created by gomdev on 15. 4. 16..
+ * <p/>
+ * Time budget of texture uploads in a frame.
+ * Textures are uploaded while the budget remains, and the rest waits for the next frame.
+ * At least one texture is uploaded in a frame, so a slow upload can overrun the budget.
+ * Overruns are counted by PipelineMetrics.
+ */
+class TextureUploadBudget {
+    static final String CLASS = "TextureUploadBudget";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private final long mBudget;     // ns
+
+    private long mFrameStartTime = 0L;
+    private int mNumOfUploads = 0;
+
+    TextureUploadBudget(long budget) {
+        mBudget = budget;
+    }
+
+    void startFrame() {
+        mFrameStartTime = System.nanoTime();
+        mNumOfUploads = 0;
+    }
+
+    boolean hasTime() {
+        if (mNumOfUploads == 0) {
+            return true;
+        }
+
+        return System.nanoTime() - mFrameStartTime < mBudget;
+    }
+
+    void onUploaded() {
+        mNumOfUploads++;
+    }
+
+    void endFrame() {
+        if (mNumOfUploads == 0) {
+            return;
+        }
+
+        long elapsedTime = System.nanoTime() - mFrameStartTime;
+        if (elapsedTime > mBudget) {
+            PipelineMetrics.getInstance().onUploadBudgetOverrun((elapsedTime - mBudget) / 1000L);
+
+            if (DEBUG) {
+                Log.d(TAG, "endFrame() overrun uploads=" + mNumOfUploads +
+                        " elapsed=" + elapsedTime / 1000L + "us");
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.gomdev.gallery;
+
+import android.opengl.GLES20;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * Created by gomdev on 15. 4. 17..
+ * <p/>
+ * Uploads textures on its own thread with an EGL context shared with the GL thread.
+ * Uploaded textures are fenced by glFinish(), and then handed to the GL thread,
+ * which only swaps them into the objects in swapTextures().
+ * Jobs which are not uploaded, or not swapped before stop(), are dropped on the GL thread.
+ * If the shared context can't be created, isAvailable() is false
+ * and textures are uploaded on the GL thread as before.
+ */
+class TextureUploader {
+    static final String CLASS = "TextureUploader";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    interface UploadJob {
+        // called on the uploader thread. returns false if nothing is uploaded.
+        boolean upload();
+
+        // called on the GL thread after the upload is finished
+        void swap();
+
+        // called on the GL thread instead of swap(), when upload() returns false or throws,
+        // or when the uploader is stopped before the job is swapped.
+        void onDropped();
+    }
+
+    private final GallerySurfaceView mSurfaceView;
+
+    private final BlockingQueue<UploadJob> mJobs = new LinkedBlockingQueue<>();
+    private final Queue<UploadJob> mFinishedJobs = new ConcurrentLinkedQueue<>();
+    private final Queue<UploadJob> mDroppedJobs = new ConcurrentLinkedQueue<>();
+
+    private EGL10 mEgl = null;
+    private EGLDisplay mDisplay = null;
+    private EGLContext mContext = null;
+    private EGLSurface mSurface = null;
+
+    private Thread mThread = null;
+    private volatile boolean mIsAvailable = false;
+
+    TextureUploader(GallerySurfaceView surfaceView) {
+        mSurfaceView = surfaceView;
+    }
+
+    boolean isAvailable() {
+        return mIsAvailable;
+    }
+
+    // called on the GL thread when the context of the GL thread is created
+    void start(EGL10 egl, EGLDisplay display, EGLConfig config, EGLContext sharedContext) {
+        stop();
+
+        int[] contextAttribs = {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+        EGLContext context = egl.eglCreateContext(display, config, sharedContext, contextAttribs);
+        if (context == null || context == EGL10.EGL_NO_CONTEXT) {
+            Log.e(TAG, "start() eglCreateContext error=" + egl.eglGetError());
+            return;
+        }
+
+        // the context needs a surface to be current
+        int[] surfaceAttribs = {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE};
+        EGLSurface surface = egl.eglCreatePbufferSurface(display, config, surfaceAttribs);
+        if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
+            Log.e(TAG, "start() eglCreatePbufferSurface error=" + egl.eglGetError());
+            egl.eglDestroyContext(display, context);
+            return;
+        }
+
+        mEgl = egl;
+        mDisplay = display;
+        mContext = context;
+        mSurface = surface;
+
+        mIsAvailable = true;
+
+        mThread = new Thread(mUploader, CLASS);
+        mThread.start();
+
+        if (DEBUG) {
+            Log.d(TAG, "start()");
+        }
+    }
+
+    // called on the GL thread before the context of the GL thread is destroyed
+    void stop() {
+        if (mThread == null) {
+            return;
+        }
+
+        mIsAvailable = false;
+
+        mThread.interrupt();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+
+        dropJobs(mJobs);
+        dropJobs(mFinishedJobs);
+        dropJobs(mDroppedJobs);
+
+        mEgl.eglDestroySurface(mDisplay, mSurface);
+        mEgl.eglDestroyContext(mDisplay, mContext);
+        mSurface = null;
+        mContext = null;
+
+        if (DEBUG) {
+            Log.d(TAG, "stop()");
+        }
+    }
+
+    void upload(UploadJob job) {
+        mJobs.add(job);
+    }
+
+    // this function should be called on GLThread
+    void swapTextures() {
+        // draws of the previous frames may still use the released textures,
+        // so the shared context fills them again only after they are out of flight.
+        // uploads on the GL thread are ordered with its draws.
+        TexturePool.getInstance().recycleReleasedTextures(mIsAvailable ?
+                GalleryConfig.TEXTURE_POOL_RELEASE_FRAMES : 0);
+
+        UploadJob job;
+        while ((job = mDroppedJobs.poll()) != null) {
+            job.onDropped();
+        }
+
+        while ((job = mFinishedJobs.poll()) != null) {
+            job.swap();
+        }
+    }
+
+    private static void dropJobs(Queue<UploadJob> jobs) {
+        UploadJob job;
+        while ((job = jobs.poll()) != null) {
+            job.onDropped();
+        }
+    }
+
+    private final Runnable mUploader = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+
+            if (mEgl.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext) == false) {
+                Log.e(TAG, "run() eglMakeCurrent error=" + mEgl.eglGetError());
+                mIsAvailable = false;
+                return;
+            }
+
+            ArrayList<UploadJob> uploadedJobs = new ArrayList<>();
+
+            try {
+                while (true) {
+                    UploadJob job = mJobs.take();
+
+                    // jobs which are queued together are fenced together
+                    do {
+                        try {
+                            if (job.upload() == true) {
+                                uploadedJobs.add(job);
+                            } else {
+                                mDroppedJobs.add(job);
+                            }
+                        } catch (RuntimeException e) {
+                            Log.e(TAG, "run() " + e);
+                            mDroppedJobs.add(job);
+                        }
+                    } while ((job = mJobs.poll()) != null);
+
+                    if (uploadedJobs.size() > 0) {
+                        GLES20.glFinish();
+
+                        mFinishedJobs.addAll(uploadedJobs);
+                        uploadedJobs.clear();
+                    } else if (mDroppedJobs.isEmpty() == true) {
+                        continue;
+                    }
+
+                    mSurfaceView.requestRender();
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } finally {
+                // not fenced, dropped by stop()
+                mDroppedJobs.addAll(uploadedJobs);
+
+                mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
+                        EGL10.EGL_NO_CONTEXT);
+            }
+        }
+    };
+}
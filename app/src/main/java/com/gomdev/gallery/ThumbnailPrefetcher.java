@@ -0,0 +1,186 @@
+package com.gomdev.gallery;
+
+import android.graphics.drawable.BitmapDrawable;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.gomdev.gallery.GalleryConfig.ThumbnailTier;
+
+/**
+ * Created by gomdev on 15. 4. 13..
+ * <p/>
+ * Warms the memory cache with thumbnails ahead of a fling.
+ * Tiles between the viewport and the final position of the fling are requested
+ * at low priority, so they are decoded when they come into the screen.
+ * Requests are canceled when the fling is finished or its direction is reversed.
+ */
+class ThumbnailPrefetcher {
+    static final String CLASS = "ThumbnailPrefetcher";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    static final int DIRECTION_NONE = 0;
+    static final int DIRECTION_DOWN = 1;    // translateY increases
+    static final int DIRECTION_UP = -1;
+
+    private static ThumbnailPrefetcher sThumbnailPrefetcher = null;
+
+    static synchronized ThumbnailPrefetcher getInstance() {
+        if (sThumbnailPrefetcher == null) {
+            sThumbnailPrefetcher = new ThumbnailPrefetcher(GalleryConfig.PREFETCH_BUDGET);
+        }
+        return sThumbnailPrefetcher;
+    }
+
+    private final int mBudget;
+
+    // requests in flight, keyed by image id
+    private final LongSparseArray<PrefetchTarget> mTargets = new LongSparseArray<>();
+    private int mPendingSize = 0;
+
+    private volatile int mDirection = DIRECTION_NONE;
+    private volatile float mFinalY = 0f;
+
+    ThumbnailPrefetcher(int budget) {
+        mBudget = budget;
+    }
+
+    // startY and finalY are translateY of the album view
+    void start(float startY, float finalY) {
+        int direction = DIRECTION_NONE;
+        if (finalY > startY) {
+            direction = DIRECTION_DOWN;
+        } else if (finalY < startY) {
+            direction = DIRECTION_UP;
+        }
+
+        if (direction != mDirection) {
+            cancelAll();
+        }
+
+        mFinalY = finalY;
+        mDirection = direction;
+    }
+
+    void stop() {
+        mDirection = DIRECTION_NONE;
+        cancelAll();
+    }
+
+    boolean isActive() {
+        return mDirection != DIRECTION_NONE;
+    }
+
+    int getDirection() {
+        return mDirection;
+    }
+
+    float getFinalY() {
+        return mFinalY;
+    }
+
+    int getBudget() {
+        return mBudget;
+    }
+
+    static int getEstimatedSize(ThumbnailTier tier, int tileSize) {
+        switch (tier) {
+            case MICRO:
+                return 96 * 96 * 4;
+            case MINI:
+                return 512 * 384 * 4;
+            default:
+                return tileSize * tileSize * 4;
+        }
+    }
+
+    // positionY : center of the tile, used for the priority of decoding
+    void prefetch(ImageInfo imageInfo, ThumbnailTier tier, float positionY, int estimatedSize) {
+        if (isActive() == false) {
+            return;
+        }
+
+        ImageLoader imageLoader = ImageLoader.getInstance();
+
+        synchronized (this) {
+            long imageID = imageInfo.getImageID();
+            if (mTargets.get(imageID) != null) {
+                return;
+            }
+
+            if (mPendingSize + estimatedSize > mBudget) {
+                return;
+            }
+
+            if (imageLoader.isThumbnailInMemCache(imageInfo, tier) == true) {
+                return;
+            }
+
+            PrefetchTarget target = new PrefetchTarget(imageID, positionY, estimatedSize);
+            mTargets.put(imageID, target);
+            mPendingSize += estimatedSize;
+
+            imageLoader.loadThumbnail(imageInfo, target, tier);
+        }
+    }
+
+    private void cancelAll() {
+        synchronized (this) {
+            int size = mTargets.size();
+            for (int i = 0; i < size; i++) {
+                BitmapWorker.cancelWork(mTargets.valueAt(i), false);
+            }
+
+            if (DEBUG) {
+                Log.d(TAG, "cancelAll() " + size);
+            }
+
+            mTargets.clear();
+            mPendingSize = 0;
+        }
+    }
+
+    private synchronized void onPrefetched(PrefetchTarget target) {
+        if (mTargets.get(target.mImageID) != target) {
+            return;
+        }
+
+        mTargets.remove(target.mImageID);
+        mPendingSize -= target.mEstimatedSize;
+    }
+
+    class PrefetchTarget implements BitmapContainer {
+        private final long mImageID;
+        private final float mPositionY;
+        private final int mEstimatedSize;
+
+        private BitmapDrawable mDrawable = null;
+
+        PrefetchTarget(long imageID, float positionY, int estimatedSize) {
+            mImageID = imageID;
+            mPositionY = positionY;
+            mEstimatedSize = estimatedSize;
+        }
+
+        float getPositionY() {
+            return mPositionY;
+        }
+
+        // bitmap is already in the memory cache when it is set
+        @Override
+        public void setBitmapDrawable(BitmapDrawable drawable) {
+            mDrawable = drawable;
+
+            if (drawable instanceof AsyncDrawable) {
+                return;
+            }
+
+            onPrefetched(this);
+        }
+
+        @Override
+        public BitmapDrawable getBitmapDrawable() {
+            return mDrawable;
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package com.gomdev.gallery;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.opengl.ETC1Util;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Created by gomdev on 15. 4. 11..
+ * <p/>
+ * Disk tier of thumbnails as raw RGB565 pixels in memory mapped segment files.
+ * A hit is copied to a bitmap from BitmapPool without decoding.
+ * ETC1 compressed texture of a thumbnail is kept in the same record.
+ * Records are packed from the front of a segment with the size of the thumbnail,
+ * so eviction and compaction are done for a whole segment.
+ * The number of segments follows the share of the disk budget,
+ * and a segment file is created only when the existing ones are full.
+ * Thumbnails are copied out under the read lock, so decode workers read in parallel.
+ * Bitmaps with alpha are not stored, RGB565 has no alpha.
+ * <p/>
+ * segment : magic, version, lastAccess, records, 0 as the size of the end record
+ * record : imageID(0 if dead), width, height, compressedSize(0 if none), recordSize,
+ * pixels, space for ETC1 compressed texture of the pixels
+ */
+class ThumbnailStore {
+    static final String CLASS = "ThumbnailStore";
+    static final String TAG = GalleryConfig.TAG + "_" + CLASS;
+    static final boolean DEBUG = GalleryConfig.DEBUG;
+
+    private static final int MAGIC = 0x474F4D54; // "GOMT"
+    private static final int VERSION = 3;
+
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int SEGMENT_LAST_ACCESS_OFFSET = 8;
+    private static final int RECORD_HEADER_SIZE = 24;
+    private static final int RECORD_WIDTH_OFFSET = 8;
+    private static final int RECORD_HEIGHT_OFFSET = 12;
+    private static final int RECORD_COMPRESSED_SIZE_OFFSET = 16;
+    private static final int RECORD_SIZE_OFFSET = 20;
+    private static final int BYTES_PER_PIXEL = 2;   // RGB565
+
+    private static final int MAX_PIXELS = GalleryConfig.THUMBNAIL_STORE_MAX_PIXELS;
+    private static final int SEGMENT_SIZE = GalleryConfig.THUMBNAIL_STORE_SEGMENT_SIZE;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    static int getNumOfSegments(long storeSize) {
+        return (int) Math.max(storeSize / SEGMENT_SIZE, GalleryConfig.THUMBNAIL_STORE_MIN_NUM_OF_SEGMENTS);
+    }
+
+    static long getStoreSize(int numOfSegments) {
+        return (long) SEGMENT_SIZE * numOfSegments;
+    }
+
+    private final File mDirectory;
+    // null until its file is created
+    private final Segment[] mSegments;
+    // segment index * SEGMENT_SIZE + record offset.
+    // get() of LongSparseArray doesn't modify it, so readers share it under the read lock.
+    private final LongSparseArray<Integer> mLocations = new LongSparseArray<>();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final byte[] mCopyBuffer = new byte[COPY_BUFFER_SIZE];
+
+    // records and mLocations are changed under the write lock
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final AtomicLong mAccessSequence = new AtomicLong(0L);
+
+    private Segment mActiveSegment = null;
+
+    private ThumbnailStore(File directory, int numOfSegments) {
+        mDirectory = directory;
+        mSegments = new Segment[numOfSegments];
+    }
+
+    static ThumbnailStore open(File directory, int numOfSegments) throws IOException {
+        if (directory.exists() == false && directory.mkdirs() == false) {
+            throw new IOException("mkdirs failed " + directory);
+        }
+
+        ThumbnailStore store = new ThumbnailStore(directory, numOfSegments);
+        for (int i = 0; i < numOfSegments; i++) {
+            File file = store.getSegmentFile(i);
+            if (file.exists() == true) {
+                store.mSegments[i] = store.openSegment(file, i);
+            }
+        }
+
+        // segments left from a larger budget
+        for (int i = numOfSegments; ; i++) {
+            File file = store.getSegmentFile(i);
+            if (file.exists() == false || file.delete() == false) {
+                break;
+            }
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "open() numOfSegments=" + numOfSegments + " numOfThumbnails=" + store.mLocations.size());
+        }
+
+        return store;
+    }
+
+    boolean contains(long imageID) {
+        mLock.readLock().lock();
+        try {
+            return mLocations.get(imageID) != null;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    boolean hasCompressedTexture(long imageID) {
+        mLock.readLock().lock();
+        try {
+            Integer location = mLocations.get(imageID);
+            if (location == null) {
+                return false;
+            }
+
+            Segment segment = mSegments[location / SEGMENT_SIZE];
+            int offset = location % SEGMENT_SIZE;
+            return segment.mBuffer.getInt(offset + RECORD_COMPRESSED_SIZE_OFFSET) > 0;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    // returns RGB565 bitmap, or null
+    Bitmap get(long imageID) {
+        mLock.readLock().lock();
+        try {
+            Integer location = mLocations.get(imageID);
+            if (location == null) {
+                return null;
+            }
+
+            Segment segment = mSegments[location / SEGMENT_SIZE];
+            int offset = location % SEGMENT_SIZE;
+            int width = segment.mBuffer.getInt(offset + RECORD_WIDTH_OFFSET);
+            int height = segment.mBuffer.getInt(offset + RECORD_HEIGHT_OFFSET);
+
+            Bitmap bitmap = BitmapPool.getInstance().get(width, height, Bitmap.Config.RGB_565);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+            }
+
+            ByteBuffer pixels = segment.mBuffer.duplicate();
+            pixels.limit(offset + RECORD_HEADER_SIZE + width * height * BYTES_PER_PIXEL);
+            pixels.position(offset + RECORD_HEADER_SIZE);
+            bitmap.copyPixelsFromBuffer(pixels);
+
+            touch(segment);
+
+            return bitmap;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    // returns null if the compressed texture is not stored
+    ETC1Util.ETC1Texture getCompressedTexture(long imageID) {
+        mLock.readLock().lock();
+        try {
+            Integer location = mLocations.get(imageID);
+            if (location == null) {
+                return null;
+            }
+
+            Segment segment = mSegments[location / SEGMENT_SIZE];
+            int offset = location % SEGMENT_SIZE;
+            int compressedSize = segment.mBuffer.getInt(offset + RECORD_COMPRESSED_SIZE_OFFSET);
+            if (compressedSize <= 0) {
+                return null;
+            }
+
+            int width = segment.mBuffer.getInt(offset + RECORD_WIDTH_OFFSET);
+            int height = segment.mBuffer.getInt(offset + RECORD_HEIGHT_OFFSET);
+            int compressedOffset = offset + getCompressedOffset(width, height);
+
+            ByteBuffer src = segment.mBuffer.duplicate();
+            src.limit(compressedOffset + compressedSize);
+            src.position(compressedOffset);
+
+            ByteBuffer data = ByteBuffer.allocateDirect(compressedSize).order(ByteOrder.nativeOrder());
+            data.put(src);
+            data.position(0);
+
+            touch(segment);
+
+            return new ETC1Util.ETC1Texture(width, height, data);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    // compressedTexture is stored only if it has the same size as the pixels in the record.
+    // otherwise it is encoded here from the pixels of the record.
+    void put(long imageID, Bitmap bitmap, ETC1Util.ETC1Texture compressedTexture) {
+        // drawn on RGB565, transparent pixels would keep the previous pixels of a pooled bitmap
+        if (bitmap.hasAlpha() == true) {
+            return;
+        }
+
+        // converted and encoded without the lock
+        Bitmap pixels = toRecordBitmap(bitmap);
+
+        if (GalleryConfig.USE_COMPRESSED_THUMBNAIL_TEXTURE == true &&
+                (compressedTexture == null ||
+                        compressedTexture.getWidth() != pixels.getWidth() ||
+                        compressedTexture.getHeight() != pixels.getHeight())) {
+            compressedTexture = hasCompressedTexture(imageID) ?
+                    null : ImageLoader.encodeCompressedTexture(pixels);
+        }
+
+        mLock.writeLock().lock();
+        try {
+            Integer location = mLocations.get(imageID);
+            if (location != null) {
+                putCompressedTexture(mSegments[location / SEGMENT_SIZE],
+                        location % SEGMENT_SIZE, compressedTexture, false);
+                return;
+            }
+
+            int width = pixels.getWidth();
+            int height = pixels.getHeight();
+            int recordSize = getRecordSize(width, height);
+
+            Segment segment = mActiveSegment;
+            if (segment == null || segment.getFreeSize() < recordSize) {
+                segment = obtainSegment(recordSize);
+                mActiveSegment = segment;
+            }
+
+            if (segment == null) {
+                return;
+            }
+
+            int offset = segment.mEndOffset;
+            int endOffset = offset + recordSize;
+
+            // end of the segment is marked before the record is written
+            if (endOffset + RECORD_HEADER_SIZE <= SEGMENT_SIZE) {
+                segment.mBuffer.putInt(endOffset + RECORD_SIZE_OFFSET, 0);
+            }
+
+            ByteBuffer buffer = segment.mBuffer.duplicate();
+            buffer.limit(offset + RECORD_HEADER_SIZE + width * height * BYTES_PER_PIXEL);
+            buffer.position(offset + RECORD_HEADER_SIZE);
+            pixels.copyPixelsToBuffer(buffer);
+
+            segment.mBuffer.putInt(offset + RECORD_COMPRESSED_SIZE_OFFSET, 0);
+            // image id is written last, a record without it is dead
+            segment.mBuffer.putInt(offset + RECORD_WIDTH_OFFSET, width);
+            segment.mBuffer.putInt(offset + RECORD_HEIGHT_OFFSET, height);
+            segment.mBuffer.putInt(offset + RECORD_SIZE_OFFSET, recordSize);
+            segment.mBuffer.putLong(offset, imageID);
+
+            putCompressedTexture(segment, offset, compressedTexture, true);
+
+            segment.mEndOffset = endOffset;
+            mLocations.put(imageID, segment.mIndex * SEGMENT_SIZE + offset);
+
+            touch(segment);
+        } finally {
+            mLock.writeLock().unlock();
+
+            if (pixels != bitmap) {
+                BitmapPool.getInstance().put(pixels);
+            }
+        }
+    }
+
+    private void putCompressedTexture(Segment segment, int offset,
+                                      ETC1Util.ETC1Texture compressedTexture, boolean isNewRecord) {
+        int width = segment.mBuffer.getInt(offset + RECORD_WIDTH_OFFSET);
+        int height = segment.mBuffer.getInt(offset + RECORD_HEIGHT_OFFSET);
+
+        if (compressedTexture == null ||
+                compressedTexture.getWidth() != width ||
+                compressedTexture.getHeight() != height) {
+            return;
+        }
+
+        if (isNewRecord == false && segment.mBuffer.getInt(offset + RECORD_COMPRESSED_SIZE_OFFSET) > 0) {
+            return;
+        }
+
+        ByteBuffer data = compressedTexture.getData().duplicate();
+        data.position(0);
+        int compressedSize = data.remaining();
+        int compressedOffset = getCompressedOffset(width, height);
+
+        // records without the space for it are written when compressed textures are not used
+        if (compressedOffset + compressedSize > segment.mBuffer.getInt(offset + RECORD_SIZE_OFFSET)) {
+            return;
+        }
+
+        ByteBuffer dst = segment.mBuffer.duplicate();
+        dst.position(offset + compressedOffset);
+        dst.put(data);
+
+        segment.mBuffer.putInt(offset + RECORD_COMPRESSED_SIZE_OFFSET, compressedSize);
+    }
+
+    void remove(long imageID) {
+        mLock.writeLock().lock();
+        try {
+            Integer location = mLocations.get(imageID);
+            if (location == null) {
+                return;
+            }
+
+            Segment segment = mSegments[location / SEGMENT_SIZE];
+            int offset = location % SEGMENT_SIZE;
+
+            segment.mBuffer.putLong(offset, 0L);
+            segment.mDeadSize += segment.mBuffer.getInt(offset + RECORD_SIZE_OFFSET);
+            mLocations.remove(imageID);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    // a segment which has room for the record, or a new one, or a compacted one,
+    // or the least recently used one. null if no segment can be created.
+    private Segment obtainSegment(int recordSize) {
+        Segment free = null;
+        Segment fragmented = null;
+        Segment lru = null;
+        int newIndex = -1;
+
+        for (int i = 0; i < mSegments.length; i++) {
+            Segment segment = mSegments[i];
+            if (segment == null) {
+                if (newIndex < 0) {
+                    newIndex = i;
+                }
+                continue;
+            }
+
+            if (segment.getFreeSize() >= recordSize &&
+                    (free == null || segment.getFreeSize() > free.getFreeSize())) {
+                free = segment;
+            }
+
+            if (fragmented == null || segment.mDeadSize > fragmented.mDeadSize) {
+                fragmented = segment;
+            }
+
+            if (lru == null || segment.mLastAccess < lru.mLastAccess) {
+                lru = segment;
+            }
+        }
+
+        if (free != null) {
+            return free;
+        }
+
+        if (newIndex >= 0) {
+            try {
+                mSegments[newIndex] = openSegment(getSegmentFile(newIndex), newIndex);
+                return mSegments[newIndex];
+            } catch (IOException e) {
+                Log.e(TAG, "obtainSegment() " + e);
+            }
+        }
+
+        if (fragmented == null) {
+            return null;
+        }
+
+        if (fragmented.mDeadSize >= SEGMENT_SIZE / 4 &&
+                fragmented.getFreeSize() + fragmented.mDeadSize >= recordSize) {
+            compact(fragmented);
+            return fragmented;
+        }
+
+        evict(lru);
+        return lru;
+    }
+
+    // moves live records to the front of the segment
+    private void compact(Segment segment) {
+        ByteBuffer buffer = segment.mBuffer;
+
+        int to = SEGMENT_HEADER_SIZE;
+        int from = SEGMENT_HEADER_SIZE;
+        while (from < segment.mEndOffset) {
+            long imageID = buffer.getLong(from);
+            int recordSize = buffer.getInt(from + RECORD_SIZE_OFFSET);
+
+            if (imageID != 0L) {
+                if (from != to) {
+                    move(buffer, from, to, recordSize);
+                    buffer.putLong(to, imageID);
+                    mLocations.put(imageID, segment.mIndex * SEGMENT_SIZE + to);
+                }
+                to += recordSize;
+            }
+
+            from += recordSize;
+        }
+
+        if (to + RECORD_HEADER_SIZE <= SEGMENT_SIZE) {
+            buffer.putInt(to + RECORD_SIZE_OFFSET, 0);
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "compact() segment=" + segment.mIndex + " " + segment.mEndOffset + " -> " + to);
+        }
+
+        segment.mEndOffset = to;
+        segment.mDeadSize = 0;
+    }
+
+    // to is before from. the record is copied forward in chunks, so it may overlap.
+    // image id of the destination is written by the caller.
+    private void move(ByteBuffer buffer, int from, int to, int size) {
+        // dead until the caller writes the image id
+        buffer.putLong(to, 0L);
+
+        ByteBuffer src = buffer.duplicate();
+        ByteBuffer dst = buffer.duplicate();
+        src.position(from + 8);
+        dst.position(to + 8);
+
+        int remaining = size - 8;
+        while (remaining > 0) {
+            int length = Math.min(remaining, mCopyBuffer.length);
+            src.get(mCopyBuffer, 0, length);
+            dst.put(mCopyBuffer, 0, length);
+            remaining -= length;
+        }
+    }
+
+    private void evict(Segment segment) {
+        ByteBuffer buffer = segment.mBuffer;
+
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset < segment.mEndOffset) {
+            long imageID = buffer.getLong(offset);
+            if (imageID != 0L) {
+                mLocations.remove(imageID);
+            }
+            offset += buffer.getInt(offset + RECORD_SIZE_OFFSET);
+        }
+
+        buffer.putInt(SEGMENT_HEADER_SIZE + RECORD_SIZE_OFFSET, 0);
+
+        if (DEBUG) {
+            Log.d(TAG, "evict() segment=" + segment.mIndex);
+        }
+
+        segment.mEndOffset = SEGMENT_HEADER_SIZE;
+        segment.mDeadSize = 0;
+    }
+
+    // called under the read lock too. a stale value only changes which segment is evicted.
+    private void touch(Segment segment) {
+        long lastAccess = mAccessSequence.incrementAndGet();
+        segment.mLastAccess = lastAccess;
+        segment.mBuffer.putLong(SEGMENT_LAST_ACCESS_OFFSET, lastAccess);
+    }
+
+    // RGB565 bitmap which is not larger than MINI_KIND
+    private Bitmap toRecordBitmap(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (bitmap.getConfig() == Bitmap.Config.RGB_565 && width * height <= MAX_PIXELS) {
+            return bitmap;
+        }
+
+        if (width * height > MAX_PIXELS) {
+            float scale = (float) Math.sqrt((double) MAX_PIXELS / (width * height));
+            width = Math.max((int) (width * scale), 1);
+            height = Math.max((int) (height * scale), 1);
+        }
+
+        Bitmap pixels = BitmapPool.getInstance().get(width, height, Bitmap.Config.RGB_565);
+        if (pixels == null) {
+            pixels = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        }
+
+        Canvas canvas = new Canvas(pixels);
+        synchronized (mPaint) {
+            canvas.drawBitmap(bitmap, null, new Rect(0, 0, width, height), mPaint);
+        }
+
+        return pixels;
+    }
+
+    private File getSegmentFile(int index) {
+        return new File(mDirectory, "segment." + index);
+    }
+
+    private Segment openSegment(File file, int index) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buffer;
+        try {
+            if (raf.length() != SEGMENT_SIZE) {
+                raf.setLength(0);
+                raf.setLength(SEGMENT_SIZE);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        } finally {
+            // mapping is valid after the file is closed
+            raf.close();
+        }
+
+        Segment segment = new Segment(index, buffer);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            buffer.putLong(SEGMENT_LAST_ACCESS_OFFSET, 0L);
+            buffer.putInt(SEGMENT_HEADER_SIZE + RECORD_SIZE_OFFSET, 0);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return segment;
+        }
+
+        segment.mLastAccess = buffer.getLong(SEGMENT_LAST_ACCESS_OFFSET);
+        if (segment.mLastAccess > mAccessSequence.get()) {
+            mAccessSequence.set(segment.mLastAccess);
+        }
+
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= SEGMENT_SIZE) {
+            int recordSize = buffer.getInt(offset + RECORD_SIZE_OFFSET);
+            if (recordSize < RECORD_HEADER_SIZE || offset + recordSize > SEGMENT_SIZE) {
+                break;
+            }
+
+            long imageID = buffer.getLong(offset);
+            int width = buffer.getInt(offset + RECORD_WIDTH_OFFSET);
+            int height = buffer.getInt(offset + RECORD_HEIGHT_OFFSET);
+
+            if (imageID != 0L && (width <= 0 || height <= 0 || width * height > MAX_PIXELS ||
+                    getCompressedOffset(width, height) > recordSize ||
+                    mLocations.get(imageID) != null)) {
+                buffer.putLong(offset, 0L);
+                imageID = 0L;
+            }
+
+            if (imageID == 0L) {
+                segment.mDeadSize += recordSize;
+            } else {
+                int compressedSize = buffer.getInt(offset + RECORD_COMPRESSED_SIZE_OFFSET);
+                if (compressedSize < 0 || getCompressedOffset(width, height) + compressedSize > recordSize) {
+                    buffer.putInt(offset + RECORD_COMPRESSED_SIZE_OFFSET, 0);
+                }
+
+                mLocations.put(imageID, index * SEGMENT_SIZE + offset);
+            }
+
+            offset += recordSize;
+        }
+
+        // a torn record at the end is dropped
+        segment.mEndOffset = offset;
+        if (offset + RECORD_HEADER_SIZE <= SEGMENT_SIZE) {
+            buffer.putInt(offset + RECORD_SIZE_OFFSET, 0);
+        }
+
+        return segment;
+    }
+
+    private static int getCompressedOffset(int width, int height) {
+        return RECORD_HEADER_SIZE + width * height * BYTES_PER_PIXEL;
+    }
+
+    // space for the compressed texture is kept only when it is used
+    private static int getRecordSize(int width, int height) {
+        int size = getCompressedOffset(width, height);
+        if (GalleryConfig.USE_COMPRESSED_THUMBNAIL_TEXTURE == true) {
+            size += Etc1Encoder.getEncodedSize(width, height);
+        }
+        return size;
+    }
+
+    private static class Segment {
+        final int mIndex;
+        final MappedByteBuffer mBuffer;
+
+        int mEndOffset = SEGMENT_HEADER_SIZE;   // records before it are allocated
+        int mDeadSize = 0;
+        volatile long mLastAccess = 0L;
+
+        Segment(int index, MappedByteBuffer buffer) {
+            mIndex = index;
+            mBuffer = buffer;
+        }
+
+        int getFreeSize() {
+            return SEGMENT_SIZE - mEndOffset;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.gomdev.gallery;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by gomdev on 15. 4. 19..
+ * <p/>
+ * Encodes with Etc1Encoder and decodes with a decoder written from the ETC1 spec,
+ * for images of full blocks, odd sizes and blocks on the edge.
+ */
+public class Etc1EncoderTest {
+    // same order as the pixel index : 00, 01, 10, 11
+    private static final int[][] MODIFIER_TABLE = {
+            {2, 8, -2, -8},
+            {5, 17, -5, -17},
+            {9, 29, -9, -29},
+            {13, 42, -13, -42},
+            {18, 60, -18, -60},
+            {24, 80, -24, -80},
+            {33, 106, -33, -106},
+            {47, 183, -47, -183}
+    };
+
+    // MINI_KIND
+    private static final int BENCHMARK_WIDTH = 512;
+    private static final int BENCHMARK_HEIGHT = 384;
+    private static final int BENCHMARK_WARM_UP = 5;
+    private static final int BENCHMARK_ITERATIONS = 20;
+    // about 33ms on a desktop JVM. ImageLoader encodes on the disk cache writer thread.
+    private static final double BENCHMARK_MAX_MS_PER_IMAGE = 100.0;
+
+    @Test
+    public void encodedSize() {
+        assertEquals(8, Etc1Encoder.getEncodedSize(1, 1));
+        assertEquals(8, Etc1Encoder.getEncodedSize(4, 4));
+        assertEquals(16, Etc1Encoder.getEncodedSize(5, 3));
+        assertEquals(48, Etc1Encoder.getEncodedSize(7, 9));
+        assertEquals(512 * 384 / 2, Etc1Encoder.getEncodedSize(512, 384));
+    }
+
+    @Test
+    public void solidBlocksRoundTrip() {
+        int[] colors = {0xFF000000, 0xFFFFFFFF, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0xFF808080, 0xFF3C7FB4};
+        for (int color : colors) {
+            int[] pixels = new int[4 * 4];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = color;
+            }
+
+            int[] decoded = roundTrip(pixels, 4, 4);
+            assertTrue(Integer.toHexString(color) + " error=" + getMaxError(pixels, decoded, 4, 4),
+                    getMaxError(pixels, decoded, 4, 4) <= 8);
+        }
+    }
+
+    // halves too far apart for differential mode
+    @Test
+    public void individualModeRoundTrip() {
+        int[] pixels = new int[4 * 4];
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                pixels[y * 4 + x] = (x < 2) ? 0xFF000000 : 0xFFFFFFFF;
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(Etc1Encoder.BLOCK_SIZE);
+        Etc1Encoder.encode(pixels, 4, 4, out);
+        assertEquals(0, out.get(3) & 0x2);
+
+        int[] decoded = decode(out, 4, 4);
+        assertTrue(getMaxError(pixels, decoded, 4, 4) <= 17);
+    }
+
+    // top and bottom halves are fitted better with the flipped sub blocks
+    @Test
+    public void flippedSubBlocksRoundTrip() {
+        int[] pixels = new int[4 * 4];
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                pixels[y * 4 + x] = (y < 2) ? 0xFF204060 : 0xFFE0C0A0;
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(Etc1Encoder.BLOCK_SIZE);
+        Etc1Encoder.encode(pixels, 4, 4, out);
+        assertEquals(1, out.get(3) & 0x1);
+
+        int[] decoded = decode(out, 4, 4);
+        assertTrue(getMaxError(pixels, decoded, 4, 4) <= 17);
+    }
+
+    @Test
+    public void imagesRoundTrip() {
+        int[][] sizes = {{64, 64}, {1, 1}, {3, 5}, {6, 4}, {37, 23}, {512, 384}, {383, 511}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            int[] pixels = createImage(width, height);
+
+            int[] decoded = roundTrip(pixels, width, height);
+            double psnr = getPSNR(pixels, decoded, width, height);
+            assertTrue(width + "x" + height + " psnr=" + psnr, psnr > 30.0);
+        }
+    }
+
+    // pixels out of the image are the pixels on the edge,
+    // so the blocks on the edge are as good as the ones inside.
+    @Test
+    public void edgeBlocks() {
+        int width = 6;
+        int height = 7;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = (x >= 4 || y >= 4) ? 0xFF30A050 : 0xFF000000;
+            }
+        }
+
+        int[] decoded = roundTrip(pixels, width, height);
+        assertTrue(getMaxError(pixels, decoded, width, height) <= 8);
+    }
+
+    // ImageLoader encodes a row of blocks at a time
+    @Test
+    public void blockRowsAreSameAsImage() {
+        int width = 37;
+        int height = 23;
+        int[] pixels = createImage(width, height);
+
+        ByteBuffer image = ByteBuffer.allocate(Etc1Encoder.getEncodedSize(width, height));
+        Etc1Encoder.encode(pixels, width, height, image);
+
+        ByteBuffer rows = ByteBuffer.allocate(Etc1Encoder.getEncodedSize(width, height));
+        int[] row = new int[width * 4];
+        for (int y = 0; y < height; y += 4) {
+            int numOfRows = Math.min(4, height - y);
+            System.arraycopy(pixels, y * width, row, 0, width * numOfRows);
+            Etc1Encoder.encodeBlockRow(row, width, numOfRows, rows);
+        }
+
+        assertArrayEquals(image.array(), rows.array());
+    }
+
+    // timing depends on the machine, so it is not a part of the test suite.
+    // remove @Ignore and run ./gradlew testDebug to measure it.
+    @Ignore("benchmark")
+    @Test
+    public void benchmarkMiniKindThumbnail() {
+        int[] pixels = createImage(BENCHMARK_WIDTH, BENCHMARK_HEIGHT);
+        ByteBuffer out = ByteBuffer.allocate(Etc1Encoder.getEncodedSize(BENCHMARK_WIDTH, BENCHMARK_HEIGHT));
+
+        for (int i = 0; i < BENCHMARK_WARM_UP; i++) {
+            out.clear();
+            Etc1Encoder.encode(pixels, BENCHMARK_WIDTH, BENCHMARK_HEIGHT, out);
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            out.clear();
+            Etc1Encoder.encode(pixels, BENCHMARK_WIDTH, BENCHMARK_HEIGHT, out);
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        double msPerImage = elapsed / 1000000.0 / BENCHMARK_ITERATIONS;
+        double mpixelsPerSecond = (double) BENCHMARK_WIDTH * BENCHMARK_HEIGHT * BENCHMARK_ITERATIONS * 1000.0 / elapsed;
+
+        assertEquals(out.capacity(), out.position());
+        assertTrue(BENCHMARK_WIDTH + "x" + BENCHMARK_HEIGHT
+                        + " " + String.format("%.2f", msPerImage) + "ms/image"
+                        + " " + String.format("%.1f", mpixelsPerSecond) + "Mpixels/s",
+                msPerImage < BENCHMARK_MAX_MS_PER_IMAGE);
+    }
+
+    private static int[] roundTrip(int[] pixels, int width, int height) {
+        ByteBuffer out = ByteBuffer.allocate(Etc1Encoder.getEncodedSize(width, height));
+        Etc1Encoder.encode(pixels, width, height, out);
+        assertEquals(out.capacity(), out.position());
+
+        return decode(out, width, height);
+    }
+
+    // smooth gradients with a bit of noise, like a photo
+    private static int[] createImage(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(128 + (int) (100 * Math.sin(x / 40.0)) + random.nextInt(9) - 4);
+                int g = clamp(128 + (int) (100 * Math.cos(y / 30.0)) + random.nextInt(9) - 4);
+                int b = clamp(128 + (int) (64 * Math.sin((x + y) / 16.0)) + random.nextInt(9) - 4);
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] decode(ByteBuffer data, int width, int height) {
+        int[] pixels = new int[width * height];
+        int blocksPerRow = (width + 3) / 4;
+
+        for (int by = 0; by < (height + 3) / 4; by++) {
+            for (int bx = 0; bx < blocksPerRow; bx++) {
+                int offset = (by * blocksPerRow + bx) * Etc1Encoder.BLOCK_SIZE;
+                int high = data.getInt(offset);
+                int low = data.getInt(offset + 4);
+                decodeBlock(high, low, pixels, bx * 4, by * 4, width, height);
+            }
+        }
+        return pixels;
+    }
+
+    private static void decodeBlock(int high, int low, int[] pixels, int left, int top, int width, int height) {
+        boolean isDifferential = (high & 0x2) != 0;
+        boolean flip = (high & 0x1) != 0;
+        int[] tables = {(high >> 5) & 0x7, (high >> 2) & 0x7};
+
+        int[] base = new int[6];
+        for (int c = 0; c < 3; c++) {
+            int shift = 24 - c * 8;
+            if (isDifferential == true) {
+                int q0 = (high >> (shift + 3)) & 0x1F;
+                int delta = ((high >> shift) & 0x7) << 29 >> 29;
+                int q1 = q0 + delta;
+                base[c] = (q0 << 3) | (q0 >> 2);
+                base[3 + c] = (q1 << 3) | (q1 >> 2);
+            } else {
+                int q0 = (high >> (shift + 4)) & 0xF;
+                int q1 = (high >> shift) & 0xF;
+                base[c] = q0 * 17;
+                base[3 + c] = q1 * 17;
+            }
+        }
+
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                if (left + x >= width || top + y >= height) {
+                    continue;
+                }
+
+                int i = x * 4 + y;
+                int index = (((low >> (16 + i)) & 1) << 1) | ((low >> i) & 1);
+                int s = (flip ? y : x) < 2 ? 0 : 1;
+                int modifier = MODIFIER_TABLE[tables[s]][index];
+
+                int r = clamp(base[s * 3] + modifier);
+                int g = clamp(base[s * 3 + 1] + modifier);
+                int b = clamp(base[s * 3 + 2] + modifier);
+                pixels[(top + y) * width + left + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static int getMaxError(int[] expected, int[] actual, int width, int height) {
+        int maxError = 0;
+        for (int i = 0; i < width * height; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int error = Math.abs(((expected[i] >> shift) & 0xFF) - ((actual[i] >> shift) & 0xFF));
+                maxError = Math.max(maxError, error);
+            }
+        }
+        return maxError;
+    }
+
+    private static double getPSNR(int[] expected, int[] actual, int width, int height) {
+        double sum = 0.0;
+        for (int i = 0; i < width * height; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int error = ((expected[i] >> shift) & 0xFF) - ((actual[i] >> shift) & 0xFF);
+                sum += error * error;
+            }
+        }
+
+        double mse = sum / (width * height * 3);
+        if (mse == 0.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 10.0 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,201 @@
+package com.gomdev.gallery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by gomdev on 15. 4. 19..
+ * <p/>
+ * Builds a library as the loader does, buckets of date labels with about 20 images,
+ * once with BucketInfo and DateLabelInfo, which keep an ImageInfoStore for each label,
+ * and once with an ArrayList of ImageInfo for each label, as DateLabelInfo did before.
+ * Then it compares the retained heap of both.
+ * <p/>
+ * The ImageInfo cache of DateLabelInfo is created by get(), so it is empty here.
+ * On screen it holds weak references to the visible images only.
+ */
+public class ImageInfoStoreFootprintTest {
+    private static final int NUM_OF_BUCKETS = 20;
+    private static final int NUM_OF_IMAGES_IN_BUCKET = 500;
+    private static final int NUM_OF_IMAGES_IN_DATE_LABEL = 20;
+    private static final int NUM_OF_IMAGES = NUM_OF_BUCKETS * NUM_OF_IMAGES_IN_BUCKET;
+    private static final int NUM_OF_ROUNDS = 5;
+
+    private static final String ROOT = "/storage/emulated/0/DCIM/";
+    private static final long DATE_TAKEN = 1429401600000L;
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private interface Catalog {
+        Object build();
+    }
+
+    // DateLabelInfo before ImageInfoStore
+    private static class ImageInfoListDateLabel {
+        final String mDate;
+        final ArrayList<ImageInfo> mImageInfos = new ArrayList<>();
+
+        ImageInfoListDateLabel(String date) {
+            mDate = date;
+        }
+    }
+
+    private static final Catalog IMAGE_INFO_LIST = new Catalog() {
+        @Override
+        public Object build() {
+            List<List<ImageInfoListDateLabel>> buckets = new ArrayList<>();
+            for (int b = 0; b < NUM_OF_BUCKETS; b++) {
+                List<ImageInfoListDateLabel> dateLabels = new ArrayList<>();
+                ImageInfoListDateLabel dateLabel = null;
+                for (int i = 0; i < NUM_OF_IMAGES_IN_BUCKET; i++) {
+                    if (i % NUM_OF_IMAGES_IN_DATE_LABEL == 0) {
+                        dateLabel = new ImageInfoListDateLabel(getDate(i));
+                        dateLabels.add(dateLabel);
+                    }
+                    dateLabel.mImageInfos.add(createImageInfo(b, i));
+                }
+
+                for (ImageInfoListDateLabel label : dateLabels) {
+                    label.mImageInfos.trimToSize();
+                }
+                buckets.add(dateLabels);
+            }
+            return buckets;
+        }
+    };
+
+    private static final Catalog IMAGE_INFO_STORE = new Catalog() {
+        @Override
+        public Object build() {
+            List<BucketInfo> bucketInfos = new ArrayList<>();
+            for (int b = 0; b < NUM_OF_BUCKETS; b++) {
+                BucketInfo bucketInfo = new BucketInfo(b);
+                bucketInfo.setName("Bucket" + b);
+
+                DateLabelInfo dateLabelInfo = null;
+                for (int i = 0; i < NUM_OF_IMAGES_IN_BUCKET; i++) {
+                    if (i % NUM_OF_IMAGES_IN_DATE_LABEL == 0) {
+                        dateLabelInfo = new DateLabelInfo(getDate(i));
+                        bucketInfo.add(dateLabelInfo);
+                    }
+                    dateLabelInfo.add(createImageInfo(b, i));
+                }
+
+                bucketInfo.trimToSize();
+                bucketInfos.add(bucketInfo);
+            }
+            return bucketInfos;
+        }
+    };
+
+    // new Strings for each image and date label, as the cursor and DateUtils return them
+    private static ImageInfo createImageInfo(int bucket, int i) {
+        ImageInfo imageInfo = new ImageInfo(bucket * NUM_OF_IMAGES_IN_BUCKET + i + 1, (i % 4) * 90);
+        imageInfo.setImagePath(ROOT + "Bucket" + bucket + "/IMG_20150419_" + String.format("%06d", i) + ".jpg");
+        imageInfo.setWidth(4128);
+        imageInfo.setHeight(3096);
+        imageInfo.setDateTaken(DATE_TAKEN - (i / NUM_OF_IMAGES_IN_DATE_LABEL) * DAY - i * 1000L);
+        return imageInfo;
+    }
+
+    private static String getDate(int i) {
+        return "Apr " + (i / NUM_OF_IMAGES_IN_DATE_LABEL + 1) + ", 2015";
+    }
+
+    @Test
+    public void storeKeepsImageInfos() {
+        @SuppressWarnings("unchecked")
+        List<BucketInfo> bucketInfos = (List<BucketInfo>) IMAGE_INFO_STORE.build();
+
+        assertEquals(NUM_OF_BUCKETS, bucketInfos.size());
+        for (int b = 0; b < NUM_OF_BUCKETS; b++) {
+            BucketInfo bucketInfo = bucketInfos.get(b);
+            assertEquals(NUM_OF_IMAGES_IN_BUCKET, bucketInfo.getNumOfImages());
+            assertEquals(NUM_OF_IMAGES_IN_BUCKET / NUM_OF_IMAGES_IN_DATE_LABEL, bucketInfo.getNumOfDateInfos());
+
+            for (int i = 0; i < NUM_OF_IMAGES_IN_BUCKET; i += 37) {
+                DateLabelInfo dateLabelInfo = bucketInfo.get(i / NUM_OF_IMAGES_IN_DATE_LABEL);
+                int index = i % NUM_OF_IMAGES_IN_DATE_LABEL;
+
+                ImageInfo expected = createImageInfo(b, i);
+                ImageInfo actual = dateLabelInfo.getImageInfoStore().createImageInfo(index);
+
+                assertEquals(expected.getImageID(), actual.getImageID());
+                assertEquals(expected.getOrientation(), actual.getOrientation());
+                assertEquals(expected.getWidth(), actual.getWidth());
+                assertEquals(expected.getHeight(), actual.getHeight());
+                assertEquals(expected.getDateTaken(), actual.getDateTaken());
+                assertEquals(expected.getImagePath(), actual.getImagePath());
+                assertEquals(index, actual.getIndex());
+            }
+        }
+    }
+
+    // date labels of a bucket share the directory of their paths
+    @Test
+    public void dateLabelsShareDirectory() {
+        @SuppressWarnings("unchecked")
+        List<BucketInfo> bucketInfos = (List<BucketInfo>) IMAGE_INFO_STORE.build();
+
+        BucketInfo bucketInfo = bucketInfos.get(0);
+        ImageInfoStore first = bucketInfo.get(0).getImageInfoStore();
+        ImageInfoStore last = bucketInfo.getLast().getImageInfoStore();
+        assertSame(first.getDirectory(), last.getDirectory());
+    }
+
+    @Test
+    public void storeRetainsLessHeapThanImageInfoList() {
+        long imageInfoList = measureRetainedHeap(IMAGE_INFO_LIST);
+        long imageInfoStore = measureRetainedHeap(IMAGE_INFO_STORE);
+
+        // ImageInfo, its path String and the list slot against a few primitive
+        // columns and a relative UTF-8 file name. arrays of each date label take
+        // about a fifth of the store, so it is about 2x, not the 3x to 4x of a single store.
+        assertTrue("ImageInfoStore=" + (imageInfoStore / NUM_OF_IMAGES) + "B/image"
+                        + " ArrayList<ImageInfo>=" + (imageInfoList / NUM_OF_IMAGES) + "B/image",
+                imageInfoStore * 3L < imageInfoList * 2L);
+    }
+
+    // median of used heap growth while the catalog is reachable
+    private static long measureRetainedHeap(Catalog catalog) {
+        long[] retained = new long[NUM_OF_ROUNDS];
+
+        // warm up class loading and String.format
+        catalog.build();
+
+        for (int i = 0; i < NUM_OF_ROUNDS; i++) {
+            long before = getUsedHeap();
+            Object result = catalog.build();
+            long after = getUsedHeap();
+
+            retained[i] = after - before;
+
+            // keeps result reachable until the heap is measured
+            assertTrue(result != null);
+        }
+
+        Arrays.sort(retained);
+        return retained[NUM_OF_ROUNDS / 2];
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            runtime.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,105 @@
+package com.gomdev.gallery;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Created by gomdev on 15. 4. 19..
+ * <p/>
+ * Writes ImageInfoStore as CatalogSnapshot does and reads it back in bulk.
+ */
+public class ImageInfoStoreTest {
+    private static final String DIRECTORY = "/storage/emulated/0/DCIM/Camera/";
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        ImageInfoStore store = new ImageInfoStore();
+        for (int i = 0; i < 10; i++) {
+            store.insert(i, createImageInfo(i, DIRECTORY + "IMG_" + i + ".jpg"));
+        }
+        store.insert(10, createImageInfo(10, "/sdcard/Download/other.png"));
+        store.insert(11, createImageInfo(11, null));
+
+        // deleted paths are left in the pool as garbage
+        store.delete(3, 2);
+
+        ImageInfoStore read = roundTrip(store);
+
+        assertEquals(store.size(), read.size());
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(store.getImageID(i), read.getImageID(i));
+            assertEquals(store.getOrientation(i), read.getOrientation(i));
+            assertEquals(store.getWidth(i), read.getWidth(i));
+            assertEquals(store.getHeight(i), read.getHeight(i));
+            assertEquals(store.getDateTaken(i), read.getDateTaken(i));
+            assertEquals(store.getImagePath(i), read.getImagePath(i));
+        }
+        assertNull(read.getImagePath(read.size() - 1));
+
+        // the store read in bulk can be modified as a loaded one
+        read.insert(0, createImageInfo(100, DIRECTORY + "IMG_100.jpg"));
+        read.delete(1, 5);
+        read.trimToSize();
+        assertEquals(DIRECTORY + "IMG_100.jpg", read.getImagePath(0));
+        assertEquals(store.getImagePath(5), read.getImagePath(1));
+    }
+
+    @Test
+    public void emptyStoreRoundTrip() throws IOException {
+        ImageInfoStore read = roundTrip(new ImageInfoStore());
+
+        assertEquals(0, read.size());
+        read.insert(0, createImageInfo(1, DIRECTORY + "IMG_1.jpg"));
+        read.insert(1, createImageInfo(2, DIRECTORY + "IMG_2.jpg"));
+        assertEquals(DIRECTORY + "IMG_2.jpg", read.getImagePath(1));
+    }
+
+    @Test
+    public void truncatedSnapshot() throws IOException {
+        ImageInfoStore store = new ImageInfoStore();
+        for (int i = 0; i < 10; i++) {
+            store.insert(i, createImageInfo(i, DIRECTORY + "IMG_" + i + ".jpg"));
+        }
+
+        byte[] bytes = write(store);
+        try {
+            ImageInfoStore.read(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+            fail();
+        } catch (BufferUnderflowException e) {
+            // CatalogSnapshot.read() drops the snapshot
+        }
+    }
+
+    private static ImageInfo createImageInfo(int i, String path) {
+        ImageInfo imageInfo = new ImageInfo(i + 1, (i % 4) * 90);
+        imageInfo.setImagePath(path);
+        imageInfo.setWidth(4128 - i);
+        imageInfo.setHeight(3096 + i);
+        imageInfo.setDateTaken(1429401600000L - i * 1000L);
+        return imageInfo;
+    }
+
+    private static ImageInfoStore roundTrip(ImageInfoStore store) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(write(store));
+        ImageInfoStore read = ImageInfoStore.read(buffer);
+        assertEquals(0, buffer.remaining());
+        return read;
+    }
+
+    private static byte[] write(ImageInfoStore store) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        store.write(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+}